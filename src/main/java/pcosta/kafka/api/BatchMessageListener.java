@@ -0,0 +1,24 @@
+package pcosta.kafka.api;
+
+import com.google.protobuf.Message;
+
+import java.util.List;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * defines the contract for the listeners of a topic backfill: the historical messages of the topic, read in parallel
+ * chunks before the live consumption starts.
+ * <p>
+ * The chunks are delivered concurrently, each one of them in offset order.
+ */
+public interface BatchMessageListener<M extends Message> {
+
+    /**
+     * Handles a batch of backfilled messages
+     *
+     * @param metadata the metadata of each one of the messages, in the same order
+     * @param messages the messages to be handled, in offset order
+     */
+    void onMessages(final List<MessageMetadata> metadata, final List<M> messages);
+}
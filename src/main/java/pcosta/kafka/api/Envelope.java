@@ -0,0 +1,30 @@
+package pcosta.kafka.api;
+
+import com.google.protobuf.Message;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A message emitted by a topic publisher, along with its metadata.
+ * <p>
+ * The offsets of the topic are only committed up to the first emitted message which wasn't acknowledged yet.
+ *
+ * @param <M> the type of the message
+ */
+public interface Envelope<M extends Message> {
+
+    /**
+     * @return the message metadata
+     */
+    MessageMetadata getMetadata();
+
+    /**
+     * @return the message
+     */
+    M getMessage();
+
+    /**
+     * Acknowledges the message as processed, so that its offset can be committed. Can be called from any thread.
+     */
+    void acknowledge();
+}
@@ -0,0 +1,66 @@
+package pcosta.kafka.api;
+
+import com.google.protobuf.Message;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A local, continuously updated view of a compacted topic: the latest payload of each message key.
+ * Messages with a {@code null} value (tombstones) remove their key from the view.
+ * <p>
+ * The payloads are stored serialized, and only parsed when read.
+ *
+ * @param <M> the type of the materialized messages
+ */
+public interface MaterializedTopic<M extends Message> extends AutoCloseable {
+
+    /**
+     * Returns the latest payload received for the given key
+     *
+     * @param key the message key
+     * @return the latest payload, or {@code null} if there's none
+     */
+    M get(String key);
+
+    /**
+     * @param key the message key
+     * @return {@code true} if there's a payload for the given key
+     */
+    boolean containsKey(String key);
+
+    /**
+     * @return the keys currently materialized
+     */
+    Set<String> keys();
+
+    /**
+     * @return the number of keys currently materialized
+     */
+    int size();
+
+    /**
+     * Waits until the view catches up with the end of the topic at the time it was opened
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the timeout unit
+     * @return {@code true} if caught up, {@code false} if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitCaughtUp(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Writes the view to its snapshot file, if any, so that it's restored from there when opened again
+     *
+     * @throws MessagingException if the snapshot can't be written
+     */
+    void snapshot() throws MessagingException;
+
+    /**
+     * Stops updating the view, writing its snapshot file, if any
+     */
+    @Override
+    void close();
+}
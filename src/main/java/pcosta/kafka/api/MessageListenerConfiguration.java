@@ -4,6 +4,7 @@ import com.google.protobuf.ExtensionRegistry;
 import com.google.protobuf.Message;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * The configuration for the message listeners.
@@ -66,4 +67,45 @@ public interface MessageListenerConfiguration<M extends Message> {
      * @return the provided extension registry
      */
     ExtensionRegistry getExtensionRegistry();
+
+    /**
+     * Whether the configured {@code Topic}s are to be consumed by a shared, multiplexed kafka consumer
+     * instead of a dedicated consumer per topic. Useful for low-volume topics.
+     *
+     * @return {@code true} if the topics are to be multiplexed, {@code false} otherwise. {@code false} by default
+     */
+    boolean isMultiplexed();
+
+    /**
+     * Returns the content based predicates of the listeners: the accepted values by proto field path.
+     * The listeners are only called for the messages matching all the field paths.
+     *
+     * @return the accepted values by field path, empty by default
+     */
+    Map<String, Collection<String>> getFieldMatches();
+
+    /**
+     * Returns the listener of the topics backfill, if any. When defined, the retained messages of the configured
+     * {@code Topic}s are read in parallel chunks and delivered to it, and the message listeners are then handed
+     * the messages following the end offsets recorded when the backfill started.
+     *
+     * @return the backfill listener, {@code null} by default
+     */
+    BatchMessageListener<M> getBackfillListener();
+
+    /**
+     * Whether the listeners of each message are independent, and so can be called concurrently. The offset of a
+     * message is only committed once all of its listeners were called.
+     *
+     * @return {@code true} if the listeners are to be called concurrently, {@code false} by default
+     */
+    boolean isParallelListeners();
+
+    /**
+     * Returns the kafka cluster the configured {@code Topic}s are consumed from: the name of a cluster profile defined
+     * at the configuration file, or the default cluster if empty
+     *
+     * @return the cluster name, empty by default
+     */
+    String getCluster();
 }
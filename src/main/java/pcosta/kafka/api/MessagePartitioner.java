@@ -0,0 +1,28 @@
+package pcosta.kafka.api;
+
+/**
+ * Defines the strategy used by a {@link MessageProducer} to select the destination partition of each message.
+ * <p>
+ * Common strategies are available at {@link MessagePartitioners}.
+ *
+ * @author Pedro Costa
+ */
+@FunctionalInterface
+public interface MessagePartitioner<M> {
+
+    /**
+     * Lets kafka select the partition, according to the message key
+     */
+    int DEFAULT_PARTITION = -1;
+
+    /**
+     * Selects the destination partition of the given message
+     *
+     * @param topic         the destination topic
+     * @param message       the message to be sent
+     * @param key           the user supplied message key, or {@code null} if the default key is being used
+     * @param numPartitions the number of partitions of the destination topic
+     * @return the partition, within {@code [0, numPartitions)}, or {@link #DEFAULT_PARTITION}
+     */
+    int partition(final String topic, final M message, final String key, final int numPartitions);
+}
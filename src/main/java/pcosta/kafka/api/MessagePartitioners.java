@@ -0,0 +1,114 @@
+package pcosta.kafka.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Factory of the available {@link MessagePartitioner}s.
+ * <p>
+ * All of them hash user supplied keys like the kafka default partitioner does, so that messages sharing a business key
+ * keep their ordering. They only differ in how messages sent with the default {@code <topic>|<type>} key are spread,
+ * which would otherwise all land on the same partition.
+ *
+ * @author Pedro Costa
+ */
+public final class MessagePartitioners {
+
+    private MessagePartitioners() {
+    }
+
+    /**
+     * Spreads the messages sent with the default key over all the partitions, one message at a time
+     *
+     * @return the round-robin partitioner
+     */
+    public static <M> MessagePartitioner<M> roundRobin() {
+        return sticky(1);
+    }
+
+    /**
+     * Spreads the messages sent with the default key over all the partitions, sending {@code batchSize} consecutive
+     * messages to the same partition so that the producer batches stay large
+     *
+     * @param batchSize the number of consecutive messages sent to the same partition
+     * @return the sticky partitioner
+     */
+    public static <M> MessagePartitioner<M> sticky(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        final AtomicLong counter = new AtomicLong();
+        return (topic, message, key, numPartitions) -> key != null
+                ? hash(key, numPartitions)
+                : (int) ((counter.getAndIncrement() / batchSize) % numPartitions);
+    }
+
+    /**
+     * Selects the partition from a value extracted from the message itself, e.g. a tenant or an entity id, keeping the
+     * ordering of all the messages sharing that value. Messages with a {@code null} value are sent round-robin.
+     *
+     * @param extractor the message value extractor
+     * @return the message based partitioner
+     */
+    public static <M> MessagePartitioner<M> byMessage(final Function<? super M, ?> extractor) {
+        Objects.requireNonNull(extractor, "Invalid extractor");
+        final MessagePartitioner<M> fallback = roundRobin();
+        return (topic, message, key, numPartitions) -> {
+            final Object value = extractor.apply(message);
+            return value != null
+                    ? hash(value.toString(), numPartitions)
+                    : fallback.partition(topic, message, null, numPartitions);
+        };
+    }
+
+    /**
+     * @return the partition of the given key, as selected by the kafka default partitioner for {@code String} keys
+     */
+    private static int hash(final String key, final int numPartitions) {
+        return (murmur2(key.getBytes(StandardCharsets.UTF_8)) & 0x7fffffff) % numPartitions;
+    }
+
+    /**
+     * The 32 bit murmur2 hash, with the seed of the kafka default partitioner, rather than relying on the kafka
+     * client internal utilities
+     *
+     * @param data the bytes to be hashed
+     * @return the hash of the given bytes
+     */
+    private static int murmur2(final byte[] data) {
+        final int length = data.length;
+        final int m = 0x5bd1e995;
+        final int r = 24;
+        int h = 0x9747b28c ^ length;
+
+        final int length4 = length / 4;
+        for (int i = 0; i < length4; i++) {
+            final int i4 = i * 4;
+            int k = (data[i4] & 0xff) + ((data[i4 + 1] & 0xff) << 8) + ((data[i4 + 2] & 0xff) << 16)
+                    + ((data[i4 + 3] & 0xff) << 24);
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h *= m;
+            h ^= k;
+        }
+
+        // the last 1 to 3 bytes
+        switch (length % 4) {
+            case 3:
+                h ^= (data[(length & ~3) + 2] & 0xff) << 16;
+            case 2:
+                h ^= (data[(length & ~3) + 1] & 0xff) << 8;
+            case 1:
+                h ^= data[length & ~3] & 0xff;
+                h *= m;
+        }
+
+        h ^= h >>> 13;
+        h *= m;
+        h ^= h >>> 15;
+        return h;
+    }
+}
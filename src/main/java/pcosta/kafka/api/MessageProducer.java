@@ -1,5 +1,7 @@
 package pcosta.kafka.api;
 
+import org.reactivestreams.Subscriber;
+
 /**
  * The MessageProducer sends a message to a single or multiple Kafka {@code Topic}s
  *
@@ -33,4 +35,44 @@ public interface MessageProducer<M> {
      * @throws MessagingException if the message can't be sent to the underlying messaging service and topics.
      */
     void send(M message, String key, String traceabilityId, final String... topics) throws MessagingException;
+
+    /**
+     * Creates the underlying kafka producers for the given {@code topics} ahead of the first send, e.g. at startup.
+     * <p>
+     * Producers are otherwise lazily created in background on the first send to each topic. Does nothing by default.
+     *
+     * @param topics The destination topics to be warmed up
+     * @throws MessagingException if any of the kafka producers can't be created.
+     */
+    default void warmUp(String... topics) throws MessagingException {
+    }
+
+    /**
+     * Creates a Reactive Streams {@link Subscriber} sending each received message to the given {@code topic}, with the
+     * default message key.
+     * <p>
+     * No more than {@code maxInFlight} messages are ever awaiting their broker acknowledgement: a further message is
+     * only requested from the upstream as each one of them completes, successfully or not.
+     *
+     * @param topic       The destination topic
+     * @param maxInFlight The maximum number of messages sent and not yet acknowledged
+     * @param listener    Notified of the outcome of each message, from the kafka producer thread
+     * @return the message subscriber, to be subscribed once
+     * @throws MessagingException if the producer doesn't support sinks, as by default.
+     */
+    default Subscriber<M> sink(String topic, int maxInFlight, SendListener<? super M> listener) throws MessagingException {
+        throw new MessagingException("Sinks aren't supported by the producer: " + getClass().getName());
+    }
+
+    /**
+     * Sets the strategy used to select the destination partition of the messages sent from now on.
+     * <p>
+     * By default kafka selects the partition by hashing the message key.
+     *
+     * @param partitioner The message partitioner, or {@code null} to restore the kafka default partitioning
+     * @throws MessagingException if the producer doesn't support partitioners, as by default.
+     */
+    default void setPartitioner(MessagePartitioner<? super M> partitioner) throws MessagingException {
+        throw new MessagingException("Partitioners aren't supported by the producer: " + getClass().getName());
+    }
 }
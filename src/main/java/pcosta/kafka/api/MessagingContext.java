@@ -1,8 +1,12 @@
 package pcosta.kafka.api;
 
+import com.google.protobuf.Message;
 import org.apache.kafka.common.serialization.Serializer;
+import org.reactivestreams.Publisher;
 
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.stream.Stream;
 
 /**
  * The Kafka messaging context, in which message producers and receivers can be created in order to interact with kafka brokers
@@ -21,6 +25,35 @@ public interface MessagingContext {
      */
     void createReceiver(final MessageReceiverConfiguration configuration) throws MessagingException;
 
+    /**
+     * Registers the listeners of the given configuration into the running receiver, without interrupting the
+     * consumption of the already listened topics.
+     * <p>
+     * The listeners of a new topic start receiving once its consumer is assigned, either its own or a multiplexed one.
+     * The offset, multiplexing and backfill settings of an already listened topic are not changed.
+     *
+     * @param configuration the listeners configuration, its error listener is ignored
+     * @throws MessagingException if no receiver has been created
+     */
+    void registerListeners(final MessageReceiverConfiguration configuration) throws MessagingException;
+
+    /**
+     * Unregisters the given listener from all of its topics, at runtime. The topics left with no listeners are no
+     * longer consumed.
+     *
+     * @param listener the message listener
+     * @throws MessagingException if no receiver has been created
+     */
+    void unregisterListener(final MessageListener<?> listener) throws MessagingException;
+
+    /**
+     * Unregisters the given filter from all of the listened topics, at runtime
+     *
+     * @param filter the message filter
+     * @throws MessagingException if no receiver has been created
+     */
+    void unregisterFilter(final MessageFilter filter) throws MessagingException;
+
     /**
      * Creates a MessageProducer bounded to a specific type of messages, denoted by the {@code valueSerializer}.
      *
@@ -51,6 +84,126 @@ public interface MessagingContext {
                                           final Serializer valueSerializer,
                                           final Collection<MessageFilter> filters) throws MessagingException;
 
+    /**
+     * Creates a MessageProducer bounded to a specific type of messages, sending them to the given kafka cluster.
+     * <p>
+     * The cluster is a named profile of the configuration file, i.e. {@code cluster.<name>.bootstrap.servers}, whose
+     * kafka producer is shared by all the producers of that cluster.
+     *
+     * @param producerKey     the unique message producer key
+     * @param cluster         the kafka cluster name, or an empty string for the default cluster
+     * @param keySerializer   the messages key deserializer
+     * @param valueSerializer the messages value deserializer
+     * @param filters         the message filters to be applied to incoming messages
+     * @param <M>             the message type
+     * @return the message producer
+     * @throws MessagingException if the cluster is undefined, or if any error occurs while either creating or
+     *                            registering the message producer.
+     */
+    <M> MessageProducer<M> createProducer(final String producerKey,
+                                          final String cluster,
+                                          final Serializer keySerializer,
+                                          final Serializer valueSerializer,
+                                          final Collection<MessageFilter> filters) throws MessagingException;
+
+    /**
+     * Repositions the listeners of the given topic partition at the given offset, without restarting the receiver.
+     * <p>
+     * The seek is asynchronous: it's applied by the receiver before its next poll.
+     *
+     * @param topic     the listened topic
+     * @param partition the topic partition
+     * @param offset    the offset of the next message to be received
+     * @throws MessagingException if no receiver is listening to the given topic partition
+     */
+    void seek(String topic, int partition, long offset) throws MessagingException;
+
+    /**
+     * Repositions the listeners of the given topic partition at the earliest message whose timestamp is greater than
+     * or equal to the given one, or at the end of the partition if there's none, without restarting the receiver.
+     *
+     * @param topic     the listened topic
+     * @param partition the topic partition
+     * @param timestamp the timestamp, in milliseconds since epoch
+     * @throws MessagingException if no receiver is listening to the given topic partition
+     * @see #seek(String, int, long)
+     */
+    void seekToTimestamp(String topic, int partition, long timestamp) throws MessagingException;
+
+    /**
+     * Repositions the listeners of the given topic partition at its earliest retained message,
+     * without restarting the receiver.
+     *
+     * @param topic     the listened topic
+     * @param partition the topic partition
+     * @throws MessagingException if no receiver is listening to the given topic partition
+     * @see #seek(String, int, long)
+     */
+    void seekToBeginning(String topic, int partition) throws MessagingException;
+
+    /**
+     * Repositions the listeners of the given topic partition at its end, i.e. only new messages are received,
+     * without restarting the receiver.
+     *
+     * @param topic     the listened topic
+     * @param partition the topic partition
+     * @throws MessagingException if no receiver is listening to the given topic partition
+     * @see #seek(String, int, long)
+     */
+    void seekToEnd(String topic, int partition) throws MessagingException;
+
+    /**
+     * Opens a local view of the given compacted topic, holding the latest payload of each message key, and keeps
+     * it updated until closed or until this context is shut down.
+     * <p>
+     * When a snapshot file is given, the view is restored from it and resumes from the snapshot offset, instead of
+     * consuming the whole topic. The snapshot is written when the view is closed, and periodically if
+     * {@code api.materialized.snapshot.interval.ms} is defined.
+     *
+     * @param topic        the compacted topic
+     * @param messageType  the payload type of the messages to be materialized, messages of other types are ignored
+     * @param snapshotFile the snapshot file, or {@code null} to always consume the whole topic
+     * @param <M>          the message type
+     * @return the materialized topic
+     * @throws MessagingException if the view can't be opened
+     */
+    <M extends Message> MaterializedTopic<M> materialize(String topic, Class<M> messageType, Path snapshotFile)
+            throws MessagingException;
+
+    /**
+     * Creates a publisher of the messages of the given topic, for a single subscriber, fetching them as demanded.
+     * <p>
+     * The publisher resumes from the offset committed by the {@code <topic>Publisher} consumer group, which is only
+     * moved past the messages once their {@link Envelope} is acknowledged. The subscription is cancelled when this
+     * context is shut down.
+     *
+     * @param topic       the topic to be published
+     * @param messageType the payload type of the published messages, messages of other types are skipped
+     * @param <M>         the message type
+     * @return the topic publisher
+     * @throws MessagingException if the publisher can't be created
+     */
+    <M extends Message> Publisher<Envelope<M>> publisher(String topic, Class<M> messageType) throws MessagingException;
+
+    /**
+     * Reads the messages within {@code [fromOffset, toOffset)} of every partition of the given topic, e.g. for offline
+     * analyses. The offsets are clamped to the ones retained by each partition at the time of the call.
+     * <p>
+     * The returned stream is sequential: as a {@link Stream#parallel() parallel} stream, its partitions and offset
+     * ranges are read concurrently by several consumers. It's to be closed if not fully traversed.
+     *
+     * @param topic       the topic to be read
+     * @param messageType the payload type of the read messages, messages of other types are skipped
+     * @param fromOffset  the first offset to be read, of each partition
+     * @param toOffset    the offset following the last one to be read, of each partition, e.g. {@link Long#MAX_VALUE}
+     *                    to read up to their current end
+     * @param <M>         the message type
+     * @return the stream of messages, in offset order by partition
+     * @throws MessagingException if the topic can't be read
+     */
+    <M extends Message> Stream<M> read(String topic, Class<M> messageType, long fromOffset, long toOffset)
+            throws MessagingException;
+
     /**
      * Closes this context resources.
      * All receivers must be removed and the application module must be terminated.
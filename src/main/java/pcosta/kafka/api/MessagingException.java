@@ -31,4 +31,16 @@ public class MessagingException extends RuntimeException {
     public MessagingException(final String message, final Throwable throwable) {
         super(message, throwable);
     }
+
+    /**
+     * Constructs the exception with the specified error message and original cause, optionally without a stack trace
+     * for errors raised on hot paths, e.g. once per received message
+     *
+     * @param message            the error message
+     * @param throwable          the original error cause
+     * @param writableStackTrace whether the stack trace is to be filled
+     */
+    protected MessagingException(final String message, final Throwable throwable, final boolean writableStackTrace) {
+        super(message, throwable, false, writableStackTrace);
+    }
 }
@@ -20,4 +20,13 @@ public interface PlatformError {
      * @return the raw, original throwable of the error
      */
     Throwable getCause();
+
+    /**
+     * Returns the number of occurrences of this error, when identical errors are collapsed over a time window.
+     *
+     * @return the number of occurrences this error stands for, {@code 1} by default
+     */
+    default int getOccurrences() {
+        return 1;
+    }
 }
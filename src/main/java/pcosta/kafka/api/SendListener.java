@@ -0,0 +1,20 @@
+package pcosta.kafka.api;
+
+/**
+ * Notified of the outcome of each message sent through a {@link MessageProducer#sink(String, int, SendListener)}.
+ *
+ * @author Pedro Costa
+ */
+@FunctionalInterface
+public interface SendListener<M> {
+
+    /**
+     * Handles the outcome of a sent message
+     *
+     * @param message the sent message
+     * @param offset  the message offset, or {@code -1} if unknown: the message was filtered, spooled or sent within a
+     *                receiver transaction
+     * @param error   the send error, or {@code null} if the message was sent
+     */
+    void onCompletion(final M message, final long offset, final Exception error);
+}
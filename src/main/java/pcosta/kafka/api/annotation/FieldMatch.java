@@ -0,0 +1,32 @@
+package pcosta.kafka.api.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A content based predicate of a {@link MessagingListener}: the listener is only called for messages whose
+ * {@link #field()} holds one of the given {@link #values()}.
+ *
+ * @author Pedro Costa
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface FieldMatch {
+
+    /**
+     * The proto field path, using the proto field names and {@code .} to navigate nested messages,
+     * e.g. {@code header.tenant_id}
+     *
+     * @return the field path
+     */
+    String field();
+
+    /**
+     * The accepted field values, converted to the field type. Enum values are given by name.
+     *
+     * @return the accepted values
+     */
+    String[] values();
+}
@@ -56,4 +56,35 @@ public @interface MessagingListener {
      * @return the configured partition. Partition {@code 0} will be returned by default
      */
     int partition() default 0;
+
+    /**
+     * Whether the configured {@code Topic} is to be consumed by a shared, multiplexed kafka consumer, along with all the
+     * other multiplexed topics, instead of a dedicated one. Recommended for low-volume topics.
+     *
+     * @return {@code true} if the topic is to be multiplexed. {@code false} by default
+     */
+    boolean multiplexed() default false;
+
+    /**
+     * Whether the listeners of the configured {@code Topic} are independent, and so can be called concurrently for each
+     * message. Only applied if all the listeners of the topic agree on it.
+     *
+     * @return {@code true} if the listeners are to be called concurrently. {@code false} by default
+     */
+    boolean parallel() default false;
+
+    /**
+     * The kafka cluster the configured {@code Topic} is consumed from: the name of a cluster profile defined at the
+     * configuration file, as {@code cluster.<name>.bootstrap.servers}
+     *
+     * @return the cluster name. The default cluster if empty, by default
+     */
+    String cluster() default "";
+
+    /**
+     * The content based predicates of this listener: it's only called for the messages matching all of them
+     *
+     * @return the field predicates. None by default
+     */
+    FieldMatch[] where() default {};
 }
@@ -1,5 +1,6 @@
 package pcosta.kafka.configuration;
 
+import pcosta.kafka.api.BatchMessageListener;
 import pcosta.kafka.api.MessageFilter;
 import pcosta.kafka.api.MessageListener;
 import pcosta.kafka.api.MessageListenerConfiguration;
@@ -31,6 +32,16 @@ public class ListenerConfigurationBuilder<M extends Message> {
     private int partition = 0;
     // the latest offset
     private long offset = MessageListener.LATEST_OFFSET;
+    // dedicated kafka consumer by default
+    private boolean multiplexed = false;
+    // the accepted values by field path
+    private final Map<String, Collection<String>> fieldMatches = new LinkedHashMap<>();
+    // no backfill by default
+    private BatchMessageListener<M> backfillListener;
+    // sequential listeners by default
+    private boolean parallelListeners = false;
+    // the default kafka cluster by default
+    private String cluster = "";
 
     /**
      * Default protected constructor
@@ -190,6 +201,81 @@ public class ListenerConfigurationBuilder<M extends Message> {
         return this;
     }
 
+    /**
+     * Defines whether the configured topics are to be consumed by a shared, multiplexed kafka consumer
+     *
+     * @param multiplexed {@code true} to share a kafka consumer with other multiplexed topics
+     * @return the current builder
+     */
+    public final ListenerConfigurationBuilder<M> withMultiplexedReceiver(final boolean multiplexed) {
+        this.multiplexed = multiplexed;
+        return this;
+    }
+
+    /**
+     * Defines whether the listeners of each message are independent, and so are to be called concurrently
+     *
+     * @param parallelListeners {@code true} to call the listeners of each message concurrently
+     * @return the current builder
+     */
+    public final ListenerConfigurationBuilder<M> withParallelListeners(final boolean parallelListeners) {
+        this.parallelListeners = parallelListeners;
+        return this;
+    }
+
+    /**
+     * Defines the kafka cluster the configured topics are consumed from
+     *
+     * @param cluster the name of a cluster profile defined at the configuration file, or empty for the default cluster
+     * @return the current builder
+     */
+    public final ListenerConfigurationBuilder<M> withCluster(final String cluster) {
+        this.cluster = Objects.requireNonNull(cluster, "Invalid cluster provided");
+        return this;
+    }
+
+    /**
+     * Adds a content based predicate: the listeners are only called for messages whose {@code field} holds one of the
+     * given {@code values}
+     *
+     * @param field  the proto field path, e.g. {@code header.tenant_id}
+     * @param values the accepted field values
+     * @return the current builder
+     */
+    public final ListenerConfigurationBuilder<M> addFieldMatch(final String field, final String... values) {
+        Objects.requireNonNull(field, "Invalid field provided");
+        Objects.requireNonNull(values, "Invalid field values provided");
+        if (values.length == 0) {
+            throw new IllegalArgumentException("No values provided for field: " + field);
+        }
+        this.fieldMatches.computeIfAbsent(field, f -> new ArrayList<>()).addAll(Arrays.asList(values));
+        return this;
+    }
+
+    /**
+     * Adds the given content based predicates to the current configuration
+     *
+     * @param fieldMatches the accepted values by proto field path
+     * @return the current builder
+     */
+    public final ListenerConfigurationBuilder<M> addFieldMatches(final Map<String, Collection<String>> fieldMatches) {
+        Objects.requireNonNull(fieldMatches, "Invalid field matches provided");
+        fieldMatches.forEach((field, values) -> addFieldMatch(field, values.toArray(new String[values.size()])));
+        return this;
+    }
+
+    /**
+     * Backfills the configured topics before the live consumption: their retained messages are read in parallel
+     * chunks and delivered to the given listener, and the message listeners then receive the following messages
+     *
+     * @param backfillListener the backfill listener
+     * @return the current builder
+     */
+    public final ListenerConfigurationBuilder<M> withBackfill(final BatchMessageListener<M> backfillListener) {
+        this.backfillListener = Objects.requireNonNull(backfillListener, "Invalid backfill listener provided");
+        return this;
+    }
+
     /**
      * Builds the listener configuration based on the current builder state.
      *
@@ -219,6 +305,7 @@ public class ListenerConfigurationBuilder<M extends Message> {
         if (extensionRegistry == null) this.extensionRegistry = ExtensionRegistry.getEmptyRegistry();
 
         // create the new configuration
-        return new MessageListenerConfigurationImpl<>(listeners, filters, topics, extensionRegistry, messageType, partition, offset);
+        return new MessageListenerConfigurationImpl<>(listeners, filters, topics, extensionRegistry, messageType, partition, offset,
+                multiplexed, fieldMatches, backfillListener, parallelListeners, cluster);
     }
 }
@@ -1,5 +1,6 @@
 package pcosta.kafka.configuration;
 
+import pcosta.kafka.api.BatchMessageListener;
 import pcosta.kafka.api.MessageFilter;
 import pcosta.kafka.api.MessageListener;
 import pcosta.kafka.api.MessageListenerConfiguration;
@@ -7,6 +8,8 @@ import com.google.protobuf.ExtensionRegistry;
 import com.google.protobuf.Message;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * A simple implementation of the {@link MessageListenerConfiguration}, which receives it's configuration upon construction time.
@@ -22,6 +25,11 @@ class MessageListenerConfigurationImpl<M extends Message> implements MessageList
     private final ExtensionRegistry extensionRegistry;
     private final int partition;
     private final long offset;
+    private final boolean multiplexed;
+    private final Map<String, Collection<String>> fieldMatches;
+    private final BatchMessageListener<M> backfillListener;
+    private final boolean parallelListeners;
+    private final String cluster;
 
     /**
      * Default configuration constructor.
@@ -38,6 +46,35 @@ class MessageListenerConfigurationImpl<M extends Message> implements MessageList
                                      final Collection<String> topics,
                                      final ExtensionRegistry extensionRegistry,
                                      final Class<M> messageType, int partition, long offset) {
+        this(listeners, filters, topics, extensionRegistry, messageType, partition, offset, false, Collections.emptyMap(),
+                null, false, "");
+    }
+
+    /**
+     * Full configuration constructor.
+     *
+     * @param listeners         the actual message listener
+     * @param topics            the collection of message topics
+     * @param messageType       the messages type
+     * @param extensionRegistry the extension registry used to parse extension fields
+     * @param partition         the topic partition
+     * @param offset            the initial message offset
+     * @param multiplexed       whether the topics are to be consumed by a shared kafka consumer
+     * @param fieldMatches      the accepted values by proto field path
+     * @param backfillListener  the listener of the topics backfill, or {@code null} for no backfill
+     * @param parallelListeners whether the listeners of each message are to be called concurrently
+     * @param cluster           the name of the kafka cluster profile, empty for the default cluster
+     */
+    MessageListenerConfigurationImpl(final Collection<MessageListener> listeners,
+                                     final Collection<MessageFilter> filters,
+                                     final Collection<String> topics,
+                                     final ExtensionRegistry extensionRegistry,
+                                     final Class<M> messageType, int partition, long offset,
+                                     final boolean multiplexed,
+                                     final Map<String, Collection<String>> fieldMatches,
+                                     final BatchMessageListener<M> backfillListener,
+                                     final boolean parallelListeners,
+                                     final String cluster) {
         this.listeners = listeners;
         this.topics = topics;
         this.messageType = messageType;
@@ -45,6 +82,11 @@ class MessageListenerConfigurationImpl<M extends Message> implements MessageList
         this.extensionRegistry = extensionRegistry;
         this.partition = partition;
         this.offset = offset;
+        this.multiplexed = multiplexed;
+        this.fieldMatches = fieldMatches;
+        this.backfillListener = backfillListener;
+        this.parallelListeners = parallelListeners;
+        this.cluster = cluster;
     }
 
     @Override
@@ -81,4 +123,29 @@ class MessageListenerConfigurationImpl<M extends Message> implements MessageList
     public ExtensionRegistry getExtensionRegistry() {
         return extensionRegistry;
     }
+
+    @Override
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    @Override
+    public Map<String, Collection<String>> getFieldMatches() {
+        return fieldMatches;
+    }
+
+    @Override
+    public BatchMessageListener<M> getBackfillListener() {
+        return backfillListener;
+    }
+
+    @Override
+    public boolean isParallelListeners() {
+        return parallelListeners;
+    }
+
+    @Override
+    public String getCluster() {
+        return cluster;
+    }
 }
@@ -0,0 +1,210 @@
+package pcosta.kafka.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Tunes the kafka receiver poll timeout, {@code max.poll.records} and {@code max.partition.fetch.bytes} from the
+ * observed record sizes, arrival rate and listener processing time, always within the configured bounds.
+ * <p>
+ * Quiet topics converge to small batches and buffers, while hot topics converge to large batches.
+ * As kafka consumer properties can't be changed at runtime, the fetch sizing is only applied when the receiver
+ * recreates its consumer, which is rate limited by the configured resize interval.
+ */
+class AdaptivePollTuner {
+
+    // the api properties
+    static final String ADAPTIVE_ENABLED = "api.receiver.adaptive.enabled";
+    static final String POLL_TIMEOUT_MIN = "api.receiver.adaptive.poll.timeout.min.ms";
+    static final String POLL_TIMEOUT_MAX = "api.receiver.adaptive.poll.timeout.max.ms";
+    static final String POLL_RECORDS_MIN = "api.receiver.adaptive.poll.records.min";
+    static final String POLL_RECORDS_MAX = "api.receiver.adaptive.poll.records.max";
+    static final String FETCH_BYTES_MIN = "api.receiver.adaptive.fetch.bytes.min";
+    static final String FETCH_BYTES_MAX = "api.receiver.adaptive.fetch.bytes.max";
+    static final String BATCH_TIME_TARGET = "api.receiver.adaptive.batch.time.ms";
+    static final String RESIZE_INTERVAL = "api.receiver.adaptive.resize.interval.ms";
+
+    // the smoothing factor of the moving averages
+    private static final double ALPHA = 0.2;
+    // the recommended value must drift beyond this factor from the current one to trigger a resize
+    private static final double RESIZE_FACTOR = 2.0;
+
+    // the configured bounds
+    private final long minPollTimeout;
+    private final long maxPollTimeout;
+    private final int minPollRecords;
+    private final int maxPollRecords;
+    private final int minFetchBytes;
+    private final int maxFetchBytes;
+    private final long batchTimeTargetNanos;
+    private final long resizeIntervalMillis;
+
+    // the current state
+    private long pollTimeout;
+    private int currentPollRecords;
+    private int currentFetchBytes;
+    private long lastResize;
+
+    // the observed moving averages
+    private double avgRecordBytes;
+    private double avgProcessingNanos;
+    private double avgArrivalRate;
+
+    /**
+     * Default constructor
+     *
+     * @param minPollTimeout       the minimum poll timeout, in milliseconds
+     * @param maxPollTimeout       the maximum poll timeout, in milliseconds
+     * @param minPollRecords       the minimum {@code max.poll.records}
+     * @param maxPollRecords       the maximum {@code max.poll.records}
+     * @param minFetchBytes        the minimum {@code max.partition.fetch.bytes}
+     * @param maxFetchBytes        the maximum {@code max.partition.fetch.bytes}
+     * @param batchTimeTarget      the desired time to process each polled batch, in milliseconds
+     * @param resizeIntervalMillis the minimum interval between consecutive consumer resizes, in milliseconds
+     * @param now                  the current time, in milliseconds
+     */
+    AdaptivePollTuner(long minPollTimeout, long maxPollTimeout,
+                      int minPollRecords, int maxPollRecords,
+                      int minFetchBytes, int maxFetchBytes,
+                      long batchTimeTarget, long resizeIntervalMillis, long now) {
+
+        if (minPollTimeout > maxPollTimeout || minPollRecords > maxPollRecords || minFetchBytes > maxFetchBytes) {
+            throw new IllegalArgumentException("Invalid adaptive poll bounds");
+        }
+        this.minPollTimeout = minPollTimeout;
+        this.maxPollTimeout = maxPollTimeout;
+        this.minPollRecords = minPollRecords;
+        this.maxPollRecords = maxPollRecords;
+        this.minFetchBytes = minFetchBytes;
+        this.maxFetchBytes = maxFetchBytes;
+        this.batchTimeTargetNanos = TimeUnit.MILLISECONDS.toNanos(batchTimeTarget);
+        this.resizeIntervalMillis = resizeIntervalMillis;
+
+        // start from the kafka defaults, within bounds
+        this.pollTimeout = maxPollTimeout;
+        this.currentPollRecords = clamp(500, minPollRecords, maxPollRecords);
+        this.currentFetchBytes = clamp(1024 * 1024, minFetchBytes, maxFetchBytes);
+        this.lastResize = now;
+    }
+
+    /**
+     * Creates a tuner with the bounds defined at the configuration file, if enabled
+     *
+     * @return the tuner, or {@code null} if the adaptive polling is disabled
+     */
+    static AdaptivePollTuner fromProperties() {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        if (!reader.getBooleanProperty(ADAPTIVE_ENABLED, false)) {
+            return null;
+        }
+        return new AdaptivePollTuner(
+                reader.getLongProperty(POLL_TIMEOUT_MIN, 10),
+                reader.getLongProperty(POLL_TIMEOUT_MAX, 1000),
+                reader.getIntProperty(POLL_RECORDS_MIN, 10),
+                reader.getIntProperty(POLL_RECORDS_MAX, 2000),
+                reader.getIntProperty(FETCH_BYTES_MIN, 64 * 1024),
+                reader.getIntProperty(FETCH_BYTES_MAX, 50 * 1024 * 1024),
+                reader.getLongProperty(BATCH_TIME_TARGET, 200),
+                reader.getLongProperty(RESIZE_INTERVAL, 60_000),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Records the outcome of a poll loop iteration
+     *
+     * @param records         the number of polled records
+     * @param bytes           the total serialized size of the polled records
+     * @param processingNanos the time spent delivering the records to the listeners
+     * @param elapsedNanos    the whole iteration time, poll included
+     */
+    void observe(int records, long bytes, long processingNanos, long elapsedNanos) {
+        final double rate = elapsedNanos > 0 ? records * 1e9 / elapsedNanos : 0;
+        this.avgArrivalRate = average(avgArrivalRate, rate);
+
+        if (records == 0) {
+            // nothing arrived: back off, there's no point in waking up often
+            this.pollTimeout = Math.min(maxPollTimeout, Math.max(minPollTimeout, pollTimeout * 2));
+            return;
+        }
+        this.avgRecordBytes = average(avgRecordBytes, (double) bytes / records);
+        this.avgProcessingNanos = average(avgProcessingNanos, (double) processingNanos / records);
+        // records are flowing: keep the loop responsive
+        this.pollTimeout = Math.max(minPollTimeout, pollTimeout / 2);
+    }
+
+    /**
+     * @return the poll timeout to be used on the next poll, in milliseconds
+     */
+    long pollTimeout() {
+        return pollTimeout;
+    }
+
+    /**
+     * @return the recommended {@code max.poll.records} for the observed traffic
+     */
+    int recommendedPollRecords() {
+        // enough records to fill the batch time target at the observed arrival rate...
+        final double batchSeconds = batchTimeTargetNanos / 1e9;
+        final double byArrival = avgArrivalRate * batchSeconds;
+        // ...but no more than the listeners can process within that same target
+        final double byProcessing = avgProcessingNanos > 0 ? batchTimeTargetNanos / avgProcessingNanos : maxPollRecords;
+        return clamp((long) Math.ceil(Math.min(byArrival, byProcessing)), minPollRecords, maxPollRecords);
+    }
+
+    /**
+     * @return the recommended {@code max.partition.fetch.bytes} for the observed traffic
+     */
+    int recommendedFetchBytes() {
+        // room for twice the recommended batch, so that the next batch is already being fetched
+        return clamp((long) Math.ceil(avgRecordBytes * recommendedPollRecords() * 2), minFetchBytes, maxFetchBytes);
+    }
+
+    /**
+     * @return the {@code max.poll.records} currently in use
+     */
+    int currentPollRecords() {
+        return currentPollRecords;
+    }
+
+    /**
+     * @return the {@code max.partition.fetch.bytes} currently in use
+     */
+    int currentFetchBytes() {
+        return currentFetchBytes;
+    }
+
+    /**
+     * Checks if the consumer is to be recreated with the recommended sizing, in which case the recommendation
+     * becomes the current sizing
+     *
+     * @param now the current time, in milliseconds
+     * @return {@code true} if the consumer is to be recreated, {@code false} otherwise
+     */
+    boolean shouldResize(long now) {
+        if (now - lastResize < resizeIntervalMillis) {
+            return false;
+        }
+        final int pollRecords = recommendedPollRecords();
+        final int fetchBytes = recommendedFetchBytes();
+        if (!drifted(pollRecords, currentPollRecords) && !drifted(fetchBytes, currentFetchBytes)) {
+            return false;
+        }
+        this.currentPollRecords = pollRecords;
+        this.currentFetchBytes = fetchBytes;
+        this.lastResize = now;
+        return true;
+    }
+
+    private static boolean drifted(int recommended, int current) {
+        return recommended > current * RESIZE_FACTOR || recommended * RESIZE_FACTOR < current;
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0 ? sample : average + ALPHA * (sample - average);
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,179 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.internal.MessageReceiver.MessageProcessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Reads the retained messages of a topic partition, from its beginning up to the end offset at the time of the read,
+ * splitting the offset range into chunks which are read concurrently by several kafka consumers.
+ * Each chunk is delivered to the processor's backfill listeners in offset order, one polled batch at a time.
+ * <p>
+ * The backfill consumers neither join the consumer group nor commit offsets: the live receiver is the one resuming
+ * from the recorded end offset.
+ */
+final class BackfillReader {
+
+    private static final Logger log = LoggerFactory.getLogger(BackfillReader.class);
+
+    // the api properties
+    static final String BACKFILL_CONSUMERS = "api.receiver.backfill.consumers";
+    static final String BACKFILL_CHUNK_RECORDS = "api.receiver.backfill.chunk.records";
+
+    private static final int DEFAULT_CONSUMERS = 4;
+    private static final long DEFAULT_CHUNK_RECORDS = 100_000;
+    private static final int POLL_TIMEOUT = 1000;
+
+    // the processor delivering the backfilled messages
+    private final MessageProcessor processor;
+    // the maximum number of concurrent consumers
+    private final int consumers;
+    // the maximum number of offsets read by each chunk
+    private final long chunkRecords;
+    // the backfill consumers properties
+    private final Map<String, Object> consumerProperties;
+
+    /**
+     * Default constructor
+     *
+     * @param processor          the processor delivering the backfilled messages
+     * @param consumers          the maximum number of concurrent consumers
+     * @param chunkRecords       the maximum number of offsets read by each chunk
+     * @param consumerProperties the backfill consumers properties
+     */
+    BackfillReader(MessageProcessor processor, int consumers, long chunkRecords, Map<String, Object> consumerProperties) {
+        this.processor = processor;
+        this.consumers = Math.max(1, consumers);
+        this.chunkRecords = Math.max(1, chunkRecords);
+        this.consumerProperties = new HashMap<>(consumerProperties);
+        this.consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        this.consumerProperties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        this.consumerProperties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+    }
+
+    /**
+     * Creates a backfill reader for the given processor, sized as defined at the configuration file
+     *
+     * @param processor the processor delivering the backfilled messages
+     * @return the backfill reader
+     */
+    static BackfillReader fromProperties(MessageProcessor processor) {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        final Map<String, Object> properties = reader.loadConsumerProps(processor.cluster);
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, processor.topic.toLowerCase() + "Backfill");
+        return new BackfillReader(
+                processor,
+                reader.getIntProperty(BACKFILL_CONSUMERS, DEFAULT_CONSUMERS),
+                reader.getLongProperty(BACKFILL_CHUNK_RECORDS, DEFAULT_CHUNK_RECORDS),
+                properties);
+    }
+
+    /**
+     * Reads the given partition from its beginning up to its current end offset, blocking until all chunks are read
+     *
+     * @param topicPartition the topic partition to be backfilled
+     * @return the end offset at the time of the read, i.e. the offset of the first message not backfilled
+     * @throws InterruptedException if interrupted while waiting for the chunks
+     * @throws ExecutionException   if any of the chunks failed to be read
+     */
+    long read(TopicPartition topicPartition) throws InterruptedException, ExecutionException {
+        final long begin;
+        final long end;
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(chunkProperties(0))) {
+            begin = consumer.beginningOffsets(singletonList(topicPartition)).get(topicPartition);
+            end = consumer.endOffsets(singletonList(topicPartition)).get(topicPartition);
+        }
+
+        final List<long[]> chunks = split(begin, end, consumers, chunkRecords);
+        log.info("Backfilling {} from offset {} to {} in {} chunks", topicPartition, begin, end, chunks.size());
+        if (chunks.isEmpty()) return end;
+
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(consumers, chunks.size()), runnable -> {
+            final Thread thread = new Thread(runnable, processor.topic + "KafkaBackfill-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<?>> futures = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                final long[] chunk = chunks.get(i);
+                final int id = i;
+                futures.add(executor.submit(() -> readChunk(topicPartition, chunk[0], chunk[1], id)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Backfilled {} up to offset {}", topicPartition, end);
+        return end;
+    }
+
+    /**
+     * Reads the offsets {@code [from, to)} of the given partition. Compacted away offsets are skipped by the consumer.
+     */
+    private void readChunk(TopicPartition topicPartition, long from, long to, int id) {
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(chunkProperties(id))) {
+            consumer.assign(singletonList(topicPartition));
+            consumer.seek(topicPartition, from);
+
+            while (consumer.position(topicPartition) < to && !processor.stopped) {
+                final List<ConsumerRecord<String, byte[]>> batch = new ArrayList<>();
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(POLL_TIMEOUT).records(topicPartition)) {
+                    if (record.offset() < to) batch.add(record);
+                }
+                if (!batch.isEmpty()) processor.processBatch(batch);
+            }
+        }
+    }
+
+    private Map<String, Object> chunkProperties(int id) {
+        final Map<String, Object> properties = new HashMap<>(consumerProperties);
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, processor.topic.toLowerCase() + "Backfill-" + id);
+        return properties;
+    }
+
+    /**
+     * Splits the offset range {@code [begin, end)} into at least as many chunks as consumers, as long as there are
+     * enough offsets, none of them larger than {@code chunkRecords}
+     *
+     * @param begin        the first offset
+     * @param end          the offset following the last one
+     * @param consumers    the number of concurrent consumers
+     * @param chunkRecords the maximum number of offsets by chunk
+     * @return the {@code [from, to)} offset ranges
+     */
+    static List<long[]> split(long begin, long end, int consumers, long chunkRecords) {
+        final long range = end - begin;
+        final List<long[]> chunks = new ArrayList<>();
+        if (range <= 0) return chunks;
+
+        final long size = Math.max(1, Math.min(chunkRecords, (range + consumers - 1) / consumers));
+        for (long from = begin; from < end; from += size) {
+            chunks.add(new long[]{from, Math.min(end, from + size)});
+        }
+        return chunks;
+    }
+}
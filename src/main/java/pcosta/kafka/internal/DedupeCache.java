@@ -0,0 +1,169 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Arrays;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A bounded set of the most recently seen message ids, used to drop redelivered messages.
+ * <p>
+ * Ids are kept as 64-bit hashes in an open addressing table, with the insertion order kept in a ring so that the
+ * oldest id is evicted once the capacity is reached. Memory is fixed at creation: 24 to 40 bytes per id.
+ */
+final class DedupeCache {
+
+    // the api properties
+    static final String DEDUPE_ENABLED = "api.receiver.dedupe.enabled";
+    static final String DEDUPE_CAPACITY = "api.receiver.dedupe.capacity";
+
+    private static final int DEFAULT_CAPACITY = 65536;
+    // the empty table slot
+    private static final long EMPTY = 0L;
+
+    // the hashed ids, by open addressing
+    private final long[] table;
+    private final int mask;
+    // the hashed ids, by insertion order
+    private final long[] ring;
+    private int head;
+    private int size;
+
+    // the statistics
+    private long hits;
+    private long misses;
+
+    /**
+     * Default constructor
+     *
+     * @param capacity the number of most recent ids to remember
+     */
+    DedupeCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid dedupe capacity: " + capacity);
+        }
+        // keep the table at most half full
+        final int tableSize = Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+        this.table = new long[tableSize];
+        this.mask = tableSize - 1;
+        this.ring = new long[capacity];
+    }
+
+    /**
+     * Creates a dedupe cache with the capacity defined at the configuration file, if enabled
+     *
+     * @return the dedupe cache, or {@code null} if the deduplication is disabled
+     */
+    static DedupeCache fromProperties() {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        if (!reader.getBooleanProperty(DEDUPE_ENABLED, false)) {
+            return null;
+        }
+        return new DedupeCache(reader.getIntProperty(DEDUPE_CAPACITY, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Checks if the given id was recently seen, remembering it otherwise
+     *
+     * @param id the message id
+     * @return {@code true} if the id is a duplicate, {@code false} otherwise
+     */
+    synchronized boolean isDuplicate(ByteString id) {
+        final long hash = hash(id);
+        if (contains(hash)) {
+            hits++;
+            return true;
+        }
+        misses++;
+        if (size == ring.length) {
+            // evict the oldest id
+            remove(ring[head]);
+            size--;
+        }
+        insert(hash);
+        ring[head] = hash;
+        head = (head + 1) % ring.length;
+        size++;
+        return false;
+    }
+
+    /**
+     * Forgets all the remembered ids, e.g. before replaying the messages of a topic
+     */
+    synchronized void clear() {
+        Arrays.fill(table, EMPTY);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the number of duplicates found
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of new ids found
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the ratio of duplicates among all the checked ids
+     */
+    synchronized double hitRate() {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private boolean contains(long hash) {
+        for (int i = slot(hash); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == hash) return true;
+        }
+        return false;
+    }
+
+    private void insert(long hash) {
+        int i = slot(hash);
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = hash;
+    }
+
+    private void remove(long hash) {
+        int i = slot(hash);
+        while (table[i] != hash) {
+            if (table[i] == EMPTY) return;
+            i = (i + 1) & mask;
+        }
+        // backward shift the following entries, so that no probe sequence is broken
+        for (int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            final int home = slot(table[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = EMPTY;
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of the given id, never {@link #EMPTY}
+     */
+    static long hash(ByteString id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.size(); i++) {
+            hash ^= id.byteAt(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+}
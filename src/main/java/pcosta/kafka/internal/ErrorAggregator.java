@@ -0,0 +1,136 @@
+package pcosta.kafka.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.PlatformError;
+import pcosta.kafka.api.PlatformErrorListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Collapses the identical errors of a topic over a time window, so that a poison topic doesn't flood the error listener
+ * and the logs at full consume rate.
+ * <p>
+ * The first occurrence of each error within a window is delivered right away, and the following ones are counted and
+ * delivered as a single summarized {@link PlatformError} once the window is over. Errors are identical when both their
+ * description and cause type match.
+ */
+final class ErrorAggregator {
+
+    private static final Logger log = LoggerFactory.getLogger(ErrorAggregator.class);
+
+    // the api properties
+    static final String ERRORS_WINDOW = "api.receiver.errors.window.ms";
+
+    // the executor flushing the summarized errors of all the topics
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "KafkaErrorAggregator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String topic;
+    private final PlatformErrorListener errorListener;
+    private final long window;
+
+    // the errors of the current window, by error key
+    private final Map<String, Collapsed> collapsed;
+    private boolean flushScheduled;
+
+    /**
+     * Default constructor
+     *
+     * @param topic         the topic whose errors are aggregated
+     * @param errorListener the error listener
+     * @param window        the aggregation window, in milliseconds. Errors are not aggregated if not positive
+     */
+    ErrorAggregator(String topic, PlatformErrorListener errorListener, long window) {
+        this.topic = topic;
+        this.errorListener = errorListener;
+        this.window = window;
+        this.collapsed = new HashMap<>();
+    }
+
+    /**
+     * Creates an error aggregator with the window defined at the configuration file, disabled by default
+     *
+     * @param topic         the topic whose errors are aggregated
+     * @param errorListener the error listener
+     * @return the error aggregator
+     */
+    static ErrorAggregator fromProperties(String topic, PlatformErrorListener errorListener) {
+        return new ErrorAggregator(topic, errorListener, PropertiesReader.getInstance().getLongProperty(ERRORS_WINDOW, 0));
+    }
+
+    /**
+     * Reports an error, delivering it to the error listener unless an identical one was already delivered
+     * within the current window
+     *
+     * @param error the platform error
+     * @return {@code true} if delivered, {@code false} if collapsed, in which case it's not to be logged either
+     */
+    boolean report(PlatformError error) {
+        if (window > 0) {
+            final String key = key(error);
+            synchronized (this) {
+                final Collapsed previous = collapsed.get(key);
+                if (previous != null) {
+                    previous.count++;
+                    previous.last = error;
+                    return false;
+                }
+                collapsed.put(key, new Collapsed(error));
+                if (!flushScheduled) {
+                    this.flushScheduled = true;
+                    flusher.schedule(this::flush, window, MILLISECONDS);
+                }
+            }
+        }
+        errorListener.onError(error);
+        return true;
+    }
+
+    /**
+     * Ends the current window, delivering the summary of each collapsed error
+     */
+    void flush() {
+        final List<Collapsed> summaries = new ArrayList<>();
+        synchronized (this) {
+            collapsed.values().stream().filter(error -> error.count > 0).forEach(summaries::add);
+            collapsed.clear();
+            this.flushScheduled = false;
+        }
+
+        for (Collapsed summary : summaries) {
+            log.warn("{} more occurrences of error: {} on topic: {} in the last {} ms",
+                    summary.count, summary.last.getErrorDescription(), topic, window);
+            errorListener.onError(new PlatformErrorImpl(summary.last.getErrorDescription(), summary.last.getCause(), summary.count));
+        }
+    }
+
+    private static String key(PlatformError error) {
+        final Throwable cause = error.getCause();
+        return error.getErrorDescription() + '|' + (cause == null ? "" : cause.getClass().getName());
+    }
+
+    /**
+     * The collapsed occurrences of an error
+     */
+    private static final class Collapsed {
+        PlatformError last;
+        int count;
+
+        Collapsed(PlatformError first) {
+            this.last = first;
+        }
+    }
+}
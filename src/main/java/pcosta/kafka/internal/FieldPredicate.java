@@ -0,0 +1,144 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Internal;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import java.util.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A content based predicate on a proto field path, matching the messages whose field holds one of the accepted values.
+ * <p>
+ * The field path and the accepted values are resolved once against the message {@link Descriptor}, so that each
+ * evaluation is a walk through the resolved fields followed by a typed lookup, with no name resolution or conversion.
+ * Serialized messages are evaluated from the wire, through a {@link ProtobufFieldExtractor}.
+ */
+final class FieldPredicate {
+
+    // the original field path
+    private final String path;
+    // the resolved field path
+    private final FieldDescriptor[] fields;
+    // the field extractor, to evaluate serialized messages
+    private final ProtobufFieldExtractor extractor;
+    // the accepted values, converted to the field type
+    private final Set<Object> accepted;
+
+    private FieldPredicate(String path, FieldDescriptor[] fields, ProtobufFieldExtractor extractor, Set<Object> accepted) {
+        this.path = path;
+        this.fields = fields;
+        this.extractor = extractor;
+        this.accepted = accepted;
+    }
+
+    /**
+     * Compiles the given field matches against the given message type
+     *
+     * @param messageType  the protobuf message type
+     * @param fieldMatches the accepted values by field path
+     * @return the compiled predicates
+     * @throws IllegalArgumentException if any of the fields or values is not valid for the message type
+     */
+    @SuppressWarnings("unchecked")
+    static Collection<FieldPredicate> compile(Class<?> messageType, Map<String, Collection<String>> fieldMatches) {
+        if (fieldMatches.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Descriptor descriptor = Internal.getDefaultInstance((Class<Message>) messageType).getDescriptorForType();
+        final Collection<FieldPredicate> predicates = new ArrayList<>(fieldMatches.size());
+        fieldMatches.forEach((path, values) -> predicates.add(compile(descriptor, path, values)));
+        return predicates;
+    }
+
+    /**
+     * Compiles the given field match against the given message descriptor
+     *
+     * @param descriptor the protobuf message descriptor
+     * @param path       the field path, e.g. {@code header.tenant_id}
+     * @param values     the accepted values
+     * @return the compiled predicate
+     * @throws IllegalArgumentException if the field or any of the values is not valid for the message type
+     */
+    static FieldPredicate compile(Descriptor descriptor, String path, Collection<String> values) {
+        final ProtobufFieldExtractor extractor = ProtobufFieldExtractor.forPath(descriptor, path);
+        final FieldDescriptor[] fields = extractor.getFields();
+
+        final FieldDescriptor leaf = fields[fields.length - 1];
+        final Set<Object> accepted = new HashSet<>();
+        for (String value : values) {
+            accepted.add(convert(leaf, value));
+        }
+        return new FieldPredicate(path, fields, extractor, accepted);
+    }
+
+    /**
+     * Evaluates this predicate against the given message
+     *
+     * @param message the message, of the type this predicate was compiled for
+     * @return {@code true} if the message field holds one of the accepted values, {@code false} otherwise
+     */
+    boolean test(Message message) {
+        Message current = message;
+        for (int i = 0; i < fields.length - 1; i++) {
+            // unset nested messages are returned as their default instance
+            current = (Message) current.getField(fields[i]);
+        }
+        return accepted.contains(current.getField(fields[fields.length - 1]));
+    }
+
+    /**
+     * Evaluates this predicate against the given serialized message, reading only the predicate field from the wire
+     *
+     * @param bytes the serialized message, of the type this predicate was compiled for
+     * @return {@code true} if the message field holds one of the accepted values, {@code false} otherwise
+     * @throws InvalidProtocolBufferException if the message is malformed
+     */
+    boolean test(ByteString bytes) throws InvalidProtocolBufferException {
+        return accepted.contains(extractor.extract(bytes));
+    }
+
+    @Override
+    public String toString() {
+        return path + " in " + accepted;
+    }
+
+    /**
+     * Converts the given value to the type returned by {@link Message#getField(FieldDescriptor)} for the given field
+     */
+    private static Object convert(FieldDescriptor field, String value) {
+        try {
+            switch (field.getJavaType()) {
+                case STRING:
+                    return value;
+                case INT:
+                    return Integer.valueOf(value);
+                case LONG:
+                    return Long.valueOf(value);
+                case FLOAT:
+                    return Float.valueOf(value);
+                case DOUBLE:
+                    return Double.valueOf(value);
+                case BOOLEAN:
+                    return Boolean.valueOf(value);
+                case BYTE_STRING:
+                    return ByteString.copyFromUtf8(value);
+                case ENUM:
+                    final EnumValueDescriptor enumValue = field.getEnumType().findValueByName(value);
+                    if (enumValue == null) {
+                        throw new IllegalArgumentException("Unknown value: " + value + " for enum field: " + field.getFullName());
+                    }
+                    return enumValue;
+                default:
+                    throw new IllegalArgumentException("Field: " + field.getFullName() + " is a message and can't be matched");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value: " + value + " for field: " + field.getFullName(), e);
+        }
+    }
+}
@@ -1,14 +1,28 @@
 package pcosta.kafka.internal;
 
+import com.google.protobuf.Message;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.Serializer;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pcosta.kafka.api.*;
 
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 
 /**
  * The messaging context implementation
@@ -22,15 +36,21 @@ class KafkaContext implements MessagingContext {
     private static final Logger log = LoggerFactory.getLogger(KafkaContext.class);
 
     // the receiver reference
-    private MessageReceiver receiver;
+    private volatile MessageReceiver receiver;
     // the producer reference
     private Map<String, ProtobufProducer> producers;
+    // the materialized topics
+    private final List<KafkaMaterializedTopic<?>> materializedTopics;
+    // the topic publishers
+    private final List<KafkaPublisher<?>> publishers;
 
     /**
      * Default context constructor.
      */
     KafkaContext() {
         this.producers = new ConcurrentHashMap<>();
+        this.materializedTopics = new CopyOnWriteArrayList<>();
+        this.publishers = new CopyOnWriteArrayList<>();
     }
 
     @Override
@@ -49,18 +69,33 @@ class KafkaContext implements MessagingContext {
         initializeMessageReceiver();
     }
 
+    @Override
+    public void registerListeners(final MessageReceiverConfiguration configuration) throws MessagingException {
+        Objects.requireNonNull(configuration, "Invalid configuration provided");
+        checkReceiver();
+        configuration.getListeners().forEach(listenerConfiguration -> receiver.registerListener(listenerConfiguration));
+    }
+
+    @Override
+    public void unregisterListener(final MessageListener<?> listener) throws MessagingException {
+        Objects.requireNonNull(listener, "Invalid listener provided");
+        checkReceiver();
+        receiver.unregisterListener(listener);
+    }
+
+    @Override
+    public void unregisterFilter(final MessageFilter filter) throws MessagingException {
+        Objects.requireNonNull(filter, "Invalid filter provided");
+        checkReceiver();
+        receiver.unregisterFilter(filter);
+    }
+
     @Override
     public <M> MessageProducer<M> createProducer(final String key,
                                                  final Serializer keySerializer,
                                                  final Serializer valueSerializer) throws MessagingException {
 
-        final ProtobufProducer<M> newProducer = new ProtobufProducer<>(keySerializer, valueSerializer);
-        final ProtobufProducer<M> oldProducer = producers.putIfAbsent(key, newProducer);
-        if (Objects.isNull(oldProducer)) {
-            return newProducer;
-        } else {
-            return oldProducer;
-        }
+        return createProducer(key, keySerializer, valueSerializer, Collections.emptyList());
     }
 
     @Override
@@ -69,13 +104,103 @@ class KafkaContext implements MessagingContext {
                                                  final Serializer valueSerializer,
                                                  final Collection<MessageFilter> filters) throws MessagingException {
 
-        final ProtobufProducer<M> newProducer = new ProtobufProducer<>(keySerializer, valueSerializer, filters);
-        final ProtobufProducer<M> oldProducer = producers.putIfAbsent(key, newProducer);
-        if (Objects.isNull(oldProducer)) {
+        return createProducer(key, PropertiesReader.DEFAULT_CLUSTER, keySerializer, valueSerializer, filters);
+    }
+
+    @Override
+    public <M> MessageProducer<M> createProducer(final String key,
+                                                 final String cluster,
+                                                 final Serializer keySerializer,
+                                                 final Serializer valueSerializer,
+                                                 final Collection<MessageFilter> filters) throws MessagingException {
+        Objects.requireNonNull(cluster, "Invalid cluster provided");
+        // fail fast on undefined cluster profiles
+        PropertiesReader.getInstance().loadSenderProps(cluster);
+
+        return producers.computeIfAbsent(key, producerKey -> {
+            final ProtobufProducer<M> newProducer = new ProtobufProducer<>(keySerializer, valueSerializer, filters, cluster);
+            // the producer is only published once fully built, so that no message skips its spool or aggregator
+            try {
+                newProducer.spool = ProducerSpool.fromProperties(key, cluster);
+                newProducer.aggregator = ProducerAggregator.fromProperties(key, newProducer::sendAggregate);
+            } catch (RuntimeException e) {
+                newProducer.close();
+                throw e;
+            }
             return newProducer;
-        } else {
-            return oldProducer;
-        }
+        });
+    }
+
+    @Override
+    public void seek(final String topic, final int partition, final long offset) throws MessagingException {
+        seek(topic, partition, consumer -> offset);
+    }
+
+    @Override
+    public void seekToTimestamp(final String topic, final int partition, final long timestamp) throws MessagingException {
+        final TopicPartition topicPartition = new TopicPartition(topic, partition);
+        seek(topic, partition, consumer -> {
+            final OffsetAndTimestamp found = consumer.offsetsForTimes(singletonMap(topicPartition, timestamp)).get(topicPartition);
+            return found != null ? found.offset() : consumer.endOffsets(singletonList(topicPartition)).get(topicPartition);
+        });
+    }
+
+    @Override
+    public void seekToBeginning(final String topic, final int partition) throws MessagingException {
+        final TopicPartition topicPartition = new TopicPartition(topic, partition);
+        seek(topic, partition, consumer -> consumer.beginningOffsets(singletonList(topicPartition)).get(topicPartition));
+    }
+
+    @Override
+    public void seekToEnd(final String topic, final int partition) throws MessagingException {
+        final TopicPartition topicPartition = new TopicPartition(topic, partition);
+        seek(topic, partition, consumer -> consumer.endOffsets(singletonList(topicPartition)).get(topicPartition));
+    }
+
+    /**
+     * Requests the receiver to reposition the given topic partition
+     *
+     * @param topic     the listened topic
+     * @param partition the topic partition
+     * @param resolver  resolves the new offset, with the topic kafka consumer
+     */
+    private void seek(final String topic, final int partition, final ToLongFunction<Consumer<?, ?>> resolver) {
+        checkReceiver();
+        log.info("Seeking topic: {} partition: {}", topic, partition);
+        receiver.seek(new TopicPartition(topic, partition), resolver);
+    }
+
+    @Override
+    public <M extends Message> MaterializedTopic<M> materialize(final String topic,
+                                                                final Class<M> messageType,
+                                                                final Path snapshotFile) throws MessagingException {
+        Objects.requireNonNull(topic, "Invalid topic provided");
+        Objects.requireNonNull(messageType, "Invalid message type provided");
+        log.info("Materializing topic: {} of type: {}", topic, messageType.getName());
+        final KafkaMaterializedTopic<M> view = KafkaMaterializedTopic.open(topic, messageType, snapshotFile);
+        materializedTopics.add(view);
+        return view;
+    }
+
+    @Override
+    public <M extends Message> Publisher<Envelope<M>> publisher(final String topic, final Class<M> messageType) throws MessagingException {
+        Objects.requireNonNull(topic, "Invalid topic provided");
+        Objects.requireNonNull(messageType, "Invalid message type provided");
+        log.info("Creating publisher for topic: {} of type: {}", topic, messageType.getName());
+        final KafkaPublisher<M> publisher = KafkaPublisher.create(topic, messageType);
+        publishers.add(publisher);
+        return publisher;
+    }
+
+    @Override
+    public <M extends Message> Stream<M> read(final String topic,
+                                              final Class<M> messageType,
+                                              final long fromOffset,
+                                              final long toOffset) throws MessagingException {
+        Objects.requireNonNull(topic, "Invalid topic provided");
+        Objects.requireNonNull(messageType, "Invalid message type provided");
+        log.info("Reading topic: {} of type: {} from offset: {} to: {}", topic, messageType.getName(), fromOffset, toOffset);
+        return TopicSpliterator.stream(topic, messageType, fromOffset, toOffset);
     }
 
     @Override
@@ -88,6 +213,21 @@ class KafkaContext implements MessagingContext {
         }
         // cleanup the registered producers
         producers.forEach((key, messageProducer) -> messageProducer.close());
+        // close the materialized topics, writing their snapshots
+        materializedTopics.forEach(KafkaMaterializedTopic::close);
+        materializedTopics.clear();
+        // cancel the publishers subscriptions
+        publishers.forEach(KafkaPublisher::close);
+        publishers.clear();
+    }
+
+    /**
+     * @throws MessagingException if no receiver has been created
+     */
+    private void checkReceiver() {
+        if (receiver == null) {
+            throw new MessagingException("No receiver has been created");
+        }
     }
 
     /**
@@ -0,0 +1,305 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.Internal;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MaterializedTopic;
+import pcosta.kafka.api.MessagingException;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A {@link MaterializedTopic} fed by its own kafka consumer thread, from partition 0 of the topic.
+ * The payloads are kept as their serialized bytes, stripped from the {@link KafkaMessage} envelope, and parsed on read.
+ * <p>
+ * The snapshot file holds the materialized entries along with the offset of the next message to be applied,
+ * from which the consumer resumes when the view is opened again.
+ */
+@SuppressWarnings("unchecked")
+final class KafkaMaterializedTopic<M extends Message> implements MaterializedTopic<M> {
+
+    private static final Logger log = LoggerFactory.getLogger(KafkaMaterializedTopic.class);
+
+    // the api properties
+    static final String SNAPSHOT_INTERVAL = "api.materialized.snapshot.interval.ms";
+
+    private static final int POLL_TIMEOUT = 1000;
+    // the snapshot file format marker
+    private static final int SNAPSHOT_MAGIC = 0x4b4d5401;
+
+    // the materialized topic partition and payload type
+    private final TopicPartition topicPartition;
+    private final Class<M> messageType;
+    private final Parser<M> parser;
+
+    // the serialized payloads by key
+    private final Map<String, byte[]> store = new ConcurrentHashMap<>();
+    // the snapshot file, if any, and the interval between periodic snapshots, 0 for none
+    private final Path snapshotFile;
+    private final long snapshotInterval;
+
+    // the topic consumer, only used by the consumer thread once started
+    private final Consumer<String, byte[]> consumer;
+    private final Thread consumerThread;
+    private final CountDownLatch caughtUp = new CountDownLatch(1);
+    private volatile boolean closed;
+
+    // the offset of the next message to be applied
+    private long position;
+    // the end offset at the time the view was opened
+    private long catchUpOffset;
+
+    /**
+     * Default constructor
+     *
+     * @param topic            the compacted topic
+     * @param messageType      the materialized payload type, messages of other types are ignored
+     * @param snapshotFile     the snapshot file, or {@code null} for none
+     * @param snapshotInterval the interval between periodic snapshots, {@code 0} to only snapshot on close
+     * @param consumer         the topic consumer
+     */
+    KafkaMaterializedTopic(String topic, Class<M> messageType, Path snapshotFile, long snapshotInterval,
+                           Consumer<String, byte[]> consumer) {
+        this.topicPartition = new TopicPartition(topic, 0);
+        this.messageType = messageType;
+        this.parser = (Parser<M>) Internal.getDefaultInstance(messageType).getParserForType();
+        this.snapshotFile = snapshotFile;
+        this.snapshotInterval = snapshotInterval;
+        this.consumer = consumer;
+        this.consumerThread = new Thread(this::pollRecords, topic + "KafkaMaterializer");
+        this.consumerThread.setDaemon(true);
+    }
+
+    /**
+     * Opens a view of the given topic, configured as defined at the configuration file, and starts updating it
+     *
+     * @param topic        the compacted topic
+     * @param messageType  the materialized payload type
+     * @param snapshotFile the snapshot file, or {@code null} for none
+     * @return the started view
+     */
+    static <M extends Message> KafkaMaterializedTopic<M> open(String topic, Class<M> messageType, Path snapshotFile) {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        final Map<String, Object> properties = reader.loadConsumerProps();
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, topic.toLowerCase() + "Materializer");
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, topic.toLowerCase() + "Materializer");
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        // a snapshot older than the retained messages is refreshed from the beginning of the topic
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+
+        final KafkaMaterializedTopic<M> view = new KafkaMaterializedTopic<>(topic, messageType, snapshotFile,
+                reader.getLongProperty(SNAPSHOT_INTERVAL, 0), new KafkaConsumer<>(properties));
+        view.start();
+        return view;
+    }
+
+    /**
+     * Restores the snapshot, if any, and starts consuming the topic from its offset, or from the beginning otherwise
+     */
+    void start() {
+        final boolean restored = restore();
+        consumer.assign(singletonList(topicPartition));
+        if (restored) {
+            consumer.seek(topicPartition, position);
+        } else {
+            consumer.seekToBeginning(singletonList(topicPartition));
+        }
+        final long end = consumer.endOffsets(singletonList(topicPartition)).get(topicPartition);
+        log.info("Materializing {} from offset {} up to {}", topicPartition, restored ? position : "beginning", end);
+
+        this.catchUpOffset = end;
+        this.consumerThread.start();
+    }
+
+    private void pollRecords() {
+        long nextSnapshot = System.currentTimeMillis() + snapshotInterval;
+        try {
+            while (!closed) {
+                final List<ConsumerRecord<String, byte[]>> records = consumer.poll(POLL_TIMEOUT).records(topicPartition);
+                synchronized (this) {
+                    records.forEach(this::apply);
+                    this.position = consumer.position(topicPartition);
+                }
+                if (position >= catchUpOffset) caughtUp.countDown();
+
+                if (snapshotInterval > 0 && System.currentTimeMillis() >= nextSnapshot) {
+                    snapshot();
+                    nextSnapshot = System.currentTimeMillis() + snapshotInterval;
+                }
+            }
+        } catch (WakeupException e) {
+            log.debug("Materializer of {} woken up to close", topicPartition);
+        } catch (Exception e) {
+            log.error("SEVERE error materializing {}: ", topicPartition, e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Applies a record to the view: tombstones remove their key, payloads of other types are ignored. The messages
+     * aggregated into a record are applied in order.
+     */
+    private void apply(ConsumerRecord<String, byte[]> record) {
+        if (record.key() == null) return;
+        if (record.value() == null) {
+            store.remove(record.key());
+            return;
+        }
+        try {
+            final KafkaMessage received = KafkaMessage.parseFrom(record.value());
+            for (KafkaMessage kafkaMsg : received.getAggregatedCount() == 0 ? singletonList(received) : received.getAggregatedList()) {
+                if (messageType.getName().equals(kafkaMsg.getPayloadClass())) {
+                    store.put(record.key(), kafkaMsg.getPayload().getValue().toByteArray());
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            log.warn("Skipping malformed message from {} at offset {}", topicPartition, record.offset(), e);
+        }
+    }
+
+    @Override
+    public M get(String key) {
+        final byte[] bytes = store.get(key);
+        if (bytes == null) return null;
+        try {
+            return parser.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new MessagingException("Unable to parse the materialized " + messageType.getName() + " for key: " + key, e);
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return store.containsKey(key);
+    }
+
+    @Override
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(store.keySet());
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public boolean awaitCaughtUp(long timeout, TimeUnit unit) throws InterruptedException {
+        return caughtUp.await(timeout, unit);
+    }
+
+    @Override
+    public void snapshot() throws MessagingException {
+        if (snapshotFile == null) return;
+
+        // a consistent copy of the entries and their offset, written outside of the consumer thread's way
+        final Map<String, byte[]> entries;
+        final long offset;
+        synchronized (this) {
+            entries = new HashMap<>(store);
+            offset = position;
+        }
+
+        final Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeUTF(topicPartition.topic());
+            out.writeUTF(messageType.getName());
+            out.writeLong(offset);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                writeBytes(out, entry.getKey().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new MessagingException("Unable to write the snapshot of " + topicPartition.topic() + " to " + snapshotFile, e);
+        }
+        try {
+            Files.move(tmpFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to write the snapshot of " + topicPartition.topic() + " to " + snapshotFile, e);
+        }
+        log.info("Snapshot of {} written at offset {} with {} keys", topicPartition.topic(), offset, entries.size());
+    }
+
+    /**
+     * Restores the entries and offset from the snapshot file. Unreadable or foreign snapshots are ignored.
+     *
+     * @return {@code true} if the snapshot was restored
+     */
+    private boolean restore() {
+        if (snapshotFile == null || !Files.exists(snapshotFile)) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC
+                    || !topicPartition.topic().equals(in.readUTF())
+                    || !messageType.getName().equals(in.readUTF())) {
+                log.warn("Ignoring snapshot {}: not a snapshot of {} {}", snapshotFile, topicPartition.topic(), messageType.getName());
+                return false;
+            }
+            final long offset = in.readLong();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                store.put(new String(readBytes(in), StandardCharsets.UTF_8), readBytes(in));
+            }
+            this.position = offset;
+            log.info("Restored {} keys of {} from snapshot {} at offset {}", count, topicPartition.topic(), snapshotFile, offset);
+            return true;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable snapshot {}", snapshotFile, e);
+            store.clear();
+            return false;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        this.closed = true;
+        consumer.wakeup();
+        try {
+            consumerThread.join(POLL_TIMEOUT * 5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot();
+    }
+}
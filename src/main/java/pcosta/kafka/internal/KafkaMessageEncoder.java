@@ -0,0 +1,95 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.protobuf.CodedOutputStream.computeBytesSize;
+import static com.google.protobuf.CodedOutputStream.computeStringSize;
+import static com.google.protobuf.CodedOutputStream.computeTagSize;
+import static com.google.protobuf.CodedOutputStream.computeUInt32SizeNoTag;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Encodes the {@link KafkaMessage} envelope of a payload straight into its wire format, without building the
+ * envelope, its {@code Any} payload nor the intermediate {@link ByteString} copy of the payload bytes: the envelope
+ * size is computed upfront, so that each record is encoded into a single array of its exact size.
+ * <p>
+ * The encoded bytes are the ones of the equivalent {@link KafkaMessage#toByteArray()}.
+ */
+final class KafkaMessageEncoder {
+
+    // the type url prefix of the Any payloads, as of Any.pack
+    private static final String TYPE_URL_PREFIX = "type.googleapis.com/";
+    // the google.protobuf.Any field numbers
+    private static final int ANY_TYPE_URL_FIELD = 1;
+    private static final int ANY_VALUE_FIELD = 2;
+    // the pre-encoded envelope fields by payload type
+    private static final Map<Class<?>, PayloadType> TYPES = new ConcurrentHashMap<>();
+
+    private KafkaMessageEncoder() {
+    }
+
+    /**
+     * Encodes the envelope of the given payload
+     *
+     * @param payload        the message payload
+     * @param traceabilityId the message traceability id, if any
+     * @return the encoded {@link KafkaMessage}
+     */
+    static byte[] encode(Message payload, String traceabilityId) {
+        PayloadType type = TYPES.get(payload.getClass());
+        if (type == null) {
+            type = TYPES.computeIfAbsent(payload.getClass(), t -> new PayloadType(payload));
+        }
+
+        // the envelope size, as the empty proto3 fields are not encoded
+        final boolean traced = traceabilityId != null && !traceabilityId.isEmpty();
+        final int payloadSize = payload.getSerializedSize();
+        final int anySize = computeBytesSize(ANY_TYPE_URL_FIELD, type.typeUrl)
+                + (payloadSize == 0 ? 0 : computeTagSize(ANY_VALUE_FIELD) + computeUInt32SizeNoTag(payloadSize) + payloadSize);
+        final int size = (traced ? computeStringSize(KafkaMessage.TRACEABILITY_ID_FIELD_NUMBER, traceabilityId) : 0)
+                + computeBytesSize(KafkaMessage.PAYLOAD_CLASS_FIELD_NUMBER, type.payloadClass)
+                + computeTagSize(KafkaMessage.PAYLOAD_FIELD_NUMBER) + computeUInt32SizeNoTag(anySize) + anySize;
+
+        // the fields are written in field number order
+        final byte[] encoded = new byte[size];
+        final CodedOutputStream output = CodedOutputStream.newInstance(encoded);
+        try {
+            if (traced) output.writeString(KafkaMessage.TRACEABILITY_ID_FIELD_NUMBER, traceabilityId);
+            output.writeBytes(KafkaMessage.PAYLOAD_CLASS_FIELD_NUMBER, type.payloadClass);
+            output.writeTag(KafkaMessage.PAYLOAD_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(anySize);
+            output.writeBytes(ANY_TYPE_URL_FIELD, type.typeUrl);
+            if (payloadSize > 0) {
+                output.writeTag(ANY_VALUE_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(payloadSize);
+                payload.writeTo(output);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode message of type: " + payload.getClass().getName(), e);
+        }
+        return encoded;
+    }
+
+    /**
+     * The pre-encoded envelope fields of a payload type
+     */
+    private static final class PayloadType {
+        private final ByteString payloadClass;
+        private final ByteString typeUrl;
+
+        PayloadType(Message payload) {
+            this.payloadClass = ByteString.copyFromUtf8(payload.getClass().getName());
+            this.typeUrl = ByteString.copyFromUtf8(TYPE_URL_PREFIX + payload.getDescriptorForType().getFullName());
+        }
+    }
+}
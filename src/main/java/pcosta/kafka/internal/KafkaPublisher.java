@@ -0,0 +1,311 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.Envelope;
+import pcosta.kafka.api.MessageKey;
+import pcosta.kafka.api.MessageMetadata;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A unicast {@link Publisher} of the messages of a topic, consumed from partition 0 by its own kafka consumer thread.
+ * <p>
+ * The subscriber demand drives the fetching: the partition is paused whenever there's no outstanding demand, so that
+ * no more than one polled batch is ever buffered. The acknowledgements drive the offset commits: the committed offset
+ * is the one of the first record with an emitted message not yet acknowledged. The messages aggregated into a record
+ * are emitted one by one, and the record is only committed once all of them are acknowledged.
+ * <p>
+ * All the subscriber signals are sent by the consumer thread.
+ */
+@SuppressWarnings("unchecked")
+final class KafkaPublisher<M extends Message> implements Publisher<Envelope<M>> {
+
+    private static final Logger log = LoggerFactory.getLogger(KafkaPublisher.class);
+
+    private static final int POLL_TIMEOUT = 100;
+
+    // the published topic partition and payload type
+    private final TopicPartition topicPartition;
+    private final Class<M> messageType;
+    private final ProtobufDeserializer<M> protoDeserializer = new ProtobufDeserializer<>();
+
+    // the topic consumer, only used by the consumer thread once subscribed
+    private final Consumer<String, byte[]> consumer;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile PublisherSubscription subscription;
+
+    /**
+     * Default constructor
+     *
+     * @param topic       the published topic
+     * @param messageType the published payload type, messages of other types are skipped
+     * @param consumer    the topic consumer
+     */
+    KafkaPublisher(String topic, Class<M> messageType, Consumer<String, byte[]> consumer) {
+        this.topicPartition = new TopicPartition(topic, 0);
+        this.messageType = messageType;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Creates a publisher of the given topic, resuming from the offset committed by its consumer group
+     * {@code <topic>Publisher}, or as defined by the consumer {@code auto.offset.reset} otherwise
+     *
+     * @param topic       the published topic
+     * @param messageType the published payload type
+     * @return the publisher
+     */
+    static <M extends Message> KafkaPublisher<M> create(String topic, Class<M> messageType) {
+        final Map<String, Object> properties = PropertiesReader.getInstance().loadConsumerProps();
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, topic.toLowerCase() + "Publisher");
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, topic.toLowerCase() + "Publisher");
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        return new KafkaPublisher<>(topic, messageType, new KafkaConsumer<>(properties));
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Envelope<M>> subscriber) {
+        Objects.requireNonNull(subscriber, "Invalid subscriber provided");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The publisher of " + topicPartition.topic() + " only supports one subscriber"));
+            return;
+        }
+
+        this.subscription = new PublisherSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        final Thread consumerThread = new Thread(subscription::pollRecords, topicPartition.topic() + "KafkaPublisher");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * Cancels the subscription, if any, closing the consumer
+     */
+    void close() {
+        final PublisherSubscription subscription = this.subscription;
+        if (subscription != null) subscription.cancel();
+    }
+
+    /**
+     * The subscription of the single subscriber, run by the consumer thread
+     */
+    private final class PublisherSubscription implements Subscription {
+
+        private final Subscriber<? super Envelope<M>> subscriber;
+        // the outstanding demand
+        private final AtomicLong requested = new AtomicLong();
+        private volatile boolean cancelled;
+        // the invalid demand, if any, signalled as an error by the consumer thread
+        private volatile long invalidRequest;
+
+        // the acknowledged offsets, from any thread
+        private final Queue<Long> acks = new ConcurrentLinkedQueue<>();
+        // the number of messages not yet acknowledged of each unpacked record, by offset, by the consumer thread
+        private final TreeMap<Long, Integer> inFlight = new TreeMap<>();
+        // the offset following the last emitted or skipped record, and the last committed one
+        private long nextOffset = -1;
+        private long committed = -1;
+
+        // the polled records beyond the demand, and the messages of the last unpacked one not yet emitted
+        private final Deque<ConsumerRecord<String, byte[]>> buffer = new ArrayDeque<>();
+        private final Deque<KafkaEnvelope> unpacked = new ArrayDeque<>();
+        private boolean paused;
+
+        PublisherSubscription(Subscriber<? super Envelope<M>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.invalidRequest = n;
+                return;
+            }
+            requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        private void pollRecords() {
+            try {
+                consumer.assign(singletonList(topicPartition));
+                while (!cancelled) {
+                    if (invalidRequest != 0) {
+                        subscriber.onError(new IllegalArgumentException("Non-positive request: " + invalidRequest));
+                        return;
+                    }
+                    commitAcknowledged();
+                    emit();
+
+                    // fetch only while there's outstanding demand
+                    final boolean demand = requested.get() > 0 && buffer.isEmpty() && unpacked.isEmpty();
+                    if (demand && paused) {
+                        consumer.resume(singletonList(topicPartition));
+                        this.paused = false;
+                    } else if (!demand && !paused) {
+                        consumer.pause(singletonList(topicPartition));
+                        this.paused = true;
+                    }
+                    buffer.addAll(consumer.poll(POLL_TIMEOUT).records(topicPartition));
+                }
+            } catch (Exception e) {
+                log.error("SEVERE error publishing {}: ", topicPartition, e);
+                if (!cancelled) subscriber.onError(e);
+            } finally {
+                closeConsumer();
+            }
+        }
+
+        /**
+         * Emits the buffered messages, as long as there's outstanding demand
+         */
+        private void emit() {
+            while (!cancelled && requested.get() > 0 && (!unpacked.isEmpty() || unpack())) {
+                requested.decrementAndGet();
+                subscriber.onNext(unpacked.poll());
+            }
+        }
+
+        /**
+         * Unpacks the next buffered record holding messages of the published type, one per message aggregated into
+         * it. The messages of other types and the malformed records are skipped.
+         *
+         * @return {@code false} if no buffered record holds messages of the published type
+         */
+        private boolean unpack() {
+            while (!buffer.isEmpty()) {
+                final ConsumerRecord<String, byte[]> record = buffer.poll();
+                this.nextOffset = record.offset() + 1;
+                if (record.value() == null) continue;
+
+                try {
+                    final KafkaMessage received = KafkaMessage.parseFrom(record.value());
+                    final MessageKey key = record.key() == null ? null : new StringMessageKey(record.key());
+                    for (KafkaMessage kafkaMsg : received.getAggregatedCount() == 0 ? singletonList(received) : received.getAggregatedList()) {
+                        final M message = decode(kafkaMsg);
+                        if (message == null) continue;
+                        final MessageMetadata metadata = new KafkaMetadata(record.topic(), key, record.offset(), kafkaMsg.getTraceabilityId());
+                        unpacked.add(new KafkaEnvelope(metadata, message, record.offset()));
+                    }
+                } catch (InvalidProtocolBufferException | IllegalStateException e) {
+                    log.warn("Skipping malformed message from {} at offset {}", topicPartition, record.offset(), e);
+                    unpacked.clear();
+                    continue;
+                }
+                if (!unpacked.isEmpty()) {
+                    inFlight.put(record.offset(), unpacked.size());
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Commits the offset of the first emitted message not yet acknowledged, if changed
+         */
+        private void commitAcknowledged() {
+            Long offset;
+            while ((offset = acks.poll()) != null) {
+                inFlight.computeIfPresent(offset, (acked, pending) -> pending == 1 ? null : pending - 1);
+            }
+            final long commit = inFlight.isEmpty() ? nextOffset : inFlight.firstKey();
+            if (commit > committed) {
+                consumer.commitAsync(singletonMap(topicPartition, new OffsetAndMetadata(commit)), (offsets, e) -> {
+                    if (e != null) log.warn("Unable to commit offset {} of {}", offsets, topicPartition, e);
+                });
+                this.committed = commit;
+            }
+        }
+
+        private void closeConsumer() {
+            try {
+                commitAcknowledged();
+            } catch (Exception e) {
+                log.warn("Unable to commit the acknowledged offsets of {}", topicPartition, e);
+            }
+            consumer.close();
+        }
+
+        /**
+         * An emitted message, acknowledged to the consumer thread
+         */
+        private final class KafkaEnvelope implements Envelope<M> {
+            private final MessageMetadata metadata;
+            private final M message;
+            private final long offset;
+            private final AtomicBoolean acknowledged = new AtomicBoolean();
+
+            KafkaEnvelope(MessageMetadata metadata, M message, long offset) {
+                this.metadata = metadata;
+                this.message = message;
+                this.offset = offset;
+            }
+
+            @Override
+            public MessageMetadata getMetadata() {
+                return metadata;
+            }
+
+            @Override
+            public M getMessage() {
+                return message;
+            }
+
+            @Override
+            public void acknowledge() {
+                if (acknowledged.compareAndSet(false, true)) acks.add(offset);
+            }
+        }
+    }
+
+    /**
+     * Decodes the published payload of the given message
+     *
+     * @param kafkaMsg the received message
+     * @return the payload, or {@code null} if of another type
+     * @throws IllegalStateException if the payload is malformed
+     */
+    private M decode(KafkaMessage kafkaMsg) {
+        if (messageType == KafkaMessage.class) return (M) kafkaMsg;
+        if (!messageType.getName().equals(kafkaMsg.getPayloadClass())) return null;
+        return protoDeserializer.parseFromV3(kafkaMsg, ExtensionRegistry.getEmptyRegistry());
+    }
+}
@@ -1,23 +1,46 @@
 package pcosta.kafka.internal;
 
 import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MessagingException;
 import pcosta.kafka.internal.MessageReceiver.MessageProcessor;
 
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ToLongFunction;
 
-import static java.util.Collections.singletonList;
+import static java.util.Collections.*;
+import static java.util.stream.Collectors.toSet;
 import static pcosta.kafka.api.MessageListener.*;
 
 /**
  * @author Pedro Costa
  * <p>
- * Implementation of a Kafka protobuf messages receiver
+ * Implementation of a Kafka protobuf messages receiver.
+ * <p>
+ * A receiver is either dedicated to a single topic or multiplexed, in which case a single kafka consumer is assigned
+ * to several topics and the incoming records are dispatched to the respective {@link MessageProcessor} by topic.
+ * <p>
+ * In transactional mode, each polled batch is processed within a {@link KafkaTransaction}, which commits the consumed
+ * offsets along with the messages sent while processing it.
+ * <p>
+ * The retry topics of the assigned topics, if any, are consumed along with them. A retry topic partition whose next
+ * record isn't due yet is paused until then, without ever blocking the poll loop.
+ * <p>
+ * The assigned partitions can be repositioned at runtime: the seeks are queued and applied by the consumer thread.
+ * Replaying past messages can be throttled so that backfills don't starve the live traffic of the receiver.
+ * <p>
+ * Topics can be added to or removed from a multiplexed receiver at runtime, likewise applied by the consumer thread,
+ * which keeps the positions of the other topics. A receiver left with no topics is stopped.
+ * <p>
+ * If key striped dispatch is enabled, the records are processed by a {@link KeyStripedDispatcher} instead of the
+ * consumer thread, which commits the offsets processed by all of its stripes.
  */
 @SuppressWarnings("unchecked")
 class KafkaReceiver<KEY, IN> {
@@ -26,20 +49,47 @@ class KafkaReceiver<KEY, IN> {
 
     // record polling timeout
     private static final int POLL_TIMEOUT = 1000;
+    // the group id shared by all the multiplexed receivers
+    static final String MULTIPLEXED_GROUP_ID = "api.receiver.multiplexed.group.id";
+    private static final String DEFAULT_MULTIPLEXED_GROUP_ID = "kafkaProtoApiMultiplexedConsumer";
+    // the maximum rate of replayed records per partition, after seeking backwards
+    static final String REPLAY_MAX_RATE = "api.receiver.replay.max.records.per.sec";
 
     // the kafka consumer and its thread
-    private Thread consumerThread;
+    private volatile Thread consumerThread;
     private KafkaConsumer<KEY, IN> consumer;
-    private static AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private volatile boolean shuttingDown;
 
-    private final String topic;
+    // the receiver name: the topic itself for dedicated receivers
+    private final String name;
+    // the kafka cluster of the consumed topics
+    private final String cluster;
     private final Deserializer<KEY> keyDeserializer;
     private final Deserializer<IN> valueDeserializer;
     private final Map<String, Object> consumerProperties;
-    private final int partition;
 
-    // the message processor
-    private final MessageProcessor delegate;
+    // the message processors by topic, only changed by the consumer thread once started
+    private final Map<String, MessageProcessor> delegates;
+    // the pending topic additions and removals, to be applied by the consumer thread
+    private final Queue<Runnable> reassignments = new ConcurrentLinkedQueue<>();
+
+    // the adaptive poll tuner, if enabled
+    private AdaptivePollTuner tuner;
+    // the transaction of each polled batch, if enabled
+    private KafkaTransaction transaction;
+    // the key striped dispatcher of the received records, if enabled
+    private KeyStripedDispatcher dispatcher;
+    // the message processors by retry topic
+    private final Map<String, MessageProcessor> retryDelegates = new HashMap<>();
+    // the paused partitions, until their next record is due
+    private final Map<TopicPartition, Long> pausedUntil = new HashMap<>();
+    // the assigned topic partitions, once started
+    private volatile Set<TopicPartition> assignedPartitions = emptySet();
+    // the pending seeks, to be applied by the consumer thread
+    private final Queue<Seek> seeks = new ConcurrentLinkedQueue<>();
+    // the ongoing throttled replays, by partition
+    private final Map<TopicPartition, Replay> replays = new HashMap<>();
+    private final int replayMaxRate = PropertiesReader.getInstance().getIntProperty(REPLAY_MAX_RATE, 0);
 
     /**
      * Default constructor
@@ -50,14 +100,14 @@ class KafkaReceiver<KEY, IN> {
      * @param delegate          the message processor to be used as callback for new incoming messages
      */
     KafkaReceiver(String topic, Deserializer<KEY> keyDeserializer, Deserializer<IN> valueDeserializer, MessageProcessor delegate) {
-        this.topic = topic;
+        this.name = topic;
         this.keyDeserializer = keyDeserializer;
         this.valueDeserializer = valueDeserializer;
-        this.delegate = delegate;
-        this.partition = delegate.partition;
+        this.delegates = new HashMap<>(singletonMap(topic, delegate));
+        this.cluster = clusterOf(delegates.values());
 
         // load the consumer properties
-        this.consumerProperties = loadConsumerProps();
+        this.consumerProperties = loadConsumerProps(topic.toLowerCase(), dedicatedGroupId(topic));
     }
 
     /**
@@ -74,110 +124,635 @@ class KafkaReceiver<KEY, IN> {
                   int partition,
                   Map<String, Object> properties) {
 
-        this.topic = topic;
+        this.name = topic;
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+        this.delegates = new HashMap<>(singletonMap(topic, delegate));
+        this.cluster = clusterOf(delegates.values());
+
+        // use the incoming properties
+        this.consumerProperties = properties;
+    }
+
+    /**
+     * Constructor for multiplexed receivers, which share a single kafka consumer among several topics
+     *
+     * @param name              the multiplexed receiver name
+     * @param delegates         the message processors by topic
+     * @param keyDeserializer   the message key {@link Deserializer}
+     * @param valueDeserializer the protobuf message value {@link Deserializer}
+     */
+    KafkaReceiver(String name,
+                  Map<String, MessageProcessor> delegates,
+                  Deserializer<KEY> keyDeserializer,
+                  Deserializer<IN> valueDeserializer) {
+
+        this.name = name;
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+        this.delegates = new HashMap<>(delegates);
+        this.cluster = clusterOf(delegates.values());
+
+        // load the consumer properties
+        this.consumerProperties = loadConsumerProps(name.toLowerCase(), PropertiesReader.getInstance().getProperties()
+                .getProperty(MULTIPLEXED_GROUP_ID, DEFAULT_MULTIPLEXED_GROUP_ID));
+    }
+
+    /**
+     * Constructor for multiplexed receivers, using the given consumer properties
+     *
+     * @param name              the multiplexed receiver name
+     * @param delegates         the message processors by topic
+     * @param keyDeserializer   the message key {@link Deserializer}
+     * @param valueDeserializer the protobuf message value {@link Deserializer}
+     * @param properties        the consumer properties
+     */
+    KafkaReceiver(String name,
+                  Map<String, MessageProcessor> delegates,
+                  Deserializer<KEY> keyDeserializer,
+                  Deserializer<IN> valueDeserializer,
+                  Map<String, Object> properties) {
+
+        this.name = name;
         this.keyDeserializer = keyDeserializer;
         this.valueDeserializer = valueDeserializer;
-        this.delegate = delegate;
-        this.partition = partition;
+        this.delegates = new HashMap<>(delegates);
+        this.cluster = clusterOf(delegates.values());
 
         // use the incoming properties
         this.consumerProperties = properties;
     }
 
+    /**
+     * Returns the kafka cluster of the given message processors, which must all consume from the same cluster
+     *
+     * @param delegates the message processors
+     * @return the common kafka cluster
+     */
+    private static String clusterOf(Collection<MessageProcessor> delegates) {
+        final Set<String> clusters = delegates.stream()
+                .map(delegate -> delegate.cluster == null ? PropertiesReader.DEFAULT_CLUSTER : delegate.cluster)
+                .collect(toSet());
+        if (clusters.size() > 1) {
+            throw new IllegalArgumentException("A kafka receiver can't consume from several clusters: " + clusters);
+        }
+        return clusters.isEmpty() ? PropertiesReader.DEFAULT_CLUSTER : clusters.iterator().next();
+    }
+
     /**
      * Creates the Kafka consumer container
      */
     private void createConsumer() {
-        log.info("Initiating Kafka Receiver for Topic: {} Partition: {} Initial Offset: {}", topic, partition, delegate.initialOffset);
+        delegates.forEach((topic, delegate) -> log.info("Initiating Kafka Receiver: {} for Topic: {} Partition: {} Initial Offset: {}",
+                name, topic, delegate.partition, delegate.initialOffset));
+        this.tuner = AdaptivePollTuner.fromProperties();
+        this.transaction = KafkaTransaction.fromProperties(name, cluster);
+        this.dispatcher = KeyStripedDispatcher.fromProperties(name);
         this.consumer = getKafkaConsumer();
-        this.consumerThread = new Thread(this::pollRecords, topic + "KafkaConsumer");
+        this.consumerThread = new Thread(this::pollRecords, name + "KafkaConsumer");
     }
 
     /**
-     * Checks the subscribed Topic for new kafka {@link ConsumerRecord}s
+     * Checks the subscribed Topics for new kafka {@link ConsumerRecord}s
      */
     private void pollRecords() {
         try {
             while (true) {
-                for (ConsumerRecord<KEY, IN> record : consumer.poll(POLL_TIMEOUT)) {
-                    // call the delegate processor
-                    try {
-                        delegate.process((byte[]) record.value(), topic, new StringMessageKey(record.key()), record.offset());
-                    } catch (IllegalArgumentException e) {
-                        log.error("Impossible to deliver message to processor: {}", e.getMessage(), e);
-                        delegate.processError(new PlatformErrorImpl(e.getMessage(), e.getCause()));
+                final long pollStart = System.nanoTime();
+                applyReassignments();
+                if (delegates.isEmpty()) {
+                    log.info("Kafka Receiver: {} has no more topics, stopping", name);
+                    return;
+                }
+                applySeeks();
+                resumeDuePartitions();
+                final ConsumerRecords<KEY, IN> records = consumer.poll(tuner == null ? POLL_TIMEOUT : tuner.pollTimeout());
+                final long processingStart = System.nanoTime();
+                long bytes = 0;
+
+                // the messages sent while processing the batch are bound to its transaction
+                final boolean transactional = transaction != null && !records.isEmpty();
+                if (transactional) transaction.begin();
+
+                for (ConsumerRecord<KEY, IN> record : records) {
+                    bytes += Math.max(0, record.serializedValueSize());
+                    // call the delegate processor registered for the record topic
+                    final MessageProcessor delegate = delegates.get(record.topic());
+                    if (delegate == null) {
+                        processRetry(record);
+                        continue;
+                    }
+                    if (isThrottled(record)) continue;
+                    if (dispatcher != null) {
+                        dispatcher.dispatch(new TopicPartition(record.topic(), record.partition()), (String) record.key(),
+                                record.offset(), () -> process(delegate, record));
+                    } else {
+                        process(delegate, record);
                     }
                 }
-                if (shuttingDown.get()) return;
+                // redeliver the failed messages which are due
+                delegates.values().forEach(delegate -> delegate.runDueRetries(this::execute));
+                if (transactional) commitTransaction(records);
+                if (dispatcher != null) commitDispatched();
+
+                // feed the adaptive tuner with this iteration's outcome
+                if (tuner != null) {
+                    final long now = System.nanoTime();
+                    tuner.observe(records.count(), bytes, now - processingStart, now - pollStart);
+                    if (tuner.shouldResize(System.currentTimeMillis())) resizeConsumer();
+                }
+                if (shuttingDown) return;
             }
         } catch (Exception e) {
             log.error("SEVERE error pooling records: ", e);
         } finally {
+            if (dispatcher != null) closeDispatcher();
             this.consumer.close();
+            if (transaction != null) transaction.close();
+            // no record is being processed anymore
+            delegates.values().forEach(MessageProcessor::release);
         }
     }
 
     /**
-     * @return a Kafka consumer for the subscribed {@code topic}
+     * Delivers the given record to its processor
+     *
+     * @param delegate the processor of the record topic
+     * @param record   the received record
+     */
+    private void process(MessageProcessor delegate, ConsumerRecord<KEY, IN> record) {
+        try {
+            delegate.process((byte[]) record.value(), record.topic(), new StringMessageKey(record.key()), record.offset());
+        } catch (IllegalArgumentException e) {
+            delegate.reportError(e, "Impossible to deliver message to processor: ");
+        }
+    }
+
+    /**
+     * Commits the offsets of the records processed by the dispatcher stripes, up to the first one still pending
+     */
+    private void commitDispatched() {
+        final Map<TopicPartition, OffsetAndMetadata> offsets = dispatcher.committableOffsets();
+        if (offsets.isEmpty()) return;
+        consumer.commitAsync(offsets, (committed, e) -> {
+            if (e != null) log.warn("Unable to commit offsets {} of Kafka Receiver: {}", committed, name, e);
+        });
+    }
+
+    /**
+     * Waits for the dispatched records to be processed and commits their offsets
+     */
+    private void closeDispatcher() {
+        dispatcher.close(POLL_TIMEOUT * 5);
+        try {
+            final Map<TopicPartition, OffsetAndMetadata> offsets = dispatcher.committableOffsets();
+            if (!offsets.isEmpty()) consumer.commitSync(offsets);
+        } catch (KafkaException e) {
+            log.warn("Unable to commit the dispatched offsets of Kafka Receiver: {}", name, e);
+        }
+    }
+
+    /**
+     * Processes a record received from a retry topic if it's due, pausing its partition until then otherwise.
+     * The following records of a paused partition are fetched again once resumed. A due record is processed on the
+     * stripe of its key if the records are dispatched by key.
+     *
+     * @param record the retried record
+     */
+    private void processRetry(ConsumerRecord<KEY, IN> record) {
+        final TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        if (pausedUntil.containsKey(topicPartition)) return;
+
+        final long due = RetryHandler.dueTime(record.headers());
+        if (due > System.currentTimeMillis()) {
+            consumer.seek(topicPartition, record.offset());
+            consumer.pause(singletonList(topicPartition));
+            pausedUntil.put(topicPartition, due);
+            return;
+        }
+        final Runnable task = () -> {
+            try {
+                retryDelegates.get(record.topic()).processRetry((byte[]) record.value(), new StringMessageKey(record.key()), record.headers());
+            } catch (IllegalArgumentException e) {
+                log.error("Impossible to deliver retried message to processor: {}", e.getMessage(), e);
+            }
+        };
+        if (dispatcher != null) {
+            dispatcher.dispatch(topicPartition, (String) record.key(), record.offset(), task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the given task of a record key: on the stripe of the key if the records are dispatched by key, so that
+     * it's never run concurrently with the records of the same key, or right away otherwise
+     *
+     * @param key  the record key
+     * @param task the task to be run
+     */
+    private void execute(String key, Runnable task) {
+        if (dispatcher != null) {
+            dispatcher.dispatch(key, task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Fetches the offset committed by this receiver's consumer group for the given partition, through a short-lived
+     * consumer, so that it can be called before this receiver is started
+     *
+     * @param topicPartition the topic partition
+     * @return the committed offset, or {@code null} if the group has never committed one
+     */
+    OffsetAndMetadata committed(TopicPartition topicPartition) {
+        try (KafkaConsumer<byte[], byte[]> groupConsumer = new KafkaConsumer<>(consumerProperties,
+                new ByteArrayDeserializer(), new ByteArrayDeserializer())) {
+            return groupConsumer.committed(topicPartition);
+        }
+    }
+
+    /**
+     * Requests the given partition to be repositioned by the consumer thread, before its next poll
+     *
+     * @param topicPartition the topic partition
+     * @param resolver       resolves the new offset, with this receiver's kafka consumer
+     * @throws MessagingException if the partition isn't assigned to this receiver
+     */
+    void seek(TopicPartition topicPartition, ToLongFunction<Consumer<?, ?>> resolver) {
+        if (!assignedPartitions.contains(topicPartition)) {
+            throw new MessagingException("Partition " + topicPartition + " is not assigned to Kafka Receiver: " + name);
+        }
+        seeks.add(new Seek(topicPartition, resolver));
+    }
+
+    /**
+     * Requests the topic of the given processor to be consumed by this receiver, along with its retry topics, from
+     * its initial offset
+     *
+     * @param delegate the message processor of the added topic
+     */
+    void addDelegate(MessageProcessor delegate) {
+        reassignments.add(() -> {
+            log.info("Adding to Kafka Receiver: {} Topic: {} Partition: {} Initial Offset: {}",
+                    name, delegate.topic, delegate.partition, delegate.initialOffset);
+            delegates.put(delegate.topic, delegate);
+            reassign();
+        });
+    }
+
+    /**
+     * Requests the topic of the given processor to no longer be consumed by this receiver. The processor is
+     * {@link MessageProcessor#release() released} once its topic is unassigned.
+     *
+     * @param delegate the message processor of the removed topic
+     */
+    void removeDelegate(MessageProcessor delegate) {
+        reassignments.add(() -> {
+            log.info("Removing from Kafka Receiver: {} Topic: {}", name, delegate.topic);
+            if (delegates.remove(delegate.topic, delegate)) reassign();
+            delegate.release();
+        });
+    }
+
+    /**
+     * Applies the pending topic additions and removals
+     */
+    private void applyReassignments() {
+        Runnable reassignment;
+        while ((reassignment = reassignments.poll()) != null) {
+            try {
+                reassignment.run();
+            } catch (KafkaException e) {
+                log.error("Unable to reassign the topics of Kafka Receiver: {}", name, e);
+            }
+        }
+    }
+
+    /**
+     * Assigns the consumer to the current topics, resuming the partitions which remain assigned from their positions
+     */
+    private void reassign() {
+        final Map<TopicPartition, Long> positions = new HashMap<>();
+        consumer.assignment().forEach(topicPartition -> positions.put(topicPartition, consumer.position(topicPartition)));
+        assign(consumer, positions);
+
+        // forget the state of the unassigned partitions, the paused ones which remain assigned are paused again
+        final Set<TopicPartition> assignment = consumer.assignment();
+        positions.keySet().stream()
+                .filter(topicPartition -> !assignment.contains(topicPartition))
+                .forEach(topicPartition -> {
+                    replays.remove(topicPartition);
+                    if (dispatcher != null) dispatcher.reset(topicPartition);
+                });
+        pausedUntil.keySet().retainAll(assignment);
+        if (!pausedUntil.isEmpty()) consumer.pause(pausedUntil.keySet());
+    }
+
+    /**
+     * Applies the pending seeks, starting a throttled replay for the partitions moved backwards
+     */
+    private void applySeeks() {
+        Seek seek;
+        while ((seek = seeks.poll()) != null) {
+            final TopicPartition topicPartition = seek.topicPartition;
+            // the topic may have been removed since the seek was requested
+            if (!assignedPartitions.contains(topicPartition)) continue;
+            try {
+                final long offset = seek.resolver.applyAsLong(consumer);
+                final long end = consumer.endOffsets(singletonList(topicPartition)).get(topicPartition);
+                log.info("Kafka Receiver: {} seeking {} to offset: {}", name, topicPartition, offset);
+
+                consumer.seek(topicPartition, offset);
+                if (pausedUntil.remove(topicPartition) != null) consumer.resume(singletonList(topicPartition));
+                replays.remove(topicPartition);
+                if (dispatcher != null) dispatcher.reset(topicPartition);
+                if (replayMaxRate > 0 && offset < end) replays.put(topicPartition, new Replay(end));
+
+                // the replayed messages are not duplicates
+                final MessageProcessor delegate = delegates.get(topicPartition.topic());
+                if (delegate.dedupeCache != null) delegate.dedupeCache.clear();
+            } catch (KafkaException e) {
+                log.error("Unable to seek {} of Kafka Receiver: {}", topicPartition, name, e);
+                delegates.get(topicPartition.topic()).processError(new PlatformErrorImpl("Unable to seek " + topicPartition, e));
+            }
+        }
+    }
+
+    /**
+     * Checks if the given record is to be throttled, as part of a replay exceeding the maximum rate. If so, its
+     * partition is paused until the next second, and the record fetched again once resumed.
+     *
+     * @param record the received record
+     * @return {@code true} if the record is not to be processed yet, {@code false} otherwise
+     */
+    private boolean isThrottled(ConsumerRecord<KEY, IN> record) {
+        if (replays.isEmpty()) return false;
+
+        final TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        final Replay replay = replays.get(topicPartition);
+        if (replay == null) return false;
+        if (pausedUntil.containsKey(topicPartition)) return true;
+        if (record.offset() >= replay.end) {
+            log.info("Kafka Receiver: {} caught up with {}", name, topicPartition);
+            replays.remove(topicPartition);
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now - replay.windowStart >= 1000) {
+            replay.windowStart = now;
+            replay.count = 0;
+        }
+        if (++replay.count <= replayMaxRate) return false;
+
+        consumer.seek(topicPartition, record.offset());
+        consumer.pause(singletonList(topicPartition));
+        pausedUntil.put(topicPartition, replay.windowStart + 1000);
+        return true;
+    }
+
+    /**
+     * Resumes the paused partitions whose next record is due
+     */
+    private void resumeDuePartitions() {
+        if (pausedUntil.isEmpty()) return;
+
+        final long now = System.currentTimeMillis();
+        final List<TopicPartition> due = new ArrayList<>();
+        pausedUntil.entrySet().removeIf(paused -> paused.getValue() <= now && due.add(paused.getKey()));
+        if (!due.isEmpty()) consumer.resume(due);
+    }
+
+    /**
+     * Commits the current transaction along with the offsets of the given batch.
+     * If the commit fails, the transaction is aborted and the consumer rewound so that the batch is processed again.
+     *
+     * @param records the processed batch
+     * @throws ProducerFencedException if a newer instance of this receiver took over its transactional id
+     */
+    private void commitTransaction(ConsumerRecords<KEY, IN> records) {
+        // the consumer positions: the paused retry partitions are positioned at their first record not yet due
+        final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition topicPartition : records.partitions()) {
+            offsets.put(topicPartition, new OffsetAndMetadata(consumer.position(topicPartition)));
+        }
+
+        try {
+            transaction.commit(offsets, String.valueOf(consumerProperties.get(ConsumerConfig.GROUP_ID_CONFIG)));
+        } catch (ProducerFencedException e) {
+            // another instance owns this receiver's transactions: no further batch can be committed
+            throw e;
+        } catch (KafkaException e) {
+            log.error("Unable to commit the transaction of Kafka Receiver: {}, the batch will be processed again", name, e);
+            transaction.abort();
+            for (TopicPartition topicPartition : records.partitions()) {
+                consumer.seek(topicPartition, records.records(topicPartition).get(0).offset());
+                // the rewound messages are not duplicates
+                final MessageProcessor delegate = delegates.get(topicPartition.topic());
+                if (delegate != null && delegate.dedupeCache != null) delegate.dedupeCache.clear();
+            }
+        }
+    }
+
+    /**
+     * @return a Kafka consumer assigned to all of this receiver's topics
      */
     private KafkaConsumer<KEY, IN> getKafkaConsumer() {
-        final long offset = delegate.initialOffset;
+        final KafkaConsumer<KEY, IN> consumer = new KafkaConsumer<>(sizedConsumerProps());
+        assign(consumer, emptyMap());
+        return consumer;
+    }
+
+    /**
+     * Assigns the given consumer to all of this receiver's topics. The partitions with a known position are resumed
+     * from it, the others are positioned at their initial offset.
+     *
+     * @param consumer  the kafka consumer
+     * @param positions the known positions by topic partition
+     */
+    private void assign(KafkaConsumer<KEY, IN> consumer, Map<TopicPartition, Long> positions) {
+        //Assign the controller topics and 0 partition, along with their retry topics, if any
+        final List<TopicPartition> partitions = new ArrayList<>(delegates.size());
+        final List<TopicPartition> retryPartitions = new ArrayList<>();
+        retryDelegates.clear();
+        delegates.forEach((topic, delegate) -> {
+            partitions.add(new TopicPartition(topic, 0));
+            delegate.retryTopics().forEach(retryTopic -> {
+                retryDelegates.put(retryTopic, delegate);
+                retryPartitions.add(new TopicPartition(retryTopic, 0));
+            });
+        });
+        final List<TopicPartition> assignment = new ArrayList<>(partitions);
+        assignment.addAll(retryPartitions);
+        consumer.assign(assignment);
+        this.assignedPartitions = unmodifiableSet(new HashSet<>(partitions));
+
+        // position each one of the new topics at its initial offset
+        for (TopicPartition topicPartition : partitions) {
+            final Long position = positions.get(topicPartition);
+            if (position != null) {
+                consumer.seek(topicPartition, position);
+            } else {
+                seekToInitialOffset(consumer, topicPartition, delegates.get(topicPartition.topic()));
+            }
+        }
+        // the new retry topics are resumed from their committed offsets, or else from the beginning
+        for (TopicPartition retryPartition : retryPartitions) {
+            final Long position = positions.get(retryPartition);
+            if (position != null) {
+                consumer.seek(retryPartition, position);
+            } else if (consumer.committed(retryPartition) == null) {
+                consumer.seekToBeginning(singletonList(retryPartition));
+            }
+        }
+    }
+
+    /**
+     * Positions the consumer at the initial offset defined by the given processor for the specified topic partition
+     *
+     * @param consumer       the kafka consumer, already assigned to the {@code topicPartition}
+     * @param topicPartition the topic partition to be positioned
+     * @param delegate       the processor holding the desired initial offset
+     */
+    private void seekToInitialOffset(KafkaConsumer<KEY, IN> consumer, TopicPartition topicPartition, MessageProcessor delegate) {
+        // hand off from the backfill, right after its last message
+        if (delegate.handoffOffset >= 0) {
+            consumer.seek(topicPartition, delegate.handoffOffset);
+            return;
+        }
+        long offset = delegate.initialOffset;
         try {
-            final KafkaConsumer<KEY, IN> consumer = new KafkaConsumer<>(consumerProperties);
-
-            //Assign the controller topic and 0 partition
-            final TopicPartition topicPartition = new TopicPartition(topic, 0);
-            final List<TopicPartition> partitions = singletonList(topicPartition);
-            consumer.assign(partitions);
-
-            // if the last committed offset is smaller than the one provided, we need to replay all records
-            final OffsetAndMetadata committed = consumer.committed(topicPartition);
-            if (offset != LATEST_OFFSET && (committed == null || committed.offset() < offset)) {
-                log.warn("Provided offset: {} is ahead of the last committed one: {}. Assuming LATEST", offset, committed);
-                delegate.processError(new PlatformErrorImpl("Invalid offset provided", new NoOffsetForPartitionException(topicPartition)));
-                this.delegate.initialOffset = LATEST_OFFSET;
+            // if the last committed offset is smaller than the explicit one provided, we need to replay all records
+            if (offset >= 0) {
+                final OffsetAndMetadata committed = consumer.committed(topicPartition);
+                if (committed == null || committed.offset() < offset) {
+                    log.warn("Provided offset: {} is ahead of the last committed one: {}. Assuming LATEST", offset, committed);
+                    delegate.processError(new PlatformErrorImpl("Invalid offset provided", new NoOffsetForPartitionException(topicPartition)));
+                    delegate.initialOffset = LATEST_OFFSET;
+                    offset = LATEST_OFFSET;
+                }
             }
             // Latest offset defined - only fetch new messages
             if (offset == LATEST_OFFSET) {
                 //only consume recent messages
-                consumer.seekToEnd(partitions);
-                //initial poll for preemptive metadata and offsets negotiation
-                consumer.poll(POLL_TIMEOUT);
+                consumer.seekToEnd(singletonList(topicPartition));
             }
-            // Latest offset defined - only fetch new messages
+            // Earliest offset defined - fetch all the retained messages
             else if (offset == EARLIEST_OFFSET) {
-                //only consume recent messages
-                consumer.seekToBeginning(partitions);
+                consumer.seekToBeginning(singletonList(topicPartition));
             }
             // if the provided offset is to be taken into account, let us seek to the desired position
             else if (offset != KAFKA_STORED_OFFSET) {
                 consumer.seek(topicPartition, offset + 1);
             }
+            // a topic switched to another group, e.g. multiplexed, resumes from where its dedicated receiver left off
+            else if (consumer.committed(topicPartition) == null) {
+                seekToDedicatedOffset(consumer, topicPartition);
+            }
 
-            //initial poll for preemptive metadata and offsets negotiation
-            return consumer;
+            // preemptive offsets negotiation: resolves the position without polling records from other topics
+            consumer.position(topicPartition);
         } catch (InvalidOffsetException e) {
             log.error("Invalid offset provided: {} resetting to Earliest Offset", offset, e);
             delegate.processError(new PlatformErrorImpl(e.getMessage(), e.getCause()));
             // setting earliest offset
-            this.delegate.initialOffset = EARLIEST_OFFSET;
-            return getKafkaConsumer();
+            delegate.initialOffset = EARLIEST_OFFSET;
+            consumer.seekToBeginning(singletonList(topicPartition));
         }
     }
 
+    /**
+     * Positions the consumer at the offset committed for the given partition by the group of the topic's dedicated
+     * receiver, if this receiver's group is another one and that group has committed an offset
+     *
+     * @param consumer       the kafka consumer, already assigned to the {@code topicPartition}
+     * @param topicPartition the topic partition to be positioned
+     */
+    private void seekToDedicatedOffset(KafkaConsumer<KEY, IN> consumer, TopicPartition topicPartition) {
+        final String groupId = dedicatedGroupId(topicPartition.topic());
+        if (groupId.equals(consumerProperties.get(ConsumerConfig.GROUP_ID_CONFIG))) {
+            return;
+        }
+        final Map<String, Object> properties = new HashMap<>(consumerProperties);
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        try (KafkaConsumer<byte[], byte[]> groupConsumer = new KafkaConsumer<>(properties,
+                new ByteArrayDeserializer(), new ByteArrayDeserializer())) {
+            final OffsetAndMetadata committed = groupConsumer.committed(topicPartition);
+            if (committed != null) {
+                log.info("Kafka Receiver: {} resuming {} from offset: {} committed by the group: {}",
+                        name, topicPartition, committed.offset(), groupId);
+                consumer.seek(topicPartition, committed.offset());
+            }
+        }
+    }
+
+    /**
+     * @param topic the topic
+     * @return the group id of the receiver dedicated to the given topic
+     */
+    static String dedicatedGroupId(String topic) {
+        return topic.toLowerCase() + "Consumer";
+    }
+
+    /**
+     * Recreates the kafka consumer with the fetch sizing recommended by the adaptive tuner,
+     * resuming all the assigned partitions from their current positions
+     */
+    private void resizeConsumer() {
+        log.info("Resizing Kafka Receiver: {} to max.poll.records: {} max.partition.fetch.bytes: {}",
+                name, tuner.currentPollRecords(), tuner.currentFetchBytes());
+
+        final Map<TopicPartition, Long> positions = new HashMap<>();
+        consumer.assignment().forEach(topicPartition -> positions.put(topicPartition, consumer.position(topicPartition)));
+        consumer.close();
+        // the new consumer fetches the paused retry records again, pausing them if still not due
+        pausedUntil.clear();
+
+        this.consumer = new KafkaConsumer<>(sizedConsumerProps());
+        consumer.assign(new ArrayList<>(positions.keySet()));
+        positions.forEach(consumer::seek);
+    }
+
+    /**
+     * @return the consumer properties, overridden with the adaptive tuner sizing if enabled
+     */
+    private Map<String, Object> sizedConsumerProps() {
+        if (tuner == null) {
+            return consumerProperties;
+        }
+        final Map<String, Object> properties = new HashMap<>(consumerProperties);
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, tuner.currentPollRecords());
+        properties.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, tuner.currentFetchBytes());
+        return properties;
+    }
+
     /**
      * Create the Consumer properties and load the properties defined at configuration file
      *
+     * @param clientId the consumer client id
+     * @param groupId  the consumer group id
      * @return the Consumer properties
      */
-    private Map<String, Object> loadConsumerProps() {
-        final Map<String, Object> properties = PropertiesReader.getInstance().loadConsumerProps();
+    private Map<String, Object> loadConsumerProps(String clientId, String groupId) {
+        final Map<String, Object> properties = PropertiesReader.getInstance().loadConsumerProps(cluster);
 
         //fill the deserializing-specific properties and client id
-        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, topic.toLowerCase());
-        properties.put(ConsumerConfig.GROUP_ID_CONFIG, topic.toLowerCase() + "Consumer");
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, clientId);
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer.getClass().getName());
         properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer.getClass().getName());
+
+        // the offsets are committed by the transactions, which must only read committed messages
+        if (KafkaTransaction.isEnabled()) {
+            properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+            properties.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
+        // the offsets are committed up to the first record not yet processed by the dispatcher stripes
+        if (KeyStripedDispatcher.isEnabled()) {
+            properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        }
         return properties;
     }
 
@@ -187,15 +762,59 @@ class KafkaReceiver<KEY, IN> {
     void start() {
         // creates the kafka consumer
         createConsumer();
-        shuttingDown.set(false);
+        this.shuttingDown = false;
         this.consumerThread.start();
     }
 
     /**
-     * Stop the Kafka receiver container
+     * Stop the Kafka receiver container. The consumer thread releases the processors once its current batch and the
+     * dispatched records are processed.
      */
     void stop() {
-        shuttingDown.set(true);
+        this.shuttingDown = true;
+        // never started, e.g. still backfilling: nothing is being processed
+        if (consumerThread == null) delegates.values().forEach(MessageProcessor::release);
+    }
+
+    /**
+     * Waits for the consumer thread to release the processors, once {@link #stop stopped}
+     *
+     * @param timeoutMs the maximum time to wait, in milliseconds
+     */
+    void awaitStopped(long timeoutMs) {
+        final Thread thread = consumerThread;
+        if (thread == null || thread == Thread.currentThread()) return;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A pending partition seek
+     */
+    private static final class Seek {
+        final TopicPartition topicPartition;
+        final ToLongFunction<Consumer<?, ?>> resolver;
+
+        Seek(TopicPartition topicPartition, ToLongFunction<Consumer<?, ?>> resolver) {
+            this.topicPartition = topicPartition;
+            this.resolver = resolver;
+        }
+    }
+
+    /**
+     * An ongoing replay, until the end offset of its partition at the time of the seek
+     */
+    private static final class Replay {
+        final long end;
+        long windowStart;
+        int count;
+
+        Replay(long end) {
+            this.end = end;
+        }
     }
 
 }
@@ -11,17 +11,30 @@ import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.SettableListenableFuture;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 /**
  * @author Pedro Costa
  * <p>
  * Implementation of a Kafka protobuf messages sender
+ * <p>
+ * The senders of a kafka cluster share a single kafka producer, by serializers, which is closed once its last sender
+ * is stopped: a kafka producer is thread safe, and sends to any topic of its cluster.
  */
 class KafkaSender<KEY, OUT> {
 
     private static final Logger log = LoggerFactory.getLogger(KafkaSender.class);
 
+    // the shared producer factories, by cluster and serializers
+    private static final ConcurrentMap<String, SharedFactory> SHARED_FACTORIES = new ConcurrentHashMap<>();
+
     private final String dstTopic;
+    // the shared producer factory key, or null if this sender owns its producer factory
+    private final String sharedKey;
+    // the shared producer factory acquired by this sender, if any
+    private SharedFactory sharedFactory;
     private final Serializer<KEY> keySerializer;
     private final Serializer<OUT> valueSerializer;
     private final Map<String, Object> senderProperties;
@@ -32,6 +45,9 @@ class KafkaSender<KEY, OUT> {
     // the kafka message producer factory
     private DefaultKafkaProducerFactory<KEY, OUT> producerFactory;
 
+    // the number of partitions of the dstTopic, once fetched
+    private volatile int partitionCount;
+
     /**
      * The default constructor
      *
@@ -40,12 +56,25 @@ class KafkaSender<KEY, OUT> {
      * @param valueSerializer the protobuf message valueSerializer
      */
     KafkaSender(String dstTopic, Serializer<KEY> keySerializer, Serializer<OUT> valueSerializer) {
+        this(dstTopic, PropertiesReader.DEFAULT_CLUSTER, keySerializer, valueSerializer);
+    }
+
+    /**
+     * Creates a sender through the kafka producer shared by the senders of the given cluster
+     *
+     * @param dstTopic        this sender's destination Topic
+     * @param cluster         the destination kafka cluster
+     * @param keySerializer   the message key serializer
+     * @param valueSerializer the protobuf message valueSerializer
+     */
+    KafkaSender(String dstTopic, String cluster, Serializer<KEY> keySerializer, Serializer<OUT> valueSerializer) {
         this.dstTopic = dstTopic;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
+        this.sharedKey = cluster + "|" + keySerializer.getClass().getName() + "|" + valueSerializer.getClass().getName();
 
         // load the properties defined at kafka properties file
-        this.senderProperties = senderProps();
+        this.senderProperties = senderProps(cluster);
         // create the container instance
         this.template = createTemplate();
     }
@@ -60,6 +89,7 @@ class KafkaSender<KEY, OUT> {
         this.dstTopic = dstTopic;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
+        this.sharedKey = null;
 
         // load the properties defined at kafka properties file
         this.senderProperties = properties;
@@ -86,6 +116,42 @@ class KafkaSender<KEY, OUT> {
         }
     }
 
+    /**
+     * Send a protobuf message to the given partition of this dstTopic
+     *
+     * @param partition the destination partition
+     * @param key       the message kafka key
+     * @param message   the message to be sent to this dstTopic
+     * @return the result {@link ListenableFuture}
+     */
+    ListenableFuture<SendResult<KEY, OUT>> send(int partition, KEY key, OUT message) {
+        try {
+            // send the message
+            return template.sendDefault(partition, key, message);
+        } catch (Exception e) {
+            // wrap all errors
+            final SettableListenableFuture<SendResult<KEY, OUT>> result = new SettableListenableFuture<>();
+            result.setException(e);
+            return result;
+        }
+    }
+
+    /**
+     * Returns the number of partitions of this dstTopic, fetched from the broker on first use
+     *
+     * @return the number of partitions, or {@code 0} if unknown
+     */
+    int partitionCount() {
+        if (partitionCount == 0) {
+            try {
+                this.partitionCount = template.partitionsFor(dstTopic).size();
+            } catch (Exception e) {
+                log.error("Unable to fetch the partitions of Topic: {}", dstTopic, e);
+            }
+        }
+        return partitionCount;
+    }
+
     /**
      * Creates a Kafka Template
      *
@@ -93,10 +159,7 @@ class KafkaSender<KEY, OUT> {
      */
     private KafkaTemplate<KEY, OUT> createTemplate() {
         log.info("Creating Kafka Sender for Topic: {}", dstTopic);
-        this.producerFactory = new DefaultKafkaProducerFactory<>(senderProperties, keySerializer, valueSerializer);
-
-        // explicit kafka producer creation
-        producerFactory.createProducer();
+        this.producerFactory = sharedKey == null ? createProducerFactory() : acquireProducerFactory();
 
         final KafkaTemplate<KEY, OUT> kafkaTemplate = new KafkaTemplate<>(producerFactory);
         kafkaTemplate.setDefaultTopic(dstTopic);
@@ -105,16 +168,72 @@ class KafkaSender<KEY, OUT> {
         return kafkaTemplate;
     }
 
+    /**
+     * Creates a producer factory, along with its kafka producer
+     *
+     * @return the created producer factory
+     */
+    private DefaultKafkaProducerFactory<KEY, OUT> createProducerFactory() {
+        final DefaultKafkaProducerFactory<KEY, OUT> factory = new DefaultKafkaProducerFactory<>(senderProperties, keySerializer, valueSerializer);
+
+        // explicit kafka producer creation
+        factory.createProducer();
+        return factory;
+    }
+
+    /**
+     * Acquires the producer factory shared by the senders of this cluster and serializers, creating it if needed.
+     * The factory is created under the lock of its own holder, so the senders of other clusters don't wait for it
+     *
+     * @return the shared producer factory
+     */
+    @SuppressWarnings("unchecked")
+    private DefaultKafkaProducerFactory<KEY, OUT> acquireProducerFactory() {
+        SharedFactory shared;
+        // a holder released meanwhile by its last sender is no longer shared: retry with a new one
+        do {
+            shared = SHARED_FACTORIES.computeIfAbsent(sharedKey, key -> new SharedFactory());
+        } while (!shared.acquire());
+
+        try {
+            final DefaultKafkaProducerFactory<KEY, OUT> factory = (DefaultKafkaProducerFactory<KEY, OUT>) shared.factory(this::createProducerFactory);
+            this.sharedFactory = shared;
+            return factory;
+        } catch (RuntimeException e) {
+            release(shared);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the shared producer factory, stopping it once it's no longer used by any sender
+     */
+    private void releaseProducerFactory() {
+        if (sharedFactory != null) {
+            release(sharedFactory);
+            this.sharedFactory = null;
+        }
+    }
+
+    private void release(SharedFactory shared) {
+        if (shared.release()) {
+            SHARED_FACTORIES.remove(sharedKey, shared);
+            shared.stop();
+        }
+    }
+
     /**
      * Create the Sender properties
      *
+     * @param cluster the destination kafka cluster
      * @return the Sender properties
      */
-    private Map<String, Object> senderProps() {
-        final Map<String, Object> properties = PropertiesReader.getInstance().loadSenderProps();
+    private Map<String, Object> senderProps(String cluster) {
+        final Map<String, Object> properties = PropertiesReader.getInstance().loadSenderProps(cluster);
 
-        //fill the deserializing-specific properties
-        properties.put(ProducerConfig.CLIENT_ID_CONFIG, "kafka_proto_api" + "->" + dstTopic.toLowerCase());
+        //fill the deserializing-specific properties, the client id is shared by the senders of the cluster
+        final String clientId = PropertiesReader.isDefaultCluster(cluster) ? "default" : cluster.toLowerCase();
+        properties.put(ProducerConfig.CLIENT_ID_CONFIG, "kafka_proto_api" + "->" + clientId);
         properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, keySerializer.getClass().getName());
         properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer.getClass().getName());
         return properties;
@@ -124,6 +243,44 @@ class KafkaSender<KEY, OUT> {
      * Stops the Kafka sender
      */
     void stop() {
-        this.producerFactory.stop();
+        if (sharedKey == null) {
+            this.producerFactory.stop();
+        } else {
+            releaseProducerFactory();
+        }
+    }
+
+    /**
+     * A producer factory shared by several senders, lazily created by the first one
+     */
+    private static final class SharedFactory {
+        // guarded by this
+        private DefaultKafkaProducerFactory<?, ?> factory;
+        // the number of senders using the factory, guarded by this
+        private int references;
+        // whether the last sender released the factory, guarded by this
+        private boolean released;
+
+        synchronized boolean acquire() {
+            if (released) return false;
+            references++;
+            return true;
+        }
+
+        synchronized DefaultKafkaProducerFactory<?, ?> factory(Supplier<DefaultKafkaProducerFactory<?, ?>> creator) {
+            if (factory == null) {
+                this.factory = creator.get();
+            }
+            return factory;
+        }
+
+        synchronized boolean release() {
+            this.released = --references == 0;
+            return released;
+        }
+
+        synchronized void stop() {
+            if (factory != null) factory.stop();
+        }
     }
 }
@@ -0,0 +1,211 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MessagePartitioner;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A kafka transaction wrapping the processing of each batch of records polled by a {@link KafkaReceiver}.
+ * <p>
+ * While a batch is processed, the transaction is bound to the receiver thread, and every message sent by a
+ * {@link ProtobufProducer} from that thread goes through the transactional producer. The consumed offsets are then
+ * committed along with the sent messages, so that a batch is either fully consumed and produced, or not at all.
+ * <p>
+ * A transaction is begun, committed and aborted by its receiver thread only, but it may be shared meanwhile with the
+ * workers calling the parallel listeners of that thread, which send through it concurrently.
+ */
+final class KafkaTransaction {
+
+    private static final Logger log = LoggerFactory.getLogger(KafkaTransaction.class);
+
+    // the api properties
+    static final String TRANSACTIONAL_ENABLED = "api.receiver.transactional.enabled";
+    static final String TRANSACTIONAL_ID_PREFIX = "api.receiver.transactional.id.prefix";
+
+    private static final String DEFAULT_ID_PREFIX = "kafka_proto_api";
+
+    // the transaction bound to the current receiver thread, if any
+    private static final ThreadLocal<KafkaTransaction> CURRENT = new ThreadLocal<>();
+
+    // the transactional producer
+    private final Producer<byte[], byte[]> producer;
+    // the kafka cluster of the transactional producer
+    final String cluster;
+    // the number of partitions by destination topic, once fetched
+    private final ConcurrentMap<String, Integer> partitionCounts;
+    // whether the producer transactions were initialized
+    private boolean initialized;
+
+    /**
+     * Default constructor
+     *
+     * @param producer the transactional producer
+     */
+    KafkaTransaction(Producer<byte[], byte[]> producer) {
+        this(producer, PropertiesReader.DEFAULT_CLUSTER);
+    }
+
+    /**
+     * @param producer the transactional producer
+     * @param cluster  the kafka cluster of the transactional producer
+     */
+    KafkaTransaction(Producer<byte[], byte[]> producer, String cluster) {
+        this.producer = producer;
+        this.cluster = cluster;
+        this.partitionCounts = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a transaction for the given receiver, if the transactional mode is enabled at the configuration file.
+     * The transactional id is stable across restarts, so that a previous instance of the receiver is fenced.
+     *
+     * @param name the receiver name
+     * @return the receiver transaction, or {@code null} if the transactional mode is disabled
+     */
+    static KafkaTransaction fromProperties(String name) {
+        return fromProperties(name, PropertiesReader.DEFAULT_CLUSTER);
+    }
+
+    /**
+     * Creates a transaction for the given receiver of the given kafka cluster, if the transactional mode is enabled at
+     * the configuration file. Only the messages sent to that same cluster take part in the transaction.
+     *
+     * @param name    the receiver name
+     * @param cluster the kafka cluster of the receiver
+     * @return the receiver transaction, or {@code null} if the transactional mode is disabled
+     */
+    static KafkaTransaction fromProperties(String name, String cluster) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        final String prefix = reader.getProperties().getProperty(TRANSACTIONAL_ID_PREFIX, DEFAULT_ID_PREFIX);
+        final Map<String, Object> properties = reader.loadSenderProps(cluster);
+
+        properties.put(ProducerConfig.CLIENT_ID_CONFIG, prefix + "->" + name.toLowerCase());
+        properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, prefix + "-" + name);
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+
+        log.info("Creating transactional Kafka Sender for Receiver: {}", name);
+        return new KafkaTransaction(new KafkaProducer<>(properties, new ByteArraySerializer(), new ByteArraySerializer()), cluster);
+    }
+
+    /**
+     * @return {@code true} if the transactional mode is enabled at the configuration file, {@code false} otherwise
+     */
+    static boolean isEnabled() {
+        return PropertiesReader.getInstance().getBooleanProperty(TRANSACTIONAL_ENABLED, false);
+    }
+
+    /**
+     * @return the transaction bound to the current thread, or {@code null} if none
+     */
+    static KafkaTransaction current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the given transaction to the current thread, e.g. a worker of the receiver thread, or unbinds the current
+     * one if {@code null}
+     *
+     * @param transaction the transaction to be bound
+     */
+    static void bind(KafkaTransaction transaction) {
+        if (transaction == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(transaction);
+        }
+    }
+
+    /**
+     * Begins a new transaction and binds it to the current thread
+     */
+    void begin() {
+        if (!initialized) {
+            producer.initTransactions();
+            this.initialized = true;
+        }
+        producer.beginTransaction();
+        CURRENT.set(this);
+    }
+
+    /**
+     * Sends a serialized message within this transaction
+     *
+     * @param dstTopic  the destination topic
+     * @param partition the destination partition, or {@link MessagePartitioner#DEFAULT_PARTITION} to partition by key
+     * @param key       the serialized message key
+     * @param value     the serialized message
+     */
+    void send(String dstTopic, int partition, byte[] key, byte[] value) {
+        final Integer recordPartition = partition == MessagePartitioner.DEFAULT_PARTITION ? null : partition;
+        producer.send(new ProducerRecord<>(dstTopic, recordPartition, key, value));
+    }
+
+    /**
+     * Returns the number of partitions of the given topic, fetched from the broker on first use
+     *
+     * @param dstTopic the destination topic
+     * @return the number of partitions
+     */
+    int partitionCount(String dstTopic) {
+        final Integer count = partitionCounts.get(dstTopic);
+        if (count != null) return count;
+        // fetched outside the map lock, a concurrent fetch of the same topic being harmless
+        final int fetched = producer.partitionsFor(dstTopic).size();
+        final Integer previous = partitionCounts.putIfAbsent(dstTopic, fetched);
+        return previous != null ? previous : fetched;
+    }
+
+    /**
+     * Commits the messages sent within this transaction along with the given consumed offsets, and unbinds it
+     *
+     * @param offsets the next offsets to be consumed by partition
+     * @param groupId the consumer group id
+     */
+    void commit(Map<TopicPartition, OffsetAndMetadata> offsets, String groupId) {
+        try {
+            if (!offsets.isEmpty()) {
+                producer.sendOffsetsToTransaction(offsets, groupId);
+            }
+            producer.commitTransaction();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Aborts the messages sent within this transaction, and unbinds it
+     */
+    void abort() {
+        try {
+            producer.abortTransaction();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Closes the transactional producer, aborting any ongoing transaction
+     */
+    void close() {
+        CURRENT.remove();
+        producer.close();
+    }
+}
@@ -0,0 +1,282 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Dispatches the received records of a kafka receiver to a fixed number of single-threaded stripes, by the hash of
+ * their key, so that the records of the same key are processed in order while the ones of unrelated keys, even from
+ * the same partition, are processed in parallel.
+ * <p>
+ * Each stripe is fed through a bounded single-producer single-consumer ring buffer, in the style of the LMAX
+ * Disruptor: the receiver thread publishes into the ring and the stripe thread consumes it, synchronized only by
+ * their sequences. The receiver thread waits while a stripe ring is full, which throttles the polling.
+ * <p>
+ * As the records complete out of order, the committable offset of each partition is the one of its first record not
+ * yet processed, across all the stripes.
+ */
+final class KeyStripedDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyStripedDispatcher.class);
+
+    // the api properties
+    static final String KEY_STRIPES = "api.receiver.key.stripes";
+    static final String KEY_STRIPE_CAPACITY = "api.receiver.key.stripe.capacity";
+
+    private static final int DEFAULT_STRIPE_CAPACITY = 1024;
+    // the idle strategy of the waiting threads: spin, then yield, then park
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // the receiver name
+    private final String name;
+    // the stripes, by key hash
+    private final Stripe[] stripes;
+
+    // the dispatched records not yet known to be processed, by partition, in offset order
+    private final Map<TopicPartition, Deque<Dispatched>> pending = new HashMap<>();
+    // the offset following the last dispatched record, by partition
+    private final Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+    // the last committable offset handed out, by partition
+    private final Map<TopicPartition, Long> committed = new HashMap<>();
+
+    /**
+     * Default constructor: starts the stripe threads
+     *
+     * @param name     the receiver name
+     * @param stripes  the number of stripes
+     * @param capacity the capacity of each stripe ring, rounded up to a power of 2
+     */
+    KeyStripedDispatcher(String name, int stripes, int capacity) {
+        this.name = name;
+        this.stripes = new Stripe[stripes];
+        final int ringSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(name + "KafkaStripe-" + i, ringSize);
+        }
+    }
+
+    /**
+     * Creates the dispatcher of the given receiver, with the number of stripes defined at the configuration file
+     *
+     * @param name the receiver name
+     * @return the dispatcher, or {@code null} if the key striped dispatch is disabled
+     */
+    static KeyStripedDispatcher fromProperties(String name) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        return new KeyStripedDispatcher(name,
+                reader.getIntProperty(KEY_STRIPES, 0),
+                reader.getIntProperty(KEY_STRIPE_CAPACITY, DEFAULT_STRIPE_CAPACITY));
+    }
+
+    /**
+     * @return {@code true} if the key striped dispatch is enabled. Transactional receivers are never striped, as
+     * their batches are committed by the receiver thread.
+     */
+    static boolean isEnabled() {
+        final boolean enabled = PropertiesReader.getInstance().getIntProperty(KEY_STRIPES, 0) > 1;
+        if (enabled && KafkaTransaction.isEnabled()) {
+            log.warn("The key striped dispatch is not supported by transactional receivers, ignoring {}", KEY_STRIPES);
+            return false;
+        }
+        return enabled;
+    }
+
+    /**
+     * Publishes the processing of the given record to the stripe of its key, waiting while the stripe is full.
+     * Only called by the receiver thread.
+     *
+     * @param topicPartition the record topic partition
+     * @param key            the record key
+     * @param offset         the record offset
+     * @param task           processes the record
+     */
+    void dispatch(TopicPartition topicPartition, String key, long offset, Runnable task) {
+        final Stripe stripe = stripes[stripeOf(key)];
+        final long sequence = stripe.publish(task);
+        pending.computeIfAbsent(topicPartition, tp -> new ArrayDeque<>()).add(new Dispatched(offset, stripe, sequence));
+        nextOffsets.put(topicPartition, offset + 1);
+    }
+
+    /**
+     * Publishes the given task to the stripe of its key, waiting while the stripe is full, with no record offset to be
+     * committed, e.g. the redelivery of a record already processed. Only called by the receiver thread.
+     *
+     * @param key  the record key
+     * @param task the task to be run
+     */
+    void dispatch(String key, Runnable task) {
+        stripes[stripeOf(key)].publish(task);
+    }
+
+    /**
+     * @param key the record key
+     * @return the stripe of the given key
+     */
+    int stripeOf(String key) {
+        return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    /**
+     * Returns the offsets to be committed: for each partition, the offset of its first dispatched record not yet
+     * processed, or the one following the last dispatched record if all were processed. Only called by the receiver
+     * thread.
+     *
+     * @return the committable offsets which moved forward since the previous call
+     */
+    Map<TopicPartition, OffsetAndMetadata> committableOffsets() {
+        final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        pending.forEach((topicPartition, dispatched) -> {
+            while (!dispatched.isEmpty() && dispatched.peek().isProcessed()) {
+                dispatched.poll();
+            }
+            final long offset = dispatched.isEmpty() ? nextOffsets.get(topicPartition) : dispatched.peek().offset;
+            final Long previous = committed.get(topicPartition);
+            if (previous == null || offset > previous) {
+                committed.put(topicPartition, offset);
+                offsets.put(topicPartition, new OffsetAndMetadata(offset));
+            }
+        });
+        return offsets;
+    }
+
+    /**
+     * Forgets the dispatched records of the given partition, e.g. once it's repositioned, so that they no longer hold
+     * back its committable offset
+     *
+     * @param topicPartition the topic partition
+     */
+    void reset(TopicPartition topicPartition) {
+        pending.remove(topicPartition);
+        nextOffsets.remove(topicPartition);
+        committed.remove(topicPartition);
+    }
+
+    /**
+     * Waits for the stripes to process the dispatched records, up to the given timeout, and stops them
+     *
+     * @param timeoutMillis the maximum time to wait for the dispatched records
+     */
+    void close(long timeoutMillis) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Stripe stripe : stripes) {
+            while (!stripe.isDrained() && System.currentTimeMillis() < deadline) {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            if (!stripe.isDrained()) log.warn("Stopping {} with pending records of Kafka Receiver: {}", stripe.thread.getName(), name);
+        }
+        for (Stripe stripe : stripes) {
+            stripe.running = false;
+            LockSupport.unpark(stripe.thread);
+        }
+    }
+
+    /**
+     * Waits according to the idle strategy
+     *
+     * @param tries the number of consecutive idle tries so far
+     */
+    private static void idle(int tries) {
+        if (tries < SPIN_TRIES) return;
+        if (tries < YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * A single-threaded stripe, consuming its ring buffer
+     */
+    private static final class Stripe {
+        private final Runnable[] ring;
+        private final int mask;
+        // the number of published and of processed tasks: the sequences of the next ones
+        private final AtomicLong published = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Stripe(String name, int ringSize) {
+            this.ring = new Runnable[ringSize];
+            this.mask = ringSize - 1;
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /**
+         * Publishes the given task, waiting while the ring is full. Only called by the single producer.
+         *
+         * @return the task sequence
+         */
+        long publish(Runnable task) {
+            final long sequence = published.get();
+            int tries = 0;
+            while (sequence - processed.get() >= ring.length) {
+                idle(tries++);
+            }
+            ring[(int) sequence & mask] = task;
+            // the task is visible to the stripe thread once the sequence is
+            published.lazySet(sequence + 1);
+            return sequence;
+        }
+
+        private void run() {
+            int tries = 0;
+            while (running) {
+                final long sequence = processed.get();
+                if (sequence == published.get()) {
+                    idle(tries++);
+                    continue;
+                }
+                tries = 0;
+                final int index = (int) sequence & mask;
+                final Runnable task = ring[index];
+                ring[index] = null;
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    log.error("SEVERE error processing record on {}: ", thread.getName(), e);
+                }
+                processed.lazySet(sequence + 1);
+            }
+        }
+
+        boolean isDrained() {
+            return processed.get() == published.get();
+        }
+    }
+
+    /**
+     * A dispatched record, processed once its stripe moves past its sequence
+     */
+    private static final class Dispatched {
+        final long offset;
+        final Stripe stripe;
+        final long sequence;
+
+        Dispatched(long offset, Stripe stripe, long sequence) {
+            this.offset = offset;
+            this.stripe = stripe;
+            this.sequence = sequence;
+        }
+
+        boolean isProcessed() {
+            return stripe.processed.get() > sequence;
+        }
+    }
+}
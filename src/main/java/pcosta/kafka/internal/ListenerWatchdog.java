@@ -0,0 +1,326 @@
+package pcosta.kafka.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MessageListener;
+import pcosta.kafka.api.MessagingException;
+import pcosta.kafka.api.PlatformError;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Tracks the execution time of the {@link MessageListener} calls of a topic:
+ * <ul>
+ * <li>the calls which took longer than the soft timeout are reported once completed</li>
+ * <li>the calls still running past the hard timeout are reported while running, along with the stack trace of the
+ * blocked thread, as kafka can't interrupt a listener</li>
+ * </ul>
+ * A listener which is slow for a number of consecutive calls, if configured, is isolated: its following messages are
+ * handed to its own thread, through a bounded queue, so that it no longer delays the other listeners of the topic.
+ * The isolated calls still pending once the listener is forgotten or the watchdog is closed are discarded, through
+ * the fallback given along with each call.
+ */
+final class ListenerWatchdog {
+
+    private static final Logger log = LoggerFactory.getLogger(ListenerWatchdog.class);
+
+    // the api properties
+    static final String SOFT_TIMEOUT = "api.receiver.listener.soft.timeout.ms";
+    static final String HARD_TIMEOUT = "api.receiver.listener.hard.timeout.ms";
+    static final String ISOLATION_STRIKES = "api.receiver.listener.isolation.strikes";
+    static final String ISOLATION_QUEUE = "api.receiver.listener.isolation.queue";
+
+    private static final int DEFAULT_ISOLATION_QUEUE = 1000;
+    // the bounds of the interval between the scans for calls past the hard timeout
+    private static final long MIN_SCAN_INTERVAL = 10;
+    private static final long MAX_SCAN_INTERVAL = 1000;
+
+    // the watched topic
+    private final String topic;
+    // the timeouts, 0 if disabled
+    private final long softTimeoutNanos;
+    private final long hardTimeoutNanos;
+    // the consecutive slow calls before a listener is isolated, 0 to never isolate
+    private final int isolationStrikes;
+    private final int isolationQueue;
+    // reports the slow calls
+    private final Consumer<PlatformError> errorReporter;
+
+    // the running calls
+    private final Set<Call> running = ConcurrentHashMap.newKeySet();
+    // the consecutive slow calls by listener
+    private final Map<MessageListener, AtomicInteger> strikes = new ConcurrentHashMap<>();
+    // the executors of the isolated listeners
+    private final Map<MessageListener, IsolatedExecutor> isolated = new ConcurrentHashMap<>();
+    // scans the running calls past the hard timeout, if enabled
+    private final ScheduledExecutorService scanner;
+
+    /**
+     * Default constructor
+     *
+     * @param topic            the watched topic
+     * @param softTimeout      the soft timeout in milliseconds, 0 to disable
+     * @param hardTimeout      the hard timeout in milliseconds, 0 to disable
+     * @param isolationStrikes the consecutive slow calls before a listener is isolated, 0 to never isolate
+     * @param isolationQueue   the maximum number of pending messages of each isolated listener
+     * @param errorReporter    reports the slow calls
+     */
+    ListenerWatchdog(String topic, long softTimeout, long hardTimeout, int isolationStrikes, int isolationQueue,
+                     Consumer<PlatformError> errorReporter) {
+        this.topic = topic;
+        this.softTimeoutNanos = MILLISECONDS.toNanos(softTimeout);
+        this.hardTimeoutNanos = MILLISECONDS.toNanos(hardTimeout);
+        this.isolationStrikes = isolationStrikes;
+        this.isolationQueue = Math.max(1, isolationQueue);
+        this.errorReporter = errorReporter;
+
+        if (hardTimeout > 0) {
+            this.scanner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, topic + "KafkaListenerWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long interval = Math.min(MAX_SCAN_INTERVAL, Math.max(MIN_SCAN_INTERVAL, hardTimeout / 4));
+            scanner.scheduleWithFixedDelay(this::scan, interval, interval, MILLISECONDS);
+        } else {
+            this.scanner = null;
+        }
+    }
+
+    /**
+     * Creates the watchdog of the given topic, with the timeouts defined at the configuration file
+     *
+     * @param topic         the watched topic
+     * @param errorReporter reports the slow calls
+     * @return the watchdog, or {@code null} if both timeouts are disabled
+     */
+    static ListenerWatchdog fromProperties(String topic, Consumer<PlatformError> errorReporter) {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        final long softTimeout = reader.getLongProperty(SOFT_TIMEOUT, 0);
+        final long hardTimeout = reader.getLongProperty(HARD_TIMEOUT, 0);
+        if (softTimeout <= 0 && hardTimeout <= 0) {
+            return null;
+        }
+        return new ListenerWatchdog(topic, softTimeout, hardTimeout,
+                reader.getIntProperty(ISOLATION_STRIKES, 0),
+                reader.getIntProperty(ISOLATION_QUEUE, DEFAULT_ISOLATION_QUEUE),
+                errorReporter);
+    }
+
+    /**
+     * Tracks a listener call, started by the current thread
+     *
+     * @param listener the called listener
+     * @return the call, to be {@link #completed(Call) completed}
+     */
+    Call started(MessageListener listener) {
+        final Call call = new Call(listener, Thread.currentThread(), System.nanoTime());
+        running.add(call);
+        return call;
+    }
+
+    /**
+     * Completes the tracking of a listener call, reporting it if slow
+     *
+     * @param call the completed call
+     */
+    void completed(Call call) {
+        running.remove(call);
+        final long elapsed = System.nanoTime() - call.start;
+        final boolean slow = (softTimeoutNanos > 0 && elapsed > softTimeoutNanos) || call.timedOut;
+        if (!slow) {
+            strikes.remove(call.listener);
+            return;
+        }
+        if (!call.timedOut) {
+            report("Slow listener " + name(call.listener) + " on topic: " + topic,
+                    new StacklessMessagingException("The call took " + NANOSECONDS.toMillis(elapsed) + " ms"));
+            strike(call.listener);
+        }
+    }
+
+    /**
+     * Reports the calls running past the hard timeout, once each
+     */
+    private void scan() {
+        final long now = System.nanoTime();
+        for (Call call : running) {
+            if (call.timedOut || now - call.start <= hardTimeoutNanos) continue;
+            call.timedOut = true;
+            final MessagingException blocked = new MessagingException(
+                    "The call is running for " + NANOSECONDS.toMillis(now - call.start) + " ms on " + call.thread.getName());
+            blocked.setStackTrace(call.thread.getStackTrace());
+            report("Blocked listener " + name(call.listener) + " on topic: " + topic, blocked);
+            strike(call.listener);
+        }
+    }
+
+    private void report(String description, Exception cause) {
+        log.warn("{}: {}", description, cause.getMessage());
+        errorReporter.accept(new PlatformErrorImpl(description, cause));
+    }
+
+    /**
+     * Counts a slow call of the given listener, isolating it once it reaches the configured strikes
+     */
+    private void strike(MessageListener listener) {
+        if (isolationStrikes <= 0) return;
+        final int count = strikes.computeIfAbsent(listener, l -> new AtomicInteger()).incrementAndGet();
+        if (count >= isolationStrikes && !isolated.containsKey(listener)) {
+            isolated.computeIfAbsent(listener, l -> {
+                log.warn("Isolating listener {} on topic: {} after {} slow calls", name(l), topic, count);
+                return new IsolatedExecutor(topic + "KafkaIsolated-" + name(l), isolationQueue);
+            });
+        }
+    }
+
+    /**
+     * @param listener the message listener
+     * @return {@code true} if the listener is isolated, and its messages are to be {@link #submitIfIsolated submitted}
+     */
+    boolean isIsolated(MessageListener listener) {
+        return !isolated.isEmpty() && isolated.containsKey(listener);
+    }
+
+    /**
+     * Hands a call of the given listener to its own thread if isolated, waiting while its queue is full
+     *
+     * @param listener  the message listener
+     * @param call      delivers the message to the listener
+     * @param discarded run instead of the call if it's discarded, once the listener is no longer isolated
+     * @return {@code true} if the call was handed to the isolated listener thread, {@code false} if the listener isn't
+     * isolated and is to be called by the current thread
+     */
+    boolean submitIfIsolated(MessageListener listener, Runnable call, Runnable discarded) {
+        final IsolatedExecutor executor = isolated.isEmpty() ? null : isolated.get(listener);
+        if (executor == null) return false;
+        executor.submit(new IsolatedCall(call, discarded));
+        return true;
+    }
+
+    /**
+     * Forgets an unregistered listener, stopping its thread if isolated
+     *
+     * @param listener the unregistered listener
+     */
+    void forget(MessageListener listener) {
+        strikes.remove(listener);
+        final IsolatedExecutor executor = isolated.remove(listener);
+        if (executor != null) executor.close();
+    }
+
+    /**
+     * Stops the scanner and the isolated listeners threads, discarding their pending calls
+     */
+    void close() {
+        if (scanner != null) scanner.shutdownNow();
+        isolated.values().forEach(IsolatedExecutor::close);
+        isolated.clear();
+    }
+
+    private static String name(MessageListener listener) {
+        return listener.getClass().getSimpleName();
+    }
+
+    /**
+     * A tracked listener call
+     */
+    static final class Call {
+        private final MessageListener listener;
+        private final Thread thread;
+        private final long start;
+        // whether the call was reported as running past the hard timeout
+        private volatile boolean timedOut;
+
+        Call(MessageListener listener, Thread thread, long start) {
+            this.listener = listener;
+            this.thread = thread;
+            this.start = start;
+        }
+    }
+
+    /**
+     * A call of an isolated listener, and its fallback if discarded
+     */
+    private static final class IsolatedCall {
+        private final Runnable call;
+        private final Runnable discarded;
+
+        IsolatedCall(Runnable call, Runnable discarded) {
+            this.call = call;
+            this.discarded = discarded;
+        }
+    }
+
+    /**
+     * The dedicated thread of an isolated listener, running its calls in order
+     */
+    private static final class IsolatedExecutor {
+        // the interval between the checks of a closed executor, while waiting for room in its queue
+        private static final long OFFER_TIMEOUT = 100;
+
+        private final BlockingQueue<IsolatedCall> queue;
+        private final Thread thread;
+        private volatile boolean closed;
+
+        IsolatedExecutor(String name, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        void submit(IsolatedCall call) {
+            try {
+                while (!closed) {
+                    if (queue.offer(call, OFFER_TIMEOUT, MILLISECONDS)) {
+                        // closed meanwhile: discarded unless already taken out by close
+                        if (closed && queue.remove(call)) discard(call);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            discard(call);
+        }
+
+        private void run() {
+            while (!closed) {
+                try {
+                    queue.take().call.run();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    log.error("SEVERE error running isolated listener on {}: ", thread.getName(), e);
+                }
+            }
+        }
+
+        void close() {
+            this.closed = true;
+            thread.interrupt();
+            IsolatedCall pending;
+            while ((pending = queue.poll()) != null) {
+                discard(pending);
+            }
+        }
+
+        private void discard(IsolatedCall call) {
+            try {
+                call.discarded.run();
+            } catch (Exception e) {
+                log.error("SEVERE error discarding isolated listener call on {}: ", thread.getName(), e);
+            }
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package pcosta.kafka.internal;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.slf4j.Logger;
@@ -10,42 +16,85 @@ import pcosta.kafka.api.*;
 import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
 
 import static com.google.protobuf.ExtensionRegistry.getEmptyRegistry;
 import static java.lang.System.lineSeparator;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
 import static pcosta.kafka.internal.MessageReceiver.ProtoBufType.DEFAULT_PROTO_TYPE;
 
 /**
  * @author Pedro Costa
  * <p/>
  * Responsible for deSerializing and dispatching received protobuf messages form kafka broker
+ * <p/>
+ * Listeners and filters can be registered and unregistered at runtime: the topics registered once started are
+ * consumed by their own kafka receiver or merged into a running multiplexed one, and the topics left with no
+ * listeners are no longer consumed, without interrupting the consumption of the other topics.
  */
 class MessageReceiver {
 
     private static final Logger log = LoggerFactory.getLogger(MessageReceiver.class);
 
-    // the message listenersMap by topic
+    // the number of shared kafka consumers among all the multiplexed topics
+    static final String MULTIPLEXED_POLLERS = "api.receiver.multiplexed.pollers";
+    private static final int DEFAULT_MULTIPLEXED_POLLERS = 1;
+    // the time to wait for each stopping receiver before closing the retries producer, in milliseconds
+    private static final long STOP_TIMEOUT = 10000;
+    // the number of threads calling the listeners of each topic with parallel listeners
+    static final String PARALLEL_LISTENERS_THREADS = "api.receiver.listener.parallel.threads";
+
+    // the message listenersMap by topic, read by the receiver threads
     private final Map<String, MessageProcessor> processors;
 
     // the error listener
     private PlatformErrorListener errorListener;
+    // the failed messages retry handler, if enabled
+    private final RetryHandler retryHandler;
+    // whether the kafka receivers were started, so that the topics registered afterwards are started once registered
+    private boolean started;
+    // the number of multiplexed receivers created so far, naming the next one
+    private int multiplexedReceivers;
 
     MessageReceiver() {
-        this.processors = new HashMap<>();
+        this.processors = new ConcurrentHashMap<>();
+        this.retryHandler = RetryHandler.fromProperties();
     }
 
     /**
-     * Registers a message listener with the specified configuration
+     * Registers a message listener with the specified configuration.
+     * Once started, the offset and multiplexing settings of the already listened topics are not changed.
      *
      * @param config the listener configuration
      */
-    final <M extends Message> void registerListener(final MessageListenerConfiguration<M> config) {
+    final synchronized <M extends Message> void registerListener(final MessageListenerConfiguration<M> config) {
+        // a topic is consumed from a single cluster
+        final String cluster = config.getCluster() == null ? PropertiesReader.DEFAULT_CLUSTER : config.getCluster();
+        config.getTopics().stream()
+                .map(processors::get)
+                .filter(processor -> processor != null && !processor.cluster.equals(cluster))
+                .findAny()
+                .ifPresent(processor -> {
+                    throw new MessagingException("Topic: " + processor.topic + " is already consumed from cluster: " + processor.cluster);
+                });
 
         config.getTopics().forEach(topic -> {
             //create new processor for this topic and register the listenersMap for the defined messages
             if (!processors.containsKey(topic)) {
-                processors.putIfAbsent(topic, new MessageProcessor(
+                final MessageProcessor processor = new MessageProcessor(
                         topic,
                         config.getOffset(),
                         config.getPartition(),
@@ -53,19 +102,79 @@ class MessageReceiver {
                         config.getMessageFilters(),
                         config.getMessageListeners(),
                         config.getExtensionRegistry(),
-                        errorListener));
+                        errorListener,
+                        cluster);
+                processor.multiplexed = config.isMultiplexed();
+                processor.parallelListeners = config.isParallelListeners();
+                // the retry topics are produced to and consumed from the default cluster only
+                if (PropertiesReader.isDefaultCluster(cluster)) {
+                    processor.retryHandler = retryHandler;
+                } else if (retryHandler != null) {
+                    log.warn("The failed messages of topic: {} from cluster: {} are not retried", topic, cluster);
+                }
+                processor.registerFieldMatches(config.getMessageType(), config.getMessageListeners(), config.getFieldMatches());
+                if (config.getBackfillListener() != null) {
+                    processor.registerBackfillListener(config.getMessageType(), config.getBackfillListener());
+                }
+                processors.put(topic, processor);
+                if (started) startProcessor(processor);
             }
             // use the existing processor and register the listenersMap for the defined messages
             else {
                 final MessageProcessor processor = processors.get(topic);
-                processor.registerListeners(config.getMessageType(), config.getMessageListeners(), config.getExtensionRegistry());
-                // hack to bypass several listeners for the same topic w/ different offsets -> the largest wins
-                if (config.getOffset() > processor.initialOffset) processor.initialOffset = config.getOffset();
+                processor.registerFieldMatches(config.getMessageType(), config.getMessageListeners(), config.getFieldMatches());
+                processor.registerListeners(config.getMessageType(), config.getMessageListeners(), config.getMessageFilters(),
+                        config.getExtensionRegistry());
+                if (started) {
+                    if (config.getBackfillListener() != null) {
+                        log.warn("Ignoring the backfill listener for {} type of the already consumed topic: {}", config.getMessageType(), topic);
+                    }
+                } else {
+                    // hack to bypass several listeners for the same topic w/ different offsets -> the largest wins
+                    if (config.getOffset() > processor.initialOffset) processor.initialOffset = config.getOffset();
+                    // the topic is only multiplexed if all of its listeners agree on it
+                    processor.multiplexed &= config.isMultiplexed();
+                    // the listeners are only called concurrently if all of them are independent
+                    processor.parallelListeners &= config.isParallelListeners();
+                    if (config.getBackfillListener() != null) {
+                        processor.registerBackfillListener(config.getMessageType(), config.getBackfillListener());
+                    }
+                }
             }
             log.info("A listener for {} type was registered for topic: {}", config.getMessageType(), topic);
         });
     }
 
+    /**
+     * Unregisters the given listener from all of its topics. The topics left with no listeners are removed, and
+     * their kafka consumption stopped.
+     *
+     * @param listener the message listener
+     */
+    final synchronized void unregisterListener(final MessageListener<?> listener) {
+        for (MessageProcessor processor : new ArrayList<>(processors.values())) {
+            if (!processor.unregisterListener(listener) || processor.hasListeners()) continue;
+
+            processors.remove(processor.topic);
+            log.info("Topic: {} has no more listeners, stopping its consumption", processor.topic);
+            if (started && processor.multiplexed) {
+                // the shared kafka receiver releases the processor once its topic is unassigned
+                processor.kafkaReceiver.removeDelegate(processor);
+            } else {
+                processor.stopReceiver();
+            }
+        }
+    }
+
+    /**
+     * Unregisters the given filter from all of the listened topics
+     *
+     * @param filter the message filter
+     */
+    final synchronized void unregisterFilter(final MessageFilter filter) {
+        processors.values().forEach(processor -> processor.unregisterFilter(filter));
+    }
+
     /**
      * Registers a {@link PlatformErrorListener} that will handle the processing errors
      *
@@ -78,43 +187,166 @@ class MessageReceiver {
     /**
      * Start the message processors and its kafka receivers
      */
-    final void start() {
+    final synchronized void start() {
         log.info("Starting the kafka message receivers");
-        processors.forEach((topic, messageProcessor) -> messageProcessor.startReceiver());
+        this.started = true;
+        processors.values().forEach(MessageProcessor::createListenersExecutor);
+        processors.values().stream()
+                .filter(messageProcessor -> !messageProcessor.multiplexed)
+                .forEach(MessageProcessor::startReceiver);
+        startMultiplexedReceivers();
+    }
+
+    /**
+     * Starts the consumption of a topic registered once started: by its own kafka receiver, or by a new multiplexed
+     * one if there are less than the configured pollers, or else merged into the least loaded running one
+     *
+     * @param processor the topic processor
+     */
+    private void startProcessor(final MessageProcessor processor) {
+        processor.createListenersExecutor();
+        if (!processor.multiplexed) {
+            processor.startReceiver();
+            return;
+        }
+
+        final Map<KafkaReceiver<String, byte[]>, Long> load = processors.values().stream()
+                .filter(other -> other.multiplexed && other != processor && other.cluster.equals(processor.cluster))
+                .collect(groupingBy(other -> other.kafkaReceiver, counting()));
+        if (load.size() < multiplexedPollers()) {
+            startMultiplexedReceiver(singletonMap(processor.topic, processor));
+            return;
+        }
+        final KafkaReceiver<String, byte[]> receiver = Collections.min(load.entrySet(), Map.Entry.comparingByValue()).getKey();
+        processor.attachReceiver(receiver);
+        receiver.addDelegate(processor);
+    }
+
+    /**
+     * Distributes the multiplexed topics of each cluster among a fixed number of shared kafka receivers and starts them
+     */
+    private void startMultiplexedReceivers() {
+        final int pollers = multiplexedPollers();
+        final Map<String, List<MessageProcessor>> clusters = processors.values().stream()
+                .filter(processor -> processor.multiplexed)
+                .collect(groupingBy(processor -> processor.cluster));
+
+        for (List<MessageProcessor> multiplexed : clusters.values()) {
+            final List<Map<String, MessageProcessor>> groups = new ArrayList<>(pollers);
+            for (int i = 0; i < pollers; i++) {
+                groups.add(new HashMap<>());
+            }
+
+            // round-robin the multiplexed topics over the pollers
+            for (int next = 0; next < multiplexed.size(); next++) {
+                final MessageProcessor processor = multiplexed.get(next);
+                groups.get(next % pollers).put(processor.topic, processor);
+            }
+
+            groups.stream().filter(group -> !group.isEmpty()).forEach(this::startMultiplexedReceiver);
+        }
+    }
+
+    /**
+     * Starts a new multiplexed kafka receiver for the given topics, of the same cluster
+     *
+     * @param group the message processors by topic
+     */
+    private void startMultiplexedReceiver(final Map<String, MessageProcessor> group) {
+        final int id = multiplexedReceivers++;
+        final String cluster = group.values().iterator().next().cluster;
+        final String name = PropertiesReader.isDefaultCluster(cluster) ? "multiplexed-" + id : "multiplexed-" + cluster + "-" + id;
+        log.info("Starting multiplexed kafka receiver {} for topics: {}", name, group.keySet());
+        final KafkaReceiver<String, byte[]> receiver =
+                new KafkaReceiver<>(name, group, new StringDeserializer(), new ByteArrayDeserializer());
+        group.values().forEach(processor -> processor.attachReceiver(receiver));
+        receiver.start();
+    }
+
+    private static int multiplexedPollers() {
+        return Math.max(1, PropertiesReader.getInstance().getIntProperty(MULTIPLEXED_POLLERS, DEFAULT_MULTIPLEXED_POLLERS));
+    }
+
+    /**
+     * Requests the kafka receiver of the given topic to reposition its partition
+     *
+     * @param topicPartition the topic partition
+     * @param resolver       resolves the new offset, with the topic kafka consumer
+     * @throws MessagingException if there are no listeners for the given topic partition
+     */
+    final void seek(final TopicPartition topicPartition, final ToLongFunction<Consumer<?, ?>> resolver) {
+        final MessageProcessor processor = processors.get(topicPartition.topic());
+        if (processor == null) {
+            throw new MessagingException("No listeners registered for topic: " + topicPartition.topic());
+        }
+        processor.kafkaReceiver.seek(topicPartition, resolver);
     }
 
     /**
      * Stop the message processors and its kafka receivers
      */
-    final void close() {
+    final synchronized void close() {
         log.info("Stopping all kafka listeners..");
         processors.forEach((topic, messageProcessor) -> messageProcessor.stopReceiver());
+        if (retryHandler != null) {
+            // the stopping receivers may still forward the failed and discarded isolated calls
+            processors.values().forEach(processor -> processor.kafkaReceiver.awaitStopped(STOP_TIMEOUT));
+            retryHandler.close();
+        }
     }
 
     /**
      * The message processor for proto messages incoming from a given {@code Topic}
+     * <p>
+     * Its registries are copied on write: each registration publishes new maps, so that the receiver threads read
+     * them without locking while the listeners are registered or unregistered at runtime.
      */
     @SuppressWarnings("unchecked")
     static class MessageProcessor {
+        // the KafkaMessage traceability id field number
+        private static final int TRACEABILITY_ID_FIELD = KafkaMessage.TRACEABILITY_ID_FIELD_NUMBER;
+
         // the supported proto message types
-        private final Map<String, ProtoBufType> supportedTypes;
+        private volatile Map<String, ProtoBufType> supportedTypes;
         // the proto message listenersMap
-        private final Map<Class<?>, Collection<MessageListener>> listenersMap;
+        private volatile Map<Class<?>, Collection<MessageListener>> listenersMap;
         // the byte[] to protobuf message deserializer
         private final ProtobufDeserializer protoDeserializer;
         // the message filters
-        private final Map<String, Collection<MessageFilter>> filtersMap;
+        private volatile Map<String, Collection<MessageFilter>> filtersMap;
+        // the content based predicates by listener
+        private volatile Map<MessageListener, Collection<FieldPredicate>> predicatesMap;
 
         // the incoming messages topic info
-        private final String topic;
+        final String topic;
+        final String cluster;
         final int partition;
         long initialOffset;
+        // whether this topic is consumed by a shared kafka receiver
+        boolean multiplexed;
+        // whether the listeners of each message are called concurrently, and the executor calling them
+        boolean parallelListeners;
+        private ExecutorService listenersExecutor;
+        // the recently received traceability ids, if deduplication is enabled
+        DedupeCache dedupeCache;
+        // the failed messages retry handler, if enabled
+        RetryHandler retryHandler;
+        // the in-memory redeliveries which are due, to be run by the receiver thread
+        private final Queue<Redelivery> dueRetries = new ConcurrentLinkedQueue<>();
+        // the backfill listeners, by message type
+        private volatile Map<Class<?>, BatchMessageListener> backfillListeners = emptyMap();
+        // the offset at which the live consumption is handed off from the backfill, if any
+        long handoffOffset = -1;
+        // whether the receiver was requested to stop
+        volatile boolean stopped;
 
         // the kafka receiver
-        private final KafkaReceiver<String, byte[]> kafkaReceiver;
+        KafkaReceiver<String, byte[]> kafkaReceiver;
 
-        // the error listener
-        private PlatformErrorListener errorListener;
+        // the error listener, collapsing the identical errors
+        private final ErrorAggregator errorAggregator;
+        // the listeners execution time watchdog, if enabled
+        final ListenerWatchdog watchdog;
 
         MessageProcessor(String topic,
                          long offset, int partition,
@@ -123,51 +355,96 @@ class MessageReceiver {
                          Collection<MessageListener> listeners,
                          ExtensionRegistry registry,
                          PlatformErrorListener errorListener) {
+            this(topic, offset, partition, messageType, filters, listeners, registry, errorListener, PropertiesReader.DEFAULT_CLUSTER);
+        }
+
+        MessageProcessor(String topic,
+                         long offset, int partition,
+                         Class<?> messageType,
+                         Collection<MessageFilter> filters,
+                         Collection<MessageListener> listeners,
+                         ExtensionRegistry registry,
+                         PlatformErrorListener errorListener,
+                         String cluster) {
 
             this.topic = topic;
+            this.cluster = cluster;
             this.initialOffset = offset;
             this.partition = partition;
-            this.errorListener = errorListener;
-            this.listenersMap = new HashMap<>();
-            this.supportedTypes = new HashMap<>();
-            this.filtersMap = new HashMap<>();
+            this.errorAggregator = ErrorAggregator.fromProperties(topic, errorListener);
+            this.watchdog = ListenerWatchdog.fromProperties(topic, this::processError);
+            this.listenersMap = singletonMap(messageType, new ArrayList<>(listeners));
+            this.supportedTypes = singletonMap(messageType.getName(), new ProtoBufType(messageType, registry));
+            this.filtersMap = singletonMap(messageType.getName(), new ArrayList<>(filters));
+            this.predicatesMap = emptyMap();
             this.protoDeserializer = new ProtobufDeserializer();
-
-            filtersMap.put(messageType.getName(), filters);
-            supportedTypes.put(messageType.getName(), new ProtoBufType(messageType, registry));
-            listenersMap.put(messageType, listeners);
+            this.dedupeCache = DedupeCache.fromProperties();
 
             //create the concrete kafka receiver for String key types and byte[] message values
             this.kafkaReceiver = new KafkaReceiver(this.topic, new StringDeserializer(), new ByteArrayDeserializer(), this);
         }
 
         /**
-         * Processes the received {@link Message}, deserialize its payload into proto and deliver it to the registered listeners
+         * Processes the received {@link Message}, deserialize its payload into proto and deliver it to the registered listeners.
+         * The messages of an aggregated record are processed one by one, in order.
          *
          * @param KafkaMessageBytes the received {@link Message} in bytes
          * @param srcTopic          the kafka topic from which the message was received
          * @param key               the received kafka message key
          */
         void process(byte[] KafkaMessageBytes, String srcTopic, MessageKey key, long offset) {
+            final KafkaMessage kafkaMsg;
             try {
+                // drop redelivered messages before any parsing
+                if (isDuplicate(KafkaMessageBytes, srcTopic, offset)) return;
+
                 // parse the received KafkaMessage bytes into a protobuf type
+                kafkaMsg = KafkaMessage.parseFrom(KafkaMessageBytes);
+            } catch (Exception e) {
+                unprocessable(e, key, KafkaMessageBytes, offset);
+                return;
+            }
+
+            if (kafkaMsg.getAggregatedCount() == 0) {
+                process(kafkaMsg, KafkaMessageBytes, srcTopic, key, offset);
+                return;
+            }
+            for (KafkaMessage aggregated : kafkaMsg.getAggregatedList()) {
+                if (isDuplicate(aggregated.getTraceabilityIdBytes(), srcTopic, offset)) continue;
+                process(aggregated, null, srcTopic, key, offset);
+            }
+        }
+
+        /**
+         * Processes a single received {@link KafkaMessage}
+         *
+         * @param kafkaMsg          the received message
+         * @param KafkaMessageBytes the received message bytes, or {@code null} if it was aggregated
+         * @param srcTopic          the kafka topic from which the message was received
+         * @param key               the received kafka message key
+         * @param offset            the received record offset
+         */
+        private void process(KafkaMessage kafkaMsg, byte[] KafkaMessageBytes, String srcTopic, MessageKey key, long offset) {
+            try {
                 final Message payload;
-                final KafkaMessage kafkaMsg = KafkaMessage.parseFrom(KafkaMessageBytes);
 
                 // check if there's a listener registered for all incoming messages from this Topic
                 final ProtoBufType defaultType = supportedTypes.get(KafkaMessage.class.getName()) == null ? null : DEFAULT_PROTO_TYPE;
                 final ProtoBufType protoType = supportedTypes.getOrDefault(kafkaMsg.getPayloadClass(), defaultType);
 
                 if (Objects.isNull(protoType)) {
-                    final String error = String.format("Received unsupported payload. Source: %s , Type: %s", srcTopic, kafkaMsg);
-                    log.warn(error);
-                    errorListener.onError(new PlatformErrorImpl(error, new MessagingException(error)));
+                    final String error = "Received unsupported payload. Source: " + srcTopic + " , Type: " + kafkaMsg.getPayloadClass();
+                    if (errorAggregator.report(new PlatformErrorImpl(error, new StacklessMessagingException(error)))) log.warn(error);
                     return;
                 }
 
                 //check if the message is to be discarded due to a pre-configured filter
                 if (isFiltered(srcTopic, protoType.messageType)) return;
 
+                // check the content based predicates from the wire, the payload is only parsed if someone's listening
+                final Collection<MessageListener> listeners = matchingListeners(protoType, kafkaMsg);
+                if (listeners.isEmpty()) return;
+
                 // if there's a listener registered for KafkaMessages, let us deliver it without further parsing
                 if (protoType == DEFAULT_PROTO_TYPE) {
                     payload = kafkaMsg;
@@ -181,17 +458,368 @@ class MessageReceiver {
                     );
                 }
 
-                //deliver the message to its registered listenersMap
-                listenersMap.get(protoType.messageType).forEach(listener -> {
-                    log.debug("delivering message to {}", listener.getClass().getSimpleName());
-                    listener.onMessage(new KafkaMetadata(srcTopic, key, offset, kafkaMsg.getTraceabilityId()), payload);
-                });
+                //deliver the message to its registered listenersMap, retrying the failed ones
+                final KafkaMetadata metadata = new KafkaMetadata(srcTopic, key, offset, kafkaMsg.getTraceabilityId());
+                final Map<MessageListener, Exception> failures = deliver(listeners, metadata, payload,
+                        isolatedFailures(kafkaMsg, KafkaMessageBytes, metadata, 0));
+                if (!failures.isEmpty() && retryHandler != null) {
+                    retry(KafkaMessageBytes != null ? KafkaMessageBytes : kafkaMsg.toByteArray(), metadata, payload, failures, 1);
+                }
+            } catch (Exception e) {
+                unprocessable(e, key, KafkaMessageBytes != null ? KafkaMessageBytes : kafkaMsg.toByteArray(), offset);
+            }
+        }
+
+        /**
+         * Reports a message which couldn't be processed, and sends it to the dead-letter topic if the retries are enabled:
+         * unprocessable messages are not retried
+         */
+        private void unprocessable(Exception e, MessageKey key, byte[] kafkaMessageBytes, long offset) {
+            reportError(e, "Error processing message: ");
+            if (retryHandler != null) {
+                retryHandler.deadLetter(topic, key, kafkaMessageBytes, offset, e);
+            }
+        }
+
+        /**
+         * Processes a message received from one of this processor's retry topics, delivering it to the listeners
+         * which previously failed to handle it
+         *
+         * @param kafkaMessageBytes the received {@link KafkaMessage} bytes
+         * @param key               the received kafka message key
+         * @param headers           the retried record headers
+         */
+        void processRetry(byte[] kafkaMessageBytes, MessageKey key, Headers headers) {
+            final String tierHeader = RetryHandler.headerValue(headers, RetryHandler.TIER_HEADER);
+            final String offsetHeader = RetryHandler.headerValue(headers, RetryHandler.SOURCE_OFFSET_HEADER);
+            final String listenersHeader = RetryHandler.headerValue(headers, RetryHandler.LISTENERS_HEADER);
+            final int tier = tierHeader == null ? 0 : Integer.parseInt(tierHeader);
+            final long offset = offsetHeader == null ? -1 : Long.parseLong(offsetHeader);
+
+            try {
+                final KafkaMessage kafkaMsg = KafkaMessage.parseFrom(kafkaMessageBytes);
+                final ProtoBufType defaultType = supportedTypes.get(KafkaMessage.class.getName()) == null ? null : DEFAULT_PROTO_TYPE;
+                final ProtoBufType protoType = supportedTypes.getOrDefault(kafkaMsg.getPayloadClass(), defaultType);
+                if (Objects.isNull(protoType)) {
+                    log.warn("Dropping retried message of unsupported type: {}", kafkaMsg.getPayloadClass());
+                    return;
+                }
+
+                // only the listeners which failed are retried
+                final Set<String> failed = listenersHeader == null ? null : new HashSet<>(Arrays.asList(listenersHeader.split(",")));
+                final Collection<MessageListener> listeners = new ArrayList<>();
+                for (MessageListener listener : listenersMap.getOrDefault(protoType.messageType, emptyList())) {
+                    if (failed == null || failed.contains(listener.getClass().getName())) listeners.add(listener);
+                }
+                // e.g. the failed listeners were unregistered or renamed since
+                if (listeners.isEmpty()) {
+                    final String error = "No listener of " + topic + " matches the failed listeners of the retried message: " + listenersHeader;
+                    unprocessable(new StacklessMessagingException(error), key, kafkaMessageBytes, offset);
+                    return;
+                }
+
+                final Message payload = protoType == DEFAULT_PROTO_TYPE
+                        ? kafkaMsg
+                        : protoDeserializer.parseFromV3(kafkaMsg, protoType.extensionRegistry);
+                final KafkaMetadata metadata = new KafkaMetadata(topic, key, offset, kafkaMsg.getTraceabilityId());
+                final Map<MessageListener, Exception> failures = deliver(listeners, metadata, payload,
+                        isolatedFailures(kafkaMsg, kafkaMessageBytes, metadata, tier + 1));
+                if (!failures.isEmpty()) retryHandler.forward(topic, key, kafkaMessageBytes, offset, tier + 1, failures);
+            } catch (Exception e) {
+                reportError(e, "Error processing retried message: ");
+                retryHandler.deadLetter(topic, key, kafkaMessageBytes, offset, e);
+            }
+        }
+
+        /**
+         * Processes a batch of backfilled records, delivering them to the backfill listeners of their types in offset
+         * order. Called concurrently by the backfill consumers, each one of them with its own chunk of offsets.
+         * Backfilled messages are neither deduplicated nor retried.
+         *
+         * @param records the backfilled records, in offset order
+         */
+        void processBatch(List<ConsumerRecord<String, byte[]>> records) {
+            final Map<BatchMessageListener, List<MessageMetadata>> metadata = new LinkedHashMap<>();
+            final Map<BatchMessageListener, List<Message>> messages = new HashMap<>();
+
+            for (ConsumerRecord<String, byte[]> record : records) {
+                try {
+                    final KafkaMessage received = KafkaMessage.parseFrom(record.value());
+                    for (KafkaMessage kafkaMsg : received.getAggregatedCount() == 0 ? singletonList(received) : received.getAggregatedList()) {
+                        collectBackfilled(record, kafkaMsg, metadata, messages);
+                    }
+                } catch (Exception e) {
+                    reportError(e, "Error processing backfilled message: ");
+                }
+            }
+
+            metadata.forEach((listener, batchMetadata) -> {
+                try {
+                    listener.onMessages(batchMetadata, messages.get(listener));
+                } catch (Exception e) {
+                    reportError(e, "Error delivering backfilled messages to " + listener.getClass().getSimpleName() + ": ");
+                }
+            });
+        }
+
+        /**
+         * Adds a backfilled message to the batch of the backfill listener of its type, if any
+         */
+        private void collectBackfilled(ConsumerRecord<String, byte[]> record, KafkaMessage kafkaMsg,
+                                       Map<BatchMessageListener, List<MessageMetadata>> metadata,
+                                       Map<BatchMessageListener, List<Message>> messages) {
+            final ProtoBufType defaultType = supportedTypes.get(KafkaMessage.class.getName()) == null ? null : DEFAULT_PROTO_TYPE;
+            final ProtoBufType protoType = supportedTypes.getOrDefault(kafkaMsg.getPayloadClass(), defaultType);
+            if (Objects.isNull(protoType) || isFiltered(record.topic(), protoType.messageType)) return;
+
+            final BatchMessageListener listener = backfillListeners.get(protoType.messageType);
+            if (listener == null) return;
+
+            final Message payload = protoType == DEFAULT_PROTO_TYPE
+                    ? kafkaMsg
+                    : protoDeserializer.parseFromV3(kafkaMsg, protoType.extensionRegistry);
+            metadata.computeIfAbsent(listener, l -> new ArrayList<>())
+                    .add(new KafkaMetadata(record.topic(), new StringMessageKey(record.key()), record.offset(), kafkaMsg.getTraceabilityId()));
+            messages.computeIfAbsent(listener, l -> new ArrayList<>()).add(payload);
+        }
+
+        /**
+         * Delivers the message to each one of the given listeners, reporting their errors
+         *
+         * @param listeners        the message listeners
+         * @param metadata         the message metadata
+         * @param payload          the message payload
+         * @param isolatedFailures handles the failed or discarded calls of the isolated listeners, if any
+         * @return the errors by failed listener, but the isolated ones
+         */
+        private Map<MessageListener, Exception> deliver(Collection<MessageListener> listeners, KafkaMetadata metadata, Message payload,
+                                                        BiConsumer<MessageListener, Exception> isolatedFailures) {
+            if (listenersExecutor != null && listeners.size() > 1) {
+                return deliverConcurrently(listeners, metadata, payload, isolatedFailures);
+            }
+
+            Map<MessageListener, Exception> failures = emptyMap();
+            for (MessageListener listener : listeners) {
+                if (deliverIsolated(listener, metadata, payload, isolatedFailures)) continue;
+                final Exception e = deliver(listener, metadata, payload);
+                if (e != null) {
+                    if (failures.isEmpty()) failures = new LinkedHashMap<>();
+                    failures.put(listener, e);
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * Delivers the message to the given listeners concurrently: the first one is called by the current thread while
+         * the others are handed to the listeners executor, along with the current transaction, if any. Returns once all
+         * of them were called, so that the offset of the message is only committed afterwards.
+         *
+         * @param listeners        the message listeners
+         * @param metadata         the message metadata
+         * @param payload          the message payload
+         * @param isolatedFailures handles the failed or discarded calls of the isolated listeners, if any
+         * @return the errors by failed listener, but the isolated ones
+         */
+        private Map<MessageListener, Exception> deliverConcurrently(Collection<MessageListener> listeners, KafkaMetadata metadata,
+                                                                    Message payload, BiConsumer<MessageListener, Exception> isolatedFailures) {
+            final KafkaTransaction transaction = KafkaTransaction.current();
+            final Map<MessageListener, Future<Exception>> calls = new LinkedHashMap<>();
+            MessageListener first = null;
+            for (MessageListener listener : listeners) {
+                if (deliverIsolated(listener, metadata, payload, isolatedFailures)) {
+                    continue;
+                }
+                if (first == null) {
+                    first = listener;
+                } else {
+                    calls.put(listener, listenersExecutor.submit(() -> {
+                        KafkaTransaction.bind(transaction);
+                        try {
+                            return deliver(listener, metadata, payload);
+                        } finally {
+                            KafkaTransaction.bind(null);
+                        }
+                    }));
+                }
+            }
+
+            final Map<MessageListener, Exception> failures = new LinkedHashMap<>();
+            final Exception firstError = first == null ? null : deliver(first, metadata, payload);
+            if (firstError != null) failures.put(first, firstError);
+            for (Map.Entry<MessageListener, Future<Exception>> call : calls.entrySet()) {
+                try {
+                    final Exception e = call.getValue().get();
+                    if (e != null) failures.put(call.getKey(), e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.put(call.getKey(), e);
+                } catch (ExecutionException e) {
+                    reportError(e, "Error delivering message to " + call.getKey().getClass().getSimpleName() + ": ");
+                    failures.put(call.getKey(), e);
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * Hands the message to the thread of the given listener, if isolated. The offset of the message may be committed
+         * before the isolated call is run, so its failure, or its discarding once the listener is no longer isolated,
+         * is handed to the given handler instead of being returned.
+         *
+         * @param listener         the message listener
+         * @param metadata         the message metadata
+         * @param payload          the message payload
+         * @param isolatedFailures handles the failed or discarded call, if any
+         * @return {@code true} if the listener is isolated, {@code false} if it's to be called by the current thread
+         */
+        private boolean deliverIsolated(MessageListener listener, KafkaMetadata metadata, Message payload,
+                                        BiConsumer<MessageListener, Exception> isolatedFailures) {
+            if (watchdog == null) return false;
+            return watchdog.submitIfIsolated(listener, () -> {
+                final Exception e = deliver(listener, metadata, payload);
+                if (e != null && isolatedFailures != null) isolatedFailures.accept(listener, e);
+            }, () -> {
+                final Exception e = new StacklessMessagingException("Discarded the pending call of the isolated listener "
+                        + listener.getClass().getSimpleName() + " on topic: " + topic);
+                reportError(e, "Error delivering message: ");
+                if (isolatedFailures != null) isolatedFailures.accept(listener, e);
+            });
+        }
+
+        /**
+         * @param kafkaMsg          the delivered message, to be encoded if its bytes aren't given
+         * @param kafkaMessageBytes the delivered message bytes, if any
+         * @param metadata          the message metadata
+         * @param tier              the retry tier of the failed isolated calls
+         * @return forwards the failed isolated calls to the given retry tier, or {@code null} if the retries are disabled
+         */
+        private BiConsumer<MessageListener, Exception> isolatedFailures(KafkaMessage kafkaMsg, byte[] kafkaMessageBytes,
+                                                                        KafkaMetadata metadata, int tier) {
+            if (retryHandler == null) return null;
+            return (listener, e) -> retryHandler.forward(topic, metadata.getKey(),
+                    kafkaMessageBytes != null ? kafkaMessageBytes : kafkaMsg.toByteArray(), metadata.getOffset(), tier,
+                    singletonMap(listener, e));
+        }
+
+        /**
+         * Delivers the message to the given listener, tracking its execution time and reporting its error
+         *
+         * @param listener the message listener
+         * @param metadata the message metadata
+         * @param payload  the message payload
+         * @return the listener error, or {@code null} if delivered
+         */
+        private Exception deliver(MessageListener listener, KafkaMetadata metadata, Message payload) {
+            final ListenerWatchdog.Call call = watchdog == null ? null : watchdog.started(listener);
+            try {
+                log.debug("delivering message to {}", listener.getClass().getSimpleName());
+                listener.onMessage(metadata, payload);
+                return null;
             } catch (Exception e) {
-                errorListener.onError(new PlatformErrorImpl(e.getClass().getName(), e.getCause()));
-                log.error("Error processing message: ", e);
+                reportError(e, "Error delivering message to " + listener.getClass().getSimpleName() + ": ");
+                return e;
+            } finally {
+                if (call != null) watchdog.completed(call);
+            }
+        }
+
+        /**
+         * Schedules an in-memory redelivery of the message to the failed listeners, or forwards it to the first
+         * retry topic if no more redeliveries are allowed
+         *
+         * @param kafkaMessageBytes the received {@link KafkaMessage} bytes
+         * @param metadata          the message metadata
+         * @param payload           the message payload
+         * @param failures          the errors by failed listener
+         * @param attempt           the redelivery attempt
+         */
+        private void retry(byte[] kafkaMessageBytes, KafkaMetadata metadata, Message payload,
+                           Map<MessageListener, Exception> failures, int attempt) {
+            final Runnable redelivery = () -> {
+                final Map<MessageListener, Exception> stillFailing = deliver(failures.keySet(), metadata, payload,
+                        isolatedFailures(null, kafkaMessageBytes, metadata, 0));
+                if (!stillFailing.isEmpty()) retry(kafkaMessageBytes, metadata, payload, stillFailing, attempt + 1);
+            };
+            final Runnable forward = () -> retryHandler.forward(topic, metadata.getKey(), kafkaMessageBytes, metadata.getOffset(), 0, failures);
+            final Redelivery due = new Redelivery(metadata.getKey().getKey(), redelivery, forward);
+            if (!retryHandler.schedule(attempt, () -> handOver(due), forward)) {
+                forward.run();
+            }
+        }
+
+        /**
+         * Hands a due redelivery over to the receiver thread, or forwards it to the first retry topic if no longer
+         * receiving
+         */
+        private void handOver(Redelivery due) {
+            dueRetries.add(due);
+            if (stopped) forwardDueRetries();
+        }
+
+        /**
+         * Forwards the in-memory redeliveries which are due, but not yet run, to the first retry topic
+         */
+        private void forwardDueRetries() {
+            Redelivery redelivery;
+            while ((redelivery = dueRetries.poll()) != null) {
+                redelivery.forward.run();
             }
         }
 
+        /**
+         * Runs the in-memory redeliveries which are due. Called by the receiver thread between polls, so that the
+         * listeners are only called concurrently for unrelated keys.
+         *
+         * @param executor runs each redelivery by its record key: on the receiver thread, or on the stripe of its key
+         *                 if the records are dispatched by key
+         */
+        void runDueRetries(BiConsumer<String, Runnable> executor) {
+            Redelivery redelivery;
+            while ((redelivery = dueRetries.poll()) != null) {
+                executor.accept(redelivery.key, redelivery.task);
+            }
+        }
+
+        /**
+         * @return the retry topics of this processor's topic, empty if the retries are disabled
+         */
+        List<String> retryTopics() {
+            return retryHandler == null ? emptyList() : retryHandler.retryTopics(topic);
+        }
+
+        /**
+         * Checks if the given message was recently received, by its traceability id read from the wire.
+         * Messages with no traceability id are never considered duplicates.
+         *
+         * @param kafkaMessageBytes the received {@link KafkaMessage} bytes
+         * @param srcTopic          the kafka topic from which the message was received
+         * @param offset            the message offset
+         * @return {@code true} if deduplication is enabled and the message is a duplicate, {@code false} otherwise
+         * @throws InvalidProtocolBufferException if the message is malformed
+         */
+        private boolean isDuplicate(byte[] kafkaMessageBytes, String srcTopic, long offset) throws InvalidProtocolBufferException {
+            if (dedupeCache == null) return false;
+
+            final ByteString traceabilityId = (ByteString) ProtobufFieldExtractor.extractRaw(kafkaMessageBytes, TRACEABILITY_ID_FIELD);
+            return traceabilityId != null && isDuplicate(traceabilityId, srcTopic, offset);
+        }
+
+        /**
+         * Checks if the message of the given traceability id was recently received, e.g. an aggregated message
+         *
+         * @param traceabilityId the message traceability id
+         * @param srcTopic       the kafka topic from which the message was received
+         * @param offset         the message offset
+         * @return {@code true} if deduplication is enabled and the message is a duplicate, {@code false} otherwise
+         */
+        private boolean isDuplicate(ByteString traceabilityId, String srcTopic, long offset) {
+            if (dedupeCache == null || traceabilityId.isEmpty() || !dedupeCache.isDuplicate(traceabilityId)) return false;
+
+            log.debug("dropping duplicated message {} from {} at offset {}", traceabilityId.toStringUtf8(), srcTopic, offset);
+            return true;
+        }
+
         /**
          * Checks if the previously received message is indeed filtered (if any filters exists) and can be delivered.
          *
@@ -210,18 +838,162 @@ class MessageReceiver {
         }
 
         /**
-         * Registers the given listenersMap for proto messages incoming from this processor's topic
+         * Returns the listeners of the given type whose content based predicates match the given message.
+         * The predicates are evaluated on the serialized payload, which is left unparsed.
+         *
+         * @param protoType the protobuf type of the message payload
+         * @param kafkaMsg  the received message
+         * @return the matching listeners
+         * @throws InvalidProtocolBufferException if the payload is malformed
+         */
+        private Collection<MessageListener> matchingListeners(final ProtoBufType protoType, final KafkaMessage kafkaMsg)
+                throws InvalidProtocolBufferException {
+            // the listeners of a type may have been unregistered
+            final Collection<MessageListener> listeners = listenersMap.getOrDefault(protoType.messageType, emptyList());
+            final Map<MessageListener, Collection<FieldPredicate>> predicatesMap = this.predicatesMap;
+            if (predicatesMap.isEmpty()) return listeners;
+
+            final Collection<MessageListener> matching = new ArrayList<>(listeners.size());
+            for (MessageListener listener : listeners) {
+                if (matches(predicatesMap.getOrDefault(listener, emptyList()), listener, protoType, kafkaMsg)) matching.add(listener);
+            }
+            return matching;
+        }
+
+        private boolean matches(final Collection<FieldPredicate> predicates, final MessageListener listener,
+                                final ProtoBufType protoType, final KafkaMessage kafkaMsg) throws InvalidProtocolBufferException {
+            for (FieldPredicate predicate : predicates) {
+                // listeners of KafkaMessages match the already parsed envelope
+                final boolean matched = protoType == DEFAULT_PROTO_TYPE
+                        ? predicate.test(kafkaMsg)
+                        : predicate.test(kafkaMsg.getPayload().getValue());
+                if (!matched) {
+                    log.debug("message {} is not going to be delivered to {}: {} not matched",
+                            protoType.messageType.getSimpleName(), listener.getClass().getSimpleName(), predicate);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Compiles and registers the content based predicates of the given listeners
+         *
+         * @param messageType  the protobuf message type
+         * @param listeners    the message listeners
+         * @param fieldMatches the accepted values by field path
+         * @throws IllegalArgumentException if any of the fields or values is not valid for the message type
+         */
+        synchronized void registerFieldMatches(Class<?> messageType, Collection<MessageListener> listeners,
+                                               Map<String, Collection<String>> fieldMatches) {
+            final Collection<FieldPredicate> predicates = FieldPredicate.compile(messageType, fieldMatches);
+            if (predicates.isEmpty()) return;
+            final Map<MessageListener, Collection<FieldPredicate>> predicatesMap = new HashMap<>(this.predicatesMap);
+            listeners.forEach(listener -> predicatesMap.put(listener, predicates));
+            this.predicatesMap = predicatesMap;
+            log.info("Content based predicates {} registered for topic: {}", predicates, topic);
+        }
+
+        /**
+         * Registers the backfill listener of the given type. Backfilled topics are always consumed by a dedicated
+         * kafka receiver, started once the backfill is over.
+         *
+         * @param messageType      the protobuf message type
+         * @param backfillListener the backfill listener
+         */
+        synchronized void registerBackfillListener(Class<?> messageType, BatchMessageListener backfillListener) {
+            final Map<Class<?>, BatchMessageListener> backfillListeners = new HashMap<>(this.backfillListeners);
+            backfillListeners.put(messageType, backfillListener);
+            this.backfillListeners = backfillListeners;
+            multiplexed = false;
+            log.info("A backfill listener for {} type was registered for topic: {}", messageType, topic);
+        }
+
+        /**
+         * Registers the given listenersMap for proto messages incoming from this processor's topic.
+         * The listeners and filters are published before the type, so that its messages are never received without them.
          *
          * @param messageType the protobuf message type
          * @param listeners   the message listenersMap
+         * @param filters     the message filters
          * @param registry    the message type Extension Registry
          */
-        private void registerListeners(Class<?> messageType, Collection<MessageListener> listeners, ExtensionRegistry registry) {
-            this.listenersMap.computeIfAbsent(messageType, type -> new HashSet<>()).addAll(listeners);
-            supportedTypes.putIfAbsent(messageType.getName(), new ProtoBufType(messageType, registry));
+        private synchronized void registerListeners(Class<?> messageType, Collection<MessageListener> listeners,
+                                                    Collection<MessageFilter> filters, ExtensionRegistry registry) {
+            final Map<Class<?>, Collection<MessageListener>> listenersMap = new HashMap<>(this.listenersMap);
+            final Collection<MessageListener> typeListeners = new LinkedHashSet<>(listenersMap.getOrDefault(messageType, emptyList()));
+            typeListeners.addAll(listeners);
+            listenersMap.put(messageType, typeListeners);
+            this.listenersMap = listenersMap;
+
+            final Map<String, Collection<MessageFilter>> filtersMap = new HashMap<>(this.filtersMap);
+            final Collection<MessageFilter> typeFilters = new LinkedHashSet<>(filtersMap.getOrDefault(messageType.getName(), emptyList()));
+            typeFilters.addAll(filters);
+            filtersMap.put(messageType.getName(), typeFilters);
+            this.filtersMap = filtersMap;
+
+            if (!supportedTypes.containsKey(messageType.getName())) {
+                final Map<String, ProtoBufType> supportedTypes = new HashMap<>(this.supportedTypes);
+                supportedTypes.put(messageType.getName(), new ProtoBufType(messageType, registry));
+                this.supportedTypes = supportedTypes;
+            }
             log.info("A listener for {} type was registered for topic: {}", messageType, topic);
         }
 
+        /**
+         * Unregisters the given listener from all of the message types. The types left with no listeners remain
+         * supported, so that their messages are silently skipped.
+         *
+         * @param listener the message listener
+         * @return {@code true} if the listener was registered, {@code false} otherwise
+         */
+        synchronized boolean unregisterListener(MessageListener<?> listener) {
+            final Map<Class<?>, Collection<MessageListener>> listenersMap = new HashMap<>();
+            boolean removed = false;
+            for (Map.Entry<Class<?>, Collection<MessageListener>> entry : this.listenersMap.entrySet()) {
+                final Collection<MessageListener> typeListeners = new ArrayList<>(entry.getValue());
+                removed |= typeListeners.removeIf(listener::equals);
+                if (!typeListeners.isEmpty()) listenersMap.put(entry.getKey(), typeListeners);
+            }
+            if (!removed) return false;
+
+            this.listenersMap = listenersMap;
+            if (predicatesMap.containsKey(listener)) {
+                final Map<MessageListener, Collection<FieldPredicate>> predicatesMap = new HashMap<>(this.predicatesMap);
+                predicatesMap.remove(listener);
+                this.predicatesMap = predicatesMap;
+            }
+            if (watchdog != null) watchdog.forget(listener);
+            log.info("The listener {} was unregistered from topic: {}", listener.getClass().getSimpleName(), topic);
+            return true;
+        }
+
+        /**
+         * Unregisters the given filter from all of the message types
+         *
+         * @param filter the message filter
+         */
+        synchronized void unregisterFilter(MessageFilter filter) {
+            final Map<String, Collection<MessageFilter>> filtersMap = new HashMap<>();
+            boolean removed = false;
+            for (Map.Entry<String, Collection<MessageFilter>> entry : this.filtersMap.entrySet()) {
+                final Collection<MessageFilter> typeFilters = new ArrayList<>(entry.getValue());
+                removed |= typeFilters.removeIf(filter::equals);
+                filtersMap.put(entry.getKey(), typeFilters);
+            }
+            if (!removed) return;
+
+            this.filtersMap = filtersMap;
+            log.info("The filter {} was unregistered from topic: {}", filter.getClass().getSimpleName(), topic);
+        }
+
+        /**
+         * @return {@code true} if there are listeners registered for this processor's topic, {@code false} otherwise
+         */
+        boolean hasListeners() {
+            return !listenersMap.isEmpty() || !backfillListeners.isEmpty();
+        }
+
         /**
          * Delivers the specified error to the platform listener.
          *
@@ -229,21 +1001,120 @@ class MessageReceiver {
          */
         void processError(final PlatformError error) {
             log.debug("delivering error to handler..");
-            errorListener.onError(error);
+            errorAggregator.report(error);
+        }
+
+        /**
+         * Delivers the error raised while processing a message to the platform listener, and logs it,
+         * unless an identical error was recently reported
+         *
+         * @param e          the raised error
+         * @param logMessage the log message
+         */
+        void reportError(final Exception e, final String logMessage) {
+            if (errorAggregator.report(new PlatformErrorImpl(e.getClass().getName(), e.getCause()))) {
+                log.error(logMessage, e);
+            }
         }
 
         /**
-         * Start the kafka message receiver
+         * Attaches this processor to a shared (multiplexed) kafka receiver, replacing its dedicated one
+         *
+         * @param receiver the shared kafka receiver
+         */
+        void attachReceiver(KafkaReceiver<String, byte[]> receiver) {
+            this.kafkaReceiver = receiver;
+        }
+
+        /**
+         * Creates the executor calling the listeners concurrently, if enabled, sized as defined at the configuration file
+         */
+        void createListenersExecutor() {
+            if (!parallelListeners || listenersExecutor != null) return;
+            final int threads = PropertiesReader.getInstance().getIntProperty(PARALLEL_LISTENERS_THREADS,
+                    Runtime.getRuntime().availableProcessors());
+            final AtomicInteger ids = new AtomicInteger();
+            this.listenersExecutor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+                final Thread thread = new Thread(runnable, topic + "KafkaListener-" + ids.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            log.info("The listeners of topic: {} are called concurrently by {} threads", topic, threads);
+        }
+
+        /**
+         * Start the kafka message receiver, once the topic is backfilled if there are backfill listeners
          */
         void startReceiver() {
-            this.kafkaReceiver.start();
+            if (backfillListeners.isEmpty()) {
+                this.kafkaReceiver.start();
+                return;
+            }
+            final Thread backfill = new Thread(this::backfill, topic + "KafkaBackfill");
+            backfill.setDaemon(true);
+            backfill.start();
+        }
+
+        /**
+         * Backfills the receiver partition and hands off the live consumption at the backfill end offset, unless the
+         * consumer group already committed an offset of the partition: the live consumption then resumes as usual.
+         * If the backfill fails, the live consumption starts at the configured initial offset.
+         */
+        private void backfill() {
+            // the kafka receivers consume the partition 0 of their topics
+            final TopicPartition topicPartition = new TopicPartition(topic, 0);
+            try {
+                if (kafkaReceiver.committed(topicPartition) == null) {
+                    this.handoffOffset = BackfillReader.fromProperties(this).read(topicPartition);
+                } else {
+                    log.info("Skipping the backfill of the already consumed topic: {}", topic);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                reportError(e, "Error backfilling topic " + topic + ": ");
+            }
+            if (!stopped) this.kafkaReceiver.start();
         }
 
         /**
-         * Stop the kafka message receiver
+         * Stop the kafka message receiver. The processor is {@link #release() released} by the receiver thread, once
+         * its current batch is processed.
          */
         void stopReceiver() {
+            this.stopped = true;
+            if (dedupeCache != null) {
+                log.info("Dropped {} duplicated messages from topic: {}, {} unique. Hit rate: {}",
+                        dedupeCache.hits(), topic, dedupeCache.misses(), String.format("%.4f", dedupeCache.hitRate()));
+            }
             this.kafkaReceiver.stop();
+            forwardDueRetries();
+        }
+
+        /**
+         * Stops the listeners watchdog and executor, and flushes the aggregated errors, once no longer receiving.
+         * Called by the receiver thread, or by the stopping thread if the receiver was never started.
+         */
+        void release() {
+            if (watchdog != null) watchdog.close();
+            if (listenersExecutor != null) listenersExecutor.shutdown();
+            errorAggregator.flush();
+        }
+
+        /**
+         * An in-memory redelivery, the key of its record, and its forwarding to the first retry topic if not run
+         */
+        private static final class Redelivery {
+            final String key;
+            final Runnable task;
+            final Runnable forward;
+
+            Redelivery(String key, Runnable task, Runnable forward) {
+                this.key = key;
+                this.task = task;
+                this.forward = forward;
+            }
         }
     }
 
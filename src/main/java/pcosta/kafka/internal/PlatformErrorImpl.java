@@ -15,6 +15,9 @@ class PlatformErrorImpl implements PlatformError {
     // the original error cause
     private final Throwable cause;
 
+    // the number of collapsed occurrences
+    private final int occurrences;
+
     /**
      * Default error constructor
      *
@@ -22,8 +25,20 @@ class PlatformErrorImpl implements PlatformError {
      * @param cause            the original cause of the error
      */
     PlatformErrorImpl(final String errorDescription, final Throwable cause) {
+        this(errorDescription, cause, 1);
+    }
+
+    /**
+     * Constructor for errors standing for several identical occurrences
+     *
+     * @param errorDescription the error description
+     * @param cause            the original cause of the last occurrence
+     * @param occurrences      the number of occurrences
+     */
+    PlatformErrorImpl(final String errorDescription, final Throwable cause, final int occurrences) {
         this.errorDescription = errorDescription;
         this.cause = cause;
+        this.occurrences = occurrences;
     }
 
     @Override
@@ -36,10 +51,16 @@ class PlatformErrorImpl implements PlatformError {
         return cause;
     }
 
+    @Override
+    public int getOccurrences() {
+        return occurrences;
+    }
+
     @Override
     public String toString() {
         return "PlatformErrorImpl{" +
                 "errorDescription='" + errorDescription + '\'' +
+                ", occurrences=" + occurrences +
                 '}';
     }
 }
@@ -0,0 +1,381 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Aggregates the small messages sent to the same topic with the same key into a single kafka record, whose
+ * {@link KafkaMessage} carries them as {@code aggregated} messages, to be unpacked by the receivers. The messages are
+ * aggregated as encoded, and copied once into the record when flushed.
+ * <p>
+ * A pending aggregate is flushed once it reaches the maximum number of messages or bytes, or once it's been pending
+ * for the linger time. Messages larger than the small message threshold are not aggregated: the pending aggregate of
+ * their topic and key is flushed first, and they're sent on their own right after it.
+ * <p>
+ * The flushed aggregates and the large messages are sent once the aggregator lock is released, each one of them with a
+ * ticket of the dispatch sequence of its topic and key, so that the messages of a key are still sent in order, even
+ * when an aggregate is being flushed by the linger thread meanwhile.
+ */
+final class ProducerAggregator {
+
+    private static final Logger log = LoggerFactory.getLogger(ProducerAggregator.class);
+
+    // the api properties
+    static final String AGGREGATION_ENABLED = "api.producer.aggregation.enabled";
+    static final String MESSAGE_MAX_BYTES = "api.producer.aggregation.message.max.bytes";
+    static final String MAX_MESSAGES = "api.producer.aggregation.max.messages";
+    static final String MAX_BYTES = "api.producer.aggregation.max.bytes";
+    static final String LINGER = "api.producer.aggregation.linger.ms";
+
+    private static final int DEFAULT_MESSAGE_MAX_BYTES = 256;
+    private static final int DEFAULT_MAX_MESSAGES = 100;
+    private static final int DEFAULT_MAX_BYTES = 16 * 1024;
+    private static final long DEFAULT_LINGER = 5;
+
+    /**
+     * Sends the flushed aggregates
+     */
+    @FunctionalInterface
+    interface Flusher {
+        /**
+         * @param dstTopic  the destination topic
+         * @param key       the serialized key of the aggregated messages
+         * @param aggregate the encoded aggregate {@link KafkaMessage}
+         * @param acks      the acknowledgements of the aggregated messages which requested one
+         */
+        void flush(String dstTopic, byte[] key, byte[] aggregate, List<CompletableFuture<Long>> acks);
+    }
+
+    // the maximum size of the messages to be aggregated
+    private final int messageMaxBytes;
+    // the flush thresholds
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long linger;
+    // sends the flushed aggregates
+    private final Flusher flusher;
+
+    // the pending aggregates by topic and key, guarded by this
+    private final Map<AggregateKey, Aggregate> pending = new HashMap<>();
+    // the dispatch sequences of the topics and keys with flushed aggregates not yet sent, guarded by this
+    private final Map<AggregateKey, Sequence> sequences = new HashMap<>();
+    // flushes the aggregates pending for the linger time
+    private final ScheduledExecutorService lingerer;
+
+    /**
+     * Default constructor
+     *
+     * @param name            the producer name
+     * @param messageMaxBytes the maximum size of the messages to be aggregated
+     * @param maxMessages     the maximum number of messages of an aggregate
+     * @param maxBytes        the maximum size of an aggregate
+     * @param linger          the maximum time a message waits for its aggregate to be flushed, in milliseconds
+     * @param flusher         sends the flushed aggregates
+     */
+    ProducerAggregator(String name, int messageMaxBytes, int maxMessages, int maxBytes, long linger, Flusher flusher) {
+        this.messageMaxBytes = messageMaxBytes;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxBytes = maxBytes;
+        this.linger = Math.max(1, linger);
+        this.flusher = flusher;
+        this.lingerer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, name + "KafkaAggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the aggregator of the given producer, with the thresholds defined at the configuration file
+     *
+     * @param name    the producer name
+     * @param flusher sends the flushed aggregates
+     * @return the aggregator, or {@code null} if the aggregation is disabled
+     */
+    static ProducerAggregator fromProperties(String name, Flusher flusher) {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        if (!reader.getBooleanProperty(AGGREGATION_ENABLED, false)) {
+            return null;
+        }
+        return new ProducerAggregator(name,
+                reader.getIntProperty(MESSAGE_MAX_BYTES, DEFAULT_MESSAGE_MAX_BYTES),
+                reader.getIntProperty(MAX_MESSAGES, DEFAULT_MAX_MESSAGES),
+                reader.getIntProperty(MAX_BYTES, DEFAULT_MAX_BYTES),
+                reader.getLongProperty(LINGER, DEFAULT_LINGER),
+                flusher);
+    }
+
+    /**
+     * Appends the message to the pending aggregate of its topic and key, flushing it if full. A message too large to
+     * be aggregated is sent on its own instead, once the previously flushed aggregates of its topic and key were sent.
+     *
+     * @param dstTopic  the destination topic
+     * @param key       the serialized message key
+     * @param message   the encoded {@link KafkaMessage}
+     * @param ack       completed with the aggregate offset once acknowledged, if any
+     * @param oversized sends the message on its own, if too large to be aggregated. Its errors are thrown to the caller.
+     * @return {@code true} if the message was aggregated, {@code false} if it was too large and was sent on its own
+     */
+    boolean append(String dstTopic, byte[] key, byte[] message, CompletableFuture<Long> ack, Runnable oversized) {
+        final AggregateKey aggregateKey = new AggregateKey(dstTopic, key);
+        final int size = CodedOutputStream.computeTagSize(KafkaMessage.AGGREGATED_FIELD_NUMBER)
+                + CodedOutputStream.computeUInt32SizeNoTag(message.length) + message.length;
+        final List<Flush> flushes = new ArrayList<>(2);
+        try {
+            synchronized (this) {
+                if (size > messageMaxBytes) {
+                    take(aggregateKey, flushes);
+                    final Sequence sequence = sequences.computeIfAbsent(aggregateKey, k -> new Sequence());
+                    flushes.add(new Flush(aggregateKey, oversized, sequence, sequence.tickets++));
+                    return false;
+                }
+
+                Aggregate aggregate = pending.get(aggregateKey);
+                // flush the pending aggregate first if the message doesn't fit in
+                if (aggregate != null && aggregate.bytes + size > maxBytes) {
+                    take(aggregateKey, flushes);
+                    aggregate = null;
+                }
+                if (aggregate == null) {
+                    aggregate = new Aggregate();
+                    pending.put(aggregateKey, aggregate);
+                    final Aggregate lingering = aggregate;
+                    lingerer.schedule(() -> flush(aggregateKey, lingering), linger, MILLISECONDS);
+                }
+
+                aggregate.add(message, size, ack);
+                if (aggregate.count >= maxMessages || aggregate.bytes >= maxBytes) {
+                    take(aggregateKey, flushes);
+                }
+                return true;
+            }
+        } finally {
+            // sent once the lock is released, before returning so that a large message is sent by its caller
+            send(flushes);
+        }
+    }
+
+    /**
+     * Flushes the given aggregate once its linger time is over, unless already flushed
+     */
+    private void flush(AggregateKey aggregateKey, Aggregate lingering) {
+        final List<Flush> flushes = new ArrayList<>(1);
+        synchronized (this) {
+            if (pending.get(aggregateKey) == lingering) {
+                take(aggregateKey, flushes);
+            }
+        }
+        send(flushes);
+    }
+
+    /**
+     * Takes the pending aggregate of the given topic and key out, if any, along with its dispatch ticket.
+     * Called while holding the lock.
+     *
+     * @param aggregateKey the aggregate topic and key
+     * @param flushes      the flushed aggregates, to be sent once the lock is released
+     */
+    private void take(AggregateKey aggregateKey, List<Flush> flushes) {
+        final Aggregate aggregate = pending.remove(aggregateKey);
+        if (aggregate == null) return;
+        final Sequence sequence = sequences.computeIfAbsent(aggregateKey, k -> new Sequence());
+        flushes.add(new Flush(aggregateKey, aggregate, sequence, sequence.tickets++));
+    }
+
+    /**
+     * Sends the given flushed aggregates and large messages, each one of them once the previous ones of its topic and
+     * key were sent. Called without holding the lock.
+     *
+     * @param flushes the flushed aggregates and large messages
+     */
+    private void send(List<Flush> flushes) {
+        for (Flush flush : flushes) {
+            flush.sequence.awaitTurn(flush.ticket);
+            try {
+                if (flush.aggregate != null) {
+                    sendAggregate(flush.aggregateKey, flush.aggregate);
+                } else {
+                    flush.oversized.run();
+                }
+            } finally {
+                flush.sequence.dispatched();
+                // forget the sequence of a key once all of its messages were sent
+                synchronized (this) {
+                    if (flush.sequence.isDrained()) sequences.remove(flush.aggregateKey, flush.sequence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the given flushed aggregate, failing its acknowledgements if unable to
+     */
+    private void sendAggregate(AggregateKey aggregateKey, Aggregate aggregate) {
+        try {
+            flusher.flush(aggregateKey.topic, aggregateKey.key, aggregate.encode(), aggregate.acks);
+        } catch (Exception e) {
+            log.error("Unable to send {} aggregated messages to {}", aggregate.count, aggregateKey.topic, e);
+            aggregate.acks.forEach(ack -> ack.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Flushes all the pending aggregates
+     */
+    void flush() {
+        final List<Flush> flushes = new ArrayList<>();
+        synchronized (this) {
+            new ArrayList<>(pending.keySet()).forEach(aggregateKey -> take(aggregateKey, flushes));
+        }
+        send(flushes);
+    }
+
+    /**
+     * Flushes all the pending aggregates and stops the linger thread
+     */
+    void close() {
+        flush();
+        lingerer.shutdownNow();
+    }
+
+    /**
+     * The destination topic and key of an aggregate
+     */
+    private static final class AggregateKey {
+        private final String topic;
+        private final byte[] key;
+        private final int hash;
+
+        AggregateKey(String topic, byte[] key) {
+            this.topic = topic;
+            this.key = key;
+            this.hash = 31 * topic.hashCode() + Arrays.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof AggregateKey)) return false;
+            final AggregateKey other = (AggregateKey) o;
+            return topic.equals(other.topic) && Arrays.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The dispatch sequence of the aggregates of a topic and key: the aggregates are sent in the order of their tickets
+     */
+    private static final class Sequence {
+        // the number of tickets handed out, guarded by the aggregator
+        private long tickets;
+        // the number of sent aggregates, guarded by this
+        private long dispatched;
+
+        /**
+         * Waits until the aggregates of the previous tickets were sent
+         */
+        synchronized void awaitTurn(long ticket) {
+            boolean interrupted = false;
+            while (dispatched != ticket) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        synchronized void dispatched() {
+            dispatched++;
+            notifyAll();
+        }
+
+        /**
+         * @return {@code true} if the aggregates of all the tickets were sent. Called while holding the aggregator lock.
+         */
+        synchronized boolean isDrained() {
+            return dispatched == tickets;
+        }
+    }
+
+    /**
+     * A flushed aggregate, or a large message sent on its own, and its dispatch ticket
+     */
+    private static final class Flush {
+        private final AggregateKey aggregateKey;
+        private final Aggregate aggregate;
+        private final Runnable oversized;
+        private final Sequence sequence;
+        private final long ticket;
+
+        Flush(AggregateKey aggregateKey, Aggregate aggregate, Sequence sequence, long ticket) {
+            this(aggregateKey, aggregate, null, sequence, ticket);
+        }
+
+        Flush(AggregateKey aggregateKey, Runnable oversized, Sequence sequence, long ticket) {
+            this(aggregateKey, null, oversized, sequence, ticket);
+        }
+
+        private Flush(AggregateKey aggregateKey, Aggregate aggregate, Runnable oversized, Sequence sequence, long ticket) {
+            this.aggregateKey = aggregateKey;
+            this.aggregate = aggregate;
+            this.oversized = oversized;
+            this.sequence = sequence;
+            this.ticket = ticket;
+        }
+    }
+
+    /**
+     * A pending aggregate
+     */
+    private static final class Aggregate {
+        private final List<byte[]> messages = new ArrayList<>();
+        private final List<CompletableFuture<Long>> acks = new ArrayList<>();
+        private int count;
+        private int bytes;
+
+        void add(byte[] message, int size, CompletableFuture<Long> ack) {
+            messages.add(message);
+            if (ack != null) acks.add(ack);
+            count++;
+            bytes += size;
+        }
+
+        /**
+         * @return the encoded {@link KafkaMessage} holding the aggregated messages
+         */
+        byte[] encode() throws IOException {
+            final byte[] encoded = new byte[bytes];
+            final CodedOutputStream output = CodedOutputStream.newInstance(encoded);
+            for (byte[] message : messages) {
+                output.writeTag(KafkaMessage.AGGREGATED_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(message.length);
+                output.writeRawBytes(message);
+            }
+            output.checkNoSpaceLeft();
+            return encoded;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package pcosta.kafka.internal;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.SendListener;
+
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A Reactive Streams {@link Subscriber} sending the received messages to a topic through a {@link ProtobufProducer}.
+ * <p>
+ * The upstream demand is bounded by the acknowledgements: {@code maxInFlight} messages are requested upon subscription,
+ * and a further one as each sent message completes, so that no more than {@code maxInFlight} messages are ever
+ * awaiting their broker acknowledgement.
+ */
+final class ProducerSink<M> implements Subscriber<M> {
+
+    private static final Logger log = LoggerFactory.getLogger(ProducerSink.class);
+
+    // the producer sending the messages
+    private final ProtobufProducer<M> producer;
+    // the destination topic
+    private final String topic;
+    // the maximum number of messages sent and not yet acknowledged
+    private final int maxInFlight;
+    // the listener of the send outcomes
+    private final SendListener<? super M> listener;
+    // the upstream subscription
+    private volatile Subscription subscription;
+
+    /**
+     * Default constructor
+     *
+     * @param producer    the producer sending the messages
+     * @param topic       the destination topic
+     * @param maxInFlight the maximum number of messages sent and not yet acknowledged
+     * @param listener    the listener of the send outcomes
+     */
+    ProducerSink(ProtobufProducer<M> producer, String topic, int maxInFlight, SendListener<? super M> listener) {
+        this.producer = producer;
+        this.topic = topic;
+        this.maxInFlight = maxInFlight;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        Objects.requireNonNull(subscription, "Invalid subscription");
+        if (this.subscription != null) {
+            log.warn("The sink of {} is already subscribed, cancelling the new subscription", topic);
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(maxInFlight);
+    }
+
+    @Override
+    public void onNext(M message) {
+        Objects.requireNonNull(message, "Invalid message");
+        producer.sendAsync(message, topic).whenComplete((offset, e) -> {
+            complete(message, offset, e);
+            subscription.request(1);
+        });
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        log.error("The upstream of the sink of {} failed", topic, error);
+    }
+
+    @Override
+    public void onComplete() {
+        log.debug("The upstream of the sink of {} completed", topic);
+    }
+
+    /**
+     * Notifies the listener of the outcome of the given message
+     */
+    private void complete(M message, Long offset, Throwable e) {
+        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        try {
+            if (cause == null) {
+                listener.onCompletion(message, offset, null);
+            } else {
+                listener.onCompletion(message, ProtobufProducer.UNKNOWN_OFFSET,
+                        cause instanceof Exception ? (Exception) cause : new CompletionException(cause));
+            }
+        } catch (Exception listenerError) {
+            log.error("The send listener of {} failed", topic, listenerError);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MessagePartitioner;
+import pcosta.kafka.api.MessagingException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A memory-mapped local ring journal of the records which couldn't be handed to the kafka producer,
+ * e.g. while the brokers are unreachable or the producer buffer is full.
+ * <p>
+ * A drainer thread replays the spooled records in order, keeping up to a window of them in flight on a producer with a
+ * single in-flight request per connection. The journal only moves past the records acknowledged in order: once a
+ * replay fails, the in-flight records are awaited and the replay restarts from the first unacknowledged one after a
+ * backoff, so records may be replayed more than once. The journal positions and capacity are kept in its header, so
+ * the records spooled before a restart are replayed once the spool is opened again.
+ * <p>
+ * The spool is bounded by its capacity: records which don't fit in the free space of the ring are rejected.
+ */
+final class ProducerSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(ProducerSpool.class);
+
+    // the api properties
+    static final String SPOOL_ENABLED = "api.producer.spool.enabled";
+    static final String SPOOL_DIR = "api.producer.spool.dir";
+    static final String SPOOL_MAX_BYTES = "api.producer.spool.max.bytes";
+    static final String SPOOL_RETRY_BACKOFF = "api.producer.spool.retry.backoff.ms";
+    static final String SPOOL_REPLAY_WINDOW = "api.producer.spool.replay.window";
+
+    private static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_RETRY_BACKOFF = 1000;
+    private static final int DEFAULT_REPLAY_WINDOW = 128;
+
+    // the journal header: magic, read position, write position, capacity
+    private static final int MAGIC = 0x4b505302;
+    private static final int READ_POSITION = 4;
+    private static final int WRITE_POSITION = 12;
+    private static final int CAPACITY = 20;
+    private static final int HEADER_SIZE = 24;
+
+    // the journal file and its mapping
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer journal;
+    private final int capacity;
+    // the ever-increasing positions of the first unacknowledged record, of the next record to be replayed and of the
+    // next record to be appended, wrapped around the capacity of the ring
+    private long readPosition;
+    private long sendPosition;
+    private long writePosition;
+
+    // the producer replaying the spooled records
+    private final Producer<byte[], byte[]> producer;
+    private final long retryBackoff;
+    private final int window;
+    // the records replayed and not yet acknowledged, in journal order
+    private final Deque<Replay> inFlight = new ArrayDeque<>();
+    // the number of replays whose completion is still pending, and whether any of them failed
+    private int outstanding;
+    private boolean failed;
+    private final Thread drainer;
+    private volatile boolean closed;
+
+    /**
+     * Default constructor: opens the journal, restoring its pending records, and starts draining it
+     *
+     * @param file         the journal file
+     * @param maxBytes     the capacity of the journal, unless it was already created with another one
+     * @param retryBackoff the delay before replaying the records again once a replay failed
+     * @param window       the maximum number of records in flight while replaying
+     * @param producer     the producer replaying the spooled records
+     * @throws MessagingException if the journal can't be opened, or is locked by another spool
+     */
+    ProducerSpool(Path file, int maxBytes, long retryBackoff, int window, Producer<byte[], byte[]> producer) {
+        this.file = file;
+        this.producer = producer;
+        this.retryBackoff = retryBackoff;
+        this.window = Math.max(1, window);
+        try {
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            lock(channel, file);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            final boolean restored = channel.read(header, 0) == HEADER_SIZE && header.getInt(0) == MAGIC;
+            this.capacity = restored ? header.getInt(CAPACITY) : maxBytes;
+            if (capacity != maxBytes) log.warn("Keeping the capacity {} of the producer spool {}", capacity, file);
+            this.journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to open the producer spool: " + file, e);
+        }
+
+        if (journal.getInt(0) == MAGIC) {
+            this.readPosition = journal.getLong(READ_POSITION);
+            this.writePosition = journal.getLong(WRITE_POSITION);
+            if (writePosition > readPosition) log.warn("Replaying {} bytes of spooled records from {}", writePosition - readPosition, file);
+        } else {
+            journal.putInt(0, MAGIC);
+            journal.putInt(CAPACITY, capacity);
+            journal.putLong(READ_POSITION, 0);
+            journal.putLong(WRITE_POSITION, 0);
+        }
+        this.sendPosition = readPosition;
+
+        this.drainer = new Thread(this::drain, "KafkaProducerSpool");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Locks the journal for this spool, released once its channel is closed: two spools sharing a journal, e.g. two
+     * processes with producers of the same key and spool directory, would replay and overwrite each other's records
+     */
+    private static void lock(FileChannel channel, Path file) throws IOException {
+        boolean locked;
+        try {
+            locked = channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            locked = false;
+        }
+        if (!locked) {
+            channel.close();
+            throw new MessagingException("The producer spool " + file + " is already in use");
+        }
+    }
+
+    /**
+     * Opens the spool of the given producer in the directory defined at the configuration file, if enabled
+     *
+     * @param name the producer name, unique within the process
+     * @return the spool, or {@code null} if the spooling is disabled
+     */
+    static ProducerSpool fromProperties(String name) {
+        return fromProperties(name, PropertiesReader.DEFAULT_CLUSTER);
+    }
+
+    /**
+     * Opens the spool of the given producer of the given kafka cluster, if enabled
+     *
+     * @param name    the producer name, unique within the process
+     * @param cluster the kafka cluster the spooled records are replayed to
+     * @return the spool, or {@code null} if the spooling is disabled
+     */
+    static ProducerSpool fromProperties(String name, String cluster) {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        if (!reader.getBooleanProperty(SPOOL_ENABLED, false)) {
+            return null;
+        }
+        final Path dir = Paths.get(reader.getProperties().getProperty(SPOOL_DIR,
+                Paths.get(System.getProperty("java.io.tmpdir"), "kafka-proto-api-spool").toString()));
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to create the producer spool directory: " + dir, e);
+        }
+
+        final Map<String, Object> properties = reader.loadSenderProps(cluster);
+        properties.put(ProducerConfig.CLIENT_ID_CONFIG, "kafka_proto_api->spool-" + name);
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        // the producer retries mustn't reorder the replayed records
+        properties.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 1);
+
+        final Producer<byte[], byte[]> producer = new KafkaProducer<>(properties, new ByteArraySerializer(), new ByteArraySerializer());
+        try {
+            return new ProducerSpool(
+                    dir.resolve(name.replaceAll("[^A-Za-z0-9._-]", "_") + ".spool"),
+                    reader.getIntProperty(SPOOL_MAX_BYTES, DEFAULT_MAX_BYTES),
+                    reader.getLongProperty(SPOOL_RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF),
+                    reader.getIntProperty(SPOOL_REPLAY_WINDOW, DEFAULT_REPLAY_WINDOW),
+                    producer);
+        } catch (MessagingException e) {
+            producer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return {@code true} if there are records to be drained: the following ones are to be spooled as well,
+     * so that the records are sent in order
+     */
+    synchronized boolean isSpooling() {
+        return writePosition > readPosition;
+    }
+
+    /**
+     * Appends a record to the journal
+     *
+     * @param topic     the destination topic
+     * @param partition the destination partition, or {@link MessagePartitioner#DEFAULT_PARTITION} to partition by key
+     * @param key       the serialized key
+     * @param value     the serialized value
+     * @return {@code true} if spooled, {@code false} if the spool is full or closed
+     */
+    synchronized boolean append(String topic, int partition, byte[] key, byte[] value) {
+        if (closed) return false;
+
+        final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        final int size = 4 + 4 + topicBytes.length + 4 + 4 + (key == null ? 0 : key.length) + 4 + value.length;
+        if (writePosition - readPosition + size > capacity) {
+            log.error("The producer spool {} is full, dropping message to {}", file, topic);
+            return false;
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(size);
+        putBytes(record, topicBytes);
+        record.putInt(partition);
+        putBytes(record, key);
+        putBytes(record, value);
+        write(writePosition, record.array());
+        this.writePosition += size;
+        journal.putLong(WRITE_POSITION, writePosition);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Replays the spooled records in order, until closed
+     */
+    private void drain() {
+        while (true) {
+            final Replay replay;
+            synchronized (this) {
+                try {
+                    while (!closed && (failed ? outstanding > 0 : sendPosition == writePosition || outstanding >= window)) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) return;
+                if (failed) {
+                    // every replay completed: restart from the first unacknowledged record
+                    this.failed = false;
+                    this.inFlight.clear();
+                    this.sendPosition = readPosition;
+                    replay = null;
+                } else {
+                    replay = read(sendPosition);
+                    this.sendPosition += replay.size;
+                    this.inFlight.add(replay);
+                    this.outstanding++;
+                }
+            }
+
+            if (replay == null) {
+                sleep(retryBackoff);
+                continue;
+            }
+            try {
+                producer.send(replay.record, (metadata, e) -> completed(replay, e));
+            } catch (Exception e) {
+                completed(replay, e);
+            }
+        }
+    }
+
+    /**
+     * Moves past the records acknowledged in order, or has the drainer replay them again once a replay failed
+     */
+    private synchronized void completed(Replay replay, Exception error) {
+        this.outstanding--;
+        if (error != null) {
+            if (!failed) log.warn("Unable to replay spooled message to {}, retrying in {} ms", replay.record.topic(), retryBackoff, error);
+            this.failed = true;
+        } else {
+            replay.acknowledged = true;
+        }
+        while (!inFlight.isEmpty() && inFlight.peek().acknowledged) {
+            this.readPosition += inFlight.poll().size;
+        }
+        journal.putLong(READ_POSITION, readPosition);
+        if (replay.acknowledged && readPosition == writePosition) log.info("The producer spool {} was drained", file);
+        notifyAll();
+    }
+
+    private Replay read(long position) {
+        final int size = ByteBuffer.wrap(read(position, 4)).getInt();
+        final ByteBuffer record = ByteBuffer.wrap(read(position + 4, size - 4));
+        final String topic = new String(getBytes(record), StandardCharsets.UTF_8);
+        final int partition = record.getInt();
+        final byte[] key = getBytes(record);
+        final byte[] value = getBytes(record);
+        return new Replay(size, new ProducerRecord<>(topic, partition == MessagePartitioner.DEFAULT_PARTITION ? null : partition, key, value));
+    }
+
+    /**
+     * Copies the given bytes to the ring, wrapping around its end
+     */
+    private void write(long position, byte[] bytes) {
+        final int offset = (int) (position % capacity);
+        final int head = Math.min(bytes.length, capacity - offset);
+        final ByteBuffer ring = journal.duplicate();
+        ring.position(HEADER_SIZE + offset);
+        ring.put(bytes, 0, head);
+        if (head < bytes.length) {
+            ring.position(HEADER_SIZE);
+            ring.put(bytes, head, bytes.length - head);
+        }
+    }
+
+    /**
+     * Copies the given number of bytes from the ring, wrapping around its end
+     */
+    private byte[] read(long position, int length) {
+        final byte[] bytes = new byte[length];
+        final int offset = (int) (position % capacity);
+        final int head = Math.min(length, capacity - offset);
+        final ByteBuffer ring = journal.duplicate();
+        ring.position(HEADER_SIZE + offset);
+        ring.get(bytes, 0, head);
+        if (head < length) {
+            ring.position(HEADER_SIZE);
+            ring.get(bytes, head, length - head);
+        }
+        return bytes;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) return null;
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the drainer and closes the journal, keeping the unacknowledged records for the next time the spool is opened
+     */
+    void close() {
+        synchronized (this) {
+            this.closed = true;
+            notifyAll();
+        }
+        drainer.interrupt();
+        try {
+            drainer.join(retryBackoff + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // completes the in-flight replays before the journal positions are flushed
+        producer.close();
+        journal.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close the producer spool {}", file, e);
+        }
+    }
+
+    /**
+     * A replayed record and its size in the journal
+     */
+    private static final class Replay {
+        private final int size;
+        private final ProducerRecord<byte[], byte[]> record;
+        // guarded by the spool
+        private boolean acknowledged;
+
+        private Replay(int size, ProducerRecord<byte[], byte[]> record) {
+            this.size = size;
+            this.record = record;
+        }
+    }
+}
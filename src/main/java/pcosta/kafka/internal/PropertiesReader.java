@@ -1,11 +1,13 @@
 package pcosta.kafka.internal;
 
+import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MessagingException;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -20,6 +22,9 @@ import java.util.Properties;
  * @author Pedro Costa
  * <p>
  * Defines the kafka sender and receiver properties and loads the file overriding values, if defined
+ * <p>
+ * Besides the default cluster, named cluster profiles can be defined: {@code cluster.<name>.bootstrap.servers} and
+ * their own {@code cluster.<name>.consumer.*} and {@code cluster.<name>.sender.*} overrides, applied over the default ones.
  */
 final class PropertiesReader {
 
@@ -37,6 +42,10 @@ final class PropertiesReader {
     private static final String SPRING_EMBEDDED_KAFKA_BROKERS = "spring.embedded.kafka.brokers";
     // kafka receiver default auto-commit configuration
     private static final boolean DEFAULT_AUTO_COMMIT = true;
+    // the default kafka cluster, the one of the spring.embedded.kafka.brokers property
+    static final String DEFAULT_CLUSTER = "";
+    // the prefix of the named cluster profiles
+    private static final String CLUSTER_PREFIX = "cluster.";
 
     // the holder class
     private static final class Holder {
@@ -70,11 +79,58 @@ final class PropertiesReader {
     }
 
     /**
-     * Creates the Consumer properties and loads the properties defined at configuration file
+     * Returns the api property defined at the configuration file as an {@code int}
+     *
+     * @param key          the property key
+     * @param defaultValue the value to be used if the property is not defined
+     * @return the property value, or the {@code defaultValue} if not defined
+     */
+    int getIntProperty(final String key, final int defaultValue) {
+        final String value = fileProperties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Returns the api property defined at the configuration file as a {@code long}
+     *
+     * @param key          the property key
+     * @param defaultValue the value to be used if the property is not defined
+     * @return the property value, or the {@code defaultValue} if not defined
+     */
+    long getLongProperty(final String key, final long defaultValue) {
+        final String value = fileProperties.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Returns the api property defined at the configuration file as a {@code boolean}
+     *
+     * @param key          the property key
+     * @param defaultValue the value to be used if the property is not defined
+     * @return the property value, or the {@code defaultValue} if not defined
+     */
+    boolean getBooleanProperty(final String key, final boolean defaultValue) {
+        final String value = fileProperties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Creates the Consumer properties of the default cluster and loads the properties defined at configuration file
      *
      * @return the Consumer properties
      */
     Map<String, Object> loadConsumerProps() {
+        return loadConsumerProps(DEFAULT_CLUSTER);
+    }
+
+    /**
+     * Creates the Consumer properties of the given cluster and loads the properties defined at configuration file
+     *
+     * @param cluster the cluster name, {@link #DEFAULT_CLUSTER} for the default one
+     * @return the Consumer properties
+     * @throws MessagingException if the cluster profile is not defined
+     */
+    Map<String, Object> loadConsumerProps(final String cluster) {
         Map<String, Object> properties = new HashMap<>();
 
         // load SPRING_EMBEDDED_KAFKA_BROKERS prop from file; if not set, load from System
@@ -95,15 +151,27 @@ final class PropertiesReader {
                         properties.put(String.valueOf(prop.getKey()).replaceFirst("consumer.", ""), prop.getValue()))
                         .ifPresent(old -> log.info("Overriding consumer property: {} with {}", old, prop.getValue())));
 
+        loadClusterProps(properties, cluster, "consumer.");
         return properties;
     }
 
     /**
-     * Creates the Sender properties and loads the properties defined at configuration file
+     * Creates the Sender properties of the default cluster and loads the properties defined at configuration file
      *
      * @return the Sender properties
      */
     Map<String, Object> loadSenderProps() {
+        return loadSenderProps(DEFAULT_CLUSTER);
+    }
+
+    /**
+     * Creates the Sender properties of the given cluster and loads the properties defined at configuration file
+     *
+     * @param cluster the cluster name, {@link #DEFAULT_CLUSTER} for the default one
+     * @return the Sender properties
+     * @throws MessagingException if the cluster profile is not defined
+     */
+    Map<String, Object> loadSenderProps(final String cluster) {
         Map<String, Object> properties = new HashMap<>();
 
         // load SPRING_EMBEDDED_KAFKA_BROKERS prop from file; if not set, load from System
@@ -125,9 +193,44 @@ final class PropertiesReader {
                         properties.put(String.valueOf(prop.getKey()).replaceFirst("sender.", ""), prop.getValue()))
                         .ifPresent(old -> log.info("Overriding consumer property: {} with {}", old, prop.getValue())));
 
+        loadClusterProps(properties, cluster, "sender.");
         return properties;
     }
 
+    /**
+     * Overrides the given properties with the ones of the given cluster profile: its bootstrap servers, and then its
+     * properties of the given client type
+     *
+     * @param properties the client properties
+     * @param cluster    the cluster name, {@link #DEFAULT_CLUSTER} for the default one
+     * @param clientType the client properties prefix, {@code consumer.} or {@code sender.}
+     * @throws MessagingException if the cluster profile is not defined
+     */
+    private void loadClusterProps(final Map<String, Object> properties, final String cluster, final String clientType) {
+        if (isDefaultCluster(cluster)) return;
+
+        final String profile = CLUSTER_PREFIX + cluster + ".";
+        final String bootstrapServers = fileProperties.getProperty(profile + CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG);
+        if (bootstrapServers == null) {
+            throw new MessagingException("Undefined kafka cluster: " + cluster + ", missing property: "
+                    + profile + CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG);
+        }
+        properties.put(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers.trim());
+
+        final String prefix = profile + clientType;
+        fileProperties.stringPropertyNames().stream()
+                .filter(key -> key.startsWith(prefix))
+                .forEach(key -> properties.put(key.substring(prefix.length()), fileProperties.getProperty(key)));
+    }
+
+    /**
+     * @param cluster the cluster name
+     * @return {@code true} if the given cluster is the default one, {@code false} if it's a named cluster profile
+     */
+    static boolean isDefaultCluster(final String cluster) {
+        return cluster == null || cluster.isEmpty();
+    }
+
     /**
      * Reads the configuration file
      */
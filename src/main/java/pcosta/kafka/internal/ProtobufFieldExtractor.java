@@ -0,0 +1,265 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import static com.google.protobuf.WireFormat.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Extracts a single field from serialized protobuf messages by scanning their wire format, skipping every other field,
+ * without materializing the message. Useful when only an id or a tenant of a large payload is needed,
+ * e.g. for routing or deduplication.
+ * <p>
+ * Only singular fields are supported. As when parsing, the last occurrence of a field wins and the default value is
+ * returned for absent fields.
+ */
+public final class ProtobufFieldExtractor {
+
+    // the resolved field path
+    private final FieldDescriptor[] fields;
+    // the field numbers of the resolved field path
+    private final int[] numbers;
+
+    private ProtobufFieldExtractor(FieldDescriptor[] fields) {
+        this.fields = fields;
+        this.numbers = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            numbers[i] = fields[i].getNumber();
+        }
+    }
+
+    /**
+     * Creates the extractor of the given field path
+     *
+     * @param descriptor the protobuf message descriptor
+     * @param path       the field path, using the proto field names and {@code .} to navigate nested messages,
+     *                   e.g. {@code header.tenant_id}
+     * @return the field extractor
+     * @throws IllegalArgumentException if the field path is not valid for the message type
+     */
+    public static ProtobufFieldExtractor forPath(Descriptor descriptor, String path) {
+        Objects.requireNonNull(path, "Invalid field path");
+        final String[] names = path.split("\\.");
+        final FieldDescriptor[] fields = new FieldDescriptor[names.length];
+
+        Descriptor current = descriptor;
+        for (int i = 0; i < names.length; i++) {
+            if (current == null) {
+                throw new IllegalArgumentException("Field: " + names[i - 1] + " of path: " + path + " is not a message");
+            }
+            fields[i] = findField(current, names[i]);
+            if (fields[i] == null) {
+                throw new IllegalArgumentException("Unknown field: " + names[i] + " of path: " + path + " for type: " + descriptor.getFullName());
+            }
+            current = fields[i].getJavaType() == FieldDescriptor.JavaType.MESSAGE ? fields[i].getMessageType() : null;
+        }
+        return forFields(fields);
+    }
+
+    /**
+     * Creates the extractor of the given field path
+     *
+     * @param fields the field path, each field belonging to the message type of the previous one
+     * @return the field extractor
+     * @throws IllegalArgumentException if the field path is not valid
+     */
+    public static ProtobufFieldExtractor forFields(FieldDescriptor... fields) {
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("Empty field path");
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].isRepeated()) {
+                throw new IllegalArgumentException("Repeated field: " + fields[i].getFullName() + " is not supported");
+            }
+            if (i > 0 && (fields[i - 1].getJavaType() != FieldDescriptor.JavaType.MESSAGE
+                    || fields[i].getContainingType() != fields[i - 1].getMessageType())) {
+                throw new IllegalArgumentException("Field: " + fields[i].getFullName() + " is not a field of " + fields[i - 1].getFullName());
+            }
+        }
+        return new ProtobufFieldExtractor(fields.clone());
+    }
+
+    /**
+     * Extracts this extractor's field from the given serialized message
+     *
+     * @param bytes the serialized message
+     * @return the field value, of the type returned by {@link com.google.protobuf.Message#getField(FieldDescriptor)},
+     * except for message fields, returned serialized as a {@link ByteString}
+     * @throws InvalidProtocolBufferException if the message is malformed
+     */
+    public Object extract(ByteString bytes) throws InvalidProtocolBufferException {
+        return toFieldValue(extractRaw(bytes.newCodedInput(), numbers));
+    }
+
+    /**
+     * Extracts this extractor's field from the given serialized message
+     *
+     * @param bytes the serialized message
+     * @return the field value, as in {@link #extract(ByteString)}
+     * @throws InvalidProtocolBufferException if the message is malformed
+     */
+    public Object extract(byte[] bytes) throws InvalidProtocolBufferException {
+        return toFieldValue(extractRaw(CodedInputStream.newInstance(bytes), numbers));
+    }
+
+    /**
+     * @return the resolved field path
+     */
+    public FieldDescriptor[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * Extracts the raw value of the given field path from the given serialized message, with no type information:
+     * {@code Long} for varint and 64-bit fields, {@code Integer} for 32-bit fields and {@link ByteString} for strings,
+     * bytes and messages
+     *
+     * @param bytes        the serialized message
+     * @param fieldNumbers the field numbers path
+     * @return the raw field value, or {@code null} if absent
+     * @throws InvalidProtocolBufferException if the message is malformed
+     */
+    public static Object extractRaw(ByteString bytes, int... fieldNumbers) throws InvalidProtocolBufferException {
+        if (fieldNumbers.length == 0) {
+            throw new IllegalArgumentException("Empty field path");
+        }
+        return extractRaw(bytes.newCodedInput(), fieldNumbers);
+    }
+
+    /**
+     * Extracts the raw value of the given field path from the given serialized message, as in
+     * {@link #extractRaw(ByteString, int...)}
+     *
+     * @param bytes        the serialized message
+     * @param fieldNumbers the field numbers path
+     * @return the raw field value, or {@code null} if absent
+     * @throws InvalidProtocolBufferException if the message is malformed
+     */
+    public static Object extractRaw(byte[] bytes, int... fieldNumbers) throws InvalidProtocolBufferException {
+        if (fieldNumbers.length == 0) {
+            throw new IllegalArgumentException("Empty field path");
+        }
+        return extractRaw(CodedInputStream.newInstance(bytes), fieldNumbers);
+    }
+
+    private static Object extractRaw(CodedInputStream input, int[] numbers) throws InvalidProtocolBufferException {
+        try {
+            return scan(input, numbers, 0);
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+    }
+
+    /**
+     * Scans the current message, up to the input limit, for the field at the given path depth
+     *
+     * @return the last occurrence of the field, or {@code null} if absent
+     */
+    private static Object scan(CodedInputStream input, int[] numbers, int depth) throws IOException {
+        Object found = null;
+        for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+            final int wireType = WireFormat.getTagWireType(tag);
+            if (WireFormat.getTagFieldNumber(tag) != numbers[depth]) {
+                input.skipField(tag);
+            } else if (depth == numbers.length - 1) {
+                found = readValue(input, tag, wireType);
+            } else if (wireType == WIRETYPE_LENGTH_DELIMITED) {
+                // nested message: occurrences are merged, so keep scanning all of them
+                final int limit = input.pushLimit(input.readRawVarint32());
+                final Object nested = scan(input, numbers, depth + 1);
+                input.popLimit(limit);
+                if (nested != null) found = nested;
+            } else {
+                input.skipField(tag);
+            }
+        }
+        return found;
+    }
+
+    private static Object readValue(CodedInputStream input, int tag, int wireType) throws IOException {
+        switch (wireType) {
+            case WIRETYPE_VARINT:
+                return input.readRawVarint64();
+            case WIRETYPE_FIXED64:
+                return input.readRawLittleEndian64();
+            case WIRETYPE_FIXED32:
+                return input.readRawLittleEndian32();
+            case WIRETYPE_LENGTH_DELIMITED:
+                return input.readBytes();
+            default:
+                input.skipField(tag);
+                return null;
+        }
+    }
+
+    /**
+     * Converts the raw wire value into the value of the leaf field type
+     */
+    private Object toFieldValue(Object raw) throws InvalidProtocolBufferException {
+        final FieldDescriptor field = fields[fields.length - 1];
+        if (raw == null) {
+            return field.getJavaType() == FieldDescriptor.JavaType.MESSAGE ? ByteString.EMPTY : field.getDefaultValue();
+        }
+        try {
+            return toFieldValue(field, raw);
+        } catch (ClassCastException e) {
+            throw new InvalidProtocolBufferException("Unexpected wire type for field: " + field.getFullName());
+        }
+    }
+
+    private static Object toFieldValue(FieldDescriptor field, Object raw) {
+        switch (field.getType()) {
+            case INT32:
+            case UINT32:
+                return (int) (long) (Long) raw;
+            case SINT32:
+                return CodedInputStream.decodeZigZag32((int) (long) (Long) raw);
+            case INT64:
+            case UINT64:
+            case FIXED64:
+            case SFIXED64:
+                return raw;
+            case SINT64:
+                return CodedInputStream.decodeZigZag64((Long) raw);
+            case FIXED32:
+            case SFIXED32:
+                return raw;
+            case BOOL:
+                return (Long) raw != 0;
+            case FLOAT:
+                return Float.intBitsToFloat((Integer) raw);
+            case DOUBLE:
+                return Double.longBitsToDouble((Long) raw);
+            case ENUM:
+                return field.getEnumType().findValueByNumber((int) (long) (Long) raw);
+            case STRING:
+                return ((ByteString) raw).toStringUtf8();
+            default:
+                // bytes and messages
+                return raw;
+        }
+    }
+
+    private static FieldDescriptor findField(Descriptor descriptor, String name) {
+        final FieldDescriptor field = descriptor.findFieldByName(name);
+        if (field != null) {
+            return field;
+        }
+        // also accept the camel case field names
+        for (FieldDescriptor candidate : descriptor.getFields()) {
+            if (candidate.getJsonName().equals(name)) return candidate;
+        }
+        return null;
+    }
+}
@@ -2,35 +2,77 @@ package pcosta.kafka.internal;
 
 import com.google.protobuf.Any;
 import com.google.protobuf.Message;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.reactivestreams.Subscriber;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
 import pcosta.kafka.api.MessageFilter;
+import pcosta.kafka.api.MessagePartitioner;
 import pcosta.kafka.api.MessageProducer;
 import pcosta.kafka.api.MessagingException;
+import pcosta.kafka.api.SendListener;
 import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
 
 /**
  * @author Pedro Costa
  * <p/>
  * Responsible for serializing and sending protobuf messages to kafka broker
+ * <p/>
+ * With the {@link ProtobufSerializer}, each message is wrapped and encoded once by the {@link KafkaMessageEncoder},
+ * whatever its number of destinations, and sent as is: a single array is allocated per sent message.
+ * <p/>
+ * The kafka senders are lazily created per topic on a producer-owned thread, without any lock shared by the topics.
+ * Messages sent while a topic's sender is being created are queued, and sent in order by the creating thread as soon as
+ * it's available.
+ * Messages with an acknowledgement or a spool don't wait for the creation, whose failure is reported through them;
+ * otherwise the sending thread waits for its message to be handed to the sender, so that failures reach the caller.
+ * <p/>
+ * Messages sent from a receiver thread while it processes a transactional batch are sent through the receiver's
+ * {@link KafkaTransaction} instead, and committed along with the consumed offsets, as long as the receiver consumes
+ * from the producer's cluster.
+ * <p/>
+ * If a {@link ProducerSpool} is attached, the messages which fail to be sent are spooled to be replayed later on,
+ * and so are the following ones until the spool is drained.
+ * <p/>
+ * If a {@link ProducerAggregator} is attached, the small messages sent to the same topic with the same key are
+ * aggregated into a single kafka record, unless a partitioner is set or they're sent within a transaction.
  */
 @SuppressWarnings("unchecked")
 final class ProtobufProducer<M> implements MessageProducer<M> {
 
     private static final Logger log = LoggerFactory.getLogger(ProtobufProducer.class);
 
+    // the offset of the messages which were handed off without a broker acknowledgement
+    static final long UNKNOWN_OFFSET = -1L;
+
     // the message deserializer
     private final Serializer valueSerializer;
+    // whether the messages are encoded by the KafkaMessageEncoder, instead of a custom value serializer
+    private final boolean encodesEnvelope;
     // the key deserializer
     private final Serializer keySerializer;
     // the message filters
     private final Collection<MessageFilter> filters;
-    // the kafka senders map by topic
-    private Map<String, KafkaSender<String, M>> kafkaSenders;
+    // the destination kafka cluster
+    private final String cluster;
+    // the message partitioner, if any
+    private volatile MessagePartitioner<? super M> partitioner;
+    // the kafka senders by topic, along with the messages queued on their creation
+    private final ConcurrentMap<String, TopicSender> kafkaSenders;
+    // the pre-encoded default keys by topic and message type
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, byte[]>> defaultKeys;
+    // the executor creating the kafka senders
+    private final ExecutorService sendersExecutor;
+    // the spool of the messages which failed to be sent, if enabled
+    volatile ProducerSpool spool;
+    // the aggregator of the small messages, if enabled
+    volatile ProducerAggregator aggregator;
 
     /**
      * Default producer constructor
@@ -49,10 +91,30 @@ final class ProtobufProducer<M> implements MessageProducer<M> {
      * @param valueSerializer the message deserializer
      */
     ProtobufProducer(Serializer keySerializer, Serializer valueSerializer, Collection<MessageFilter> filters) {
+        this(keySerializer, valueSerializer, filters, PropertiesReader.DEFAULT_CLUSTER);
+    }
+
+    /**
+     * The constructor of a producer to the given kafka cluster
+     *
+     * @param keySerializer   the key deserializer
+     * @param valueSerializer the message deserializer
+     * @param filters         the message filters
+     * @param cluster         the destination kafka cluster
+     */
+    ProtobufProducer(Serializer keySerializer, Serializer valueSerializer, Collection<MessageFilter> filters, String cluster) {
+        this.cluster = cluster;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
+        this.encodesEnvelope = valueSerializer instanceof ProtobufSerializer;
         this.kafkaSenders = new ConcurrentHashMap<>();
+        this.defaultKeys = new ConcurrentHashMap<>();
         this.filters = new ArrayList<>(filters);
+        this.sendersExecutor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "KafkaSenderFactory");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
@@ -73,13 +135,6 @@ final class ProtobufProducer<M> implements MessageProducer<M> {
 
         for (String topic : topics) {
             Objects.requireNonNull(topic, "Invalid topic");
-            // kafka sender lazy-instantiation for this topic
-            if (null == kafkaSenders.get(topic)) {
-                synchronized (ProtobufProducer.class) {
-                    if (null == kafkaSenders.get(topic))
-                        kafkaSenders.put(topic, new KafkaSender<>(topic, keySerializer, valueSerializer));
-                }
-            }
         }
 
         // log the message - wrap around if clause due to message.toString() (can be expensive)
@@ -91,26 +146,279 @@ final class ProtobufProducer<M> implements MessageProducer<M> {
             );
         }
 
-        // send the message for each destination
+        // send the message for each destination, encoded once for all of them
+        byte[] value = null;
         for (final String dstTopic : topics) {
-            // generate the key for this message according with the defined conventions
-            final Class<?> msgType = message.getClass();
-            final String msgKey = null != key ? key : new StringMessageKey(dstTopic, msgType.getName()).generateKey();
-
-            // wrap the incoming proto message in the KafkaMessage
-            final KafkaMessage kafkaMsg = KafkaMessage.newBuilder()
-                    .setPayloadClass(message.getClass().getName())
-                    .setPayload(Any.pack((Message) message))
-                    .setTraceabilityId(traceabilityId == null ? "" : traceabilityId)
-                    .build();
-
-            //check the pre-configured filters if the message is to be discarded
-            if (!isFiltered(dstTopic, msgType)) {
-                kafkaSenders.get(dstTopic).send(msgKey, (M) kafkaMsg);
+            value = send(message, key, traceabilityId, dstTopic, value, null);
+        }
+    }
+
+    @Override
+    public Subscriber<M> sink(final String topic, final int maxInFlight, final SendListener<? super M> listener) {
+        Objects.requireNonNull(topic, "Invalid topic");
+        Objects.requireNonNull(listener, "Invalid send listener");
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid max in-flight messages: " + maxInFlight);
+        }
+        return new ProducerSink<>(this, topic, maxInFlight, listener);
+    }
+
+    /**
+     * Sends the message to the given topic, with the default key
+     *
+     * @param message  the message to be sent
+     * @param dstTopic the destination topic
+     * @return completed with the message offset once acknowledged, or {@code -1} if the offset is unknown, i.e. the
+     * message was filtered, spooled or sent within a transaction
+     */
+    CompletableFuture<Long> sendAsync(M message, String dstTopic) {
+        final CompletableFuture<Long> ack = new CompletableFuture<>();
+        try {
+            send(message, null, null, dstTopic, null, ack);
+        } catch (Exception e) {
+            ack.completeExceptionally(e);
+        }
+        return ack;
+    }
+
+    /**
+     * Wraps the message in a {@link KafkaMessage} and sends it to the given topic, unless filtered
+     *
+     * @param value the message encoded for a previous destination, if any
+     * @param ack   completed with the message offset once acknowledged, if any
+     * @return the encoded message, or the given one if filtered
+     */
+    private byte[] send(M message, String key, String traceabilityId, String dstTopic, byte[] value, CompletableFuture<Long> ack) {
+        final Class<?> msgType = message.getClass();
+
+        //check the pre-configured filters if the message is to be discarded
+        if (isFiltered(dstTopic, msgType)) {
+            if (ack != null) ack.complete(UNKNOWN_OFFSET);
+            return value;
+        }
+
+        // wrap the incoming proto message in the KafkaMessage
+        final byte[] encoded = value != null && encodesEnvelope ? value : encode(message, traceabilityId, dstTopic);
+        // the key for this message according with the defined conventions
+        final byte[] msgKey = null != key ? keySerializer.serialize(dstTopic, key) : defaultKey(dstTopic, msgType);
+
+        // the small messages are aggregated, the partitioned and transactional ones are sent on their own
+        final ProducerAggregator aggregator = this.aggregator;
+        if (aggregator != null && partitioner == null && currentTransaction() == null) {
+            // the large ones are sent in turn with the aggregates of their key
+            aggregator.append(dstTopic, msgKey, encoded, ack, () -> dispatch(dstTopic, msgKey, encoded, message, key, ack));
+            return encoded;
+        }
+        dispatch(dstTopic, msgKey, encoded, message, key, ack);
+        return encoded;
+    }
+
+    /**
+     * Wraps the message in a {@link KafkaMessage} and encodes it
+     *
+     * @param message        the message to be sent
+     * @param traceabilityId the message traceability id, if any
+     * @param dstTopic       the destination topic
+     * @return the encoded {@link KafkaMessage}
+     */
+    private byte[] encode(M message, String traceabilityId, String dstTopic) {
+        if (encodesEnvelope) {
+            return KafkaMessageEncoder.encode((Message) message, traceabilityId);
+        }
+        // custom serializers get the wrapped message, for each destination
+        final KafkaMessage kafkaMsg = KafkaMessage.newBuilder()
+                .setPayloadClass(message.getClass().getName())
+                .setPayload(Any.pack((Message) message))
+                .setTraceabilityId(traceabilityId == null ? "" : traceabilityId)
+                .build();
+        return valueSerializer.serialize(dstTopic, kafkaMsg);
+    }
+
+    @Override
+    public void warmUp(final String... topics) throws MessagingException {
+        Objects.requireNonNull(topics, "Registered Invalid topics");
+        final List<CompletableFuture<KafkaSender<byte[], byte[]>>> senders = new ArrayList<>(topics.length);
+        for (String topic : topics) {
+            Objects.requireNonNull(topic, "Invalid topic");
+            senders.add(topicSender(topic).creation());
+        }
+
+        try {
+            CompletableFuture.allOf(senders.toArray(new CompletableFuture[senders.size()])).join();
+        } catch (CompletionException e) {
+            throw new MessagingException("Unable to create the kafka senders for topics: " + Arrays.toString(topics), e.getCause());
+        }
+    }
+
+    @Override
+    public void setPartitioner(final MessagePartitioner<? super M> partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * Sends the message through the topic's kafka sender, or queues it on the sender creation if not yet available
+     *
+     * @param dstTopic the destination topic
+     * @param key      the serialized message key
+     * @param value    the encoded message
+     * @param message  the original message, to be partitioned
+     * @param userKey  the user supplied message key, if any
+     * @param ack      completed with the message offset once acknowledged, if any
+     */
+    private void dispatch(final String dstTopic, final byte[] key, final byte[] value, final M message, final String userKey,
+                          final CompletableFuture<Long> ack) {
+        // within a receiver transaction of the same cluster, the message is committed along with the consumed offsets
+        final KafkaTransaction transaction = currentTransaction();
+        if (transaction != null) {
+            final int partitions = partitioner == null ? 0 : transaction.partitionCount(dstTopic);
+            transaction.send(dstTopic, partition(dstTopic, message, userKey, partitions), key, value);
+            if (ack != null) ack.complete(UNKNOWN_OFFSET);
+            return;
+        }
+
+        // fast path: the sender is created and the messages queued on its creation were sent
+        final TopicSender topicSender = topicSender(dstTopic);
+        final KafkaSender<byte[], byte[]> sender = topicSender.sender;
+        if (sender != null) {
+            send(sender, dstTopic, key, value, message, userKey, ack);
+            return;
+        }
+
+        // slow path: queue the message, sent by the thread creating the sender once created
+        final QueuedSend queued = new QueuedSend(dstTopic, key, value, message, userKey, ack, spool == null && ack == null);
+        if (!topicSender.enqueue(queued)) {
+            send(topicSender.sender, dstTopic, key, value, message, userKey, ack);
+            return;
+        }
+
+        // without a spool nor an acknowledgement, the failures are reported to the caller
+        if (queued.dispatched != null) {
+            try {
+                queued.dispatched.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof MessagingException) throw (MessagingException) cause;
+                throw new MessagingException("Unable to send message to " + dstTopic, cause);
             }
         }
     }
 
+    /**
+     * @param dstTopic the destination topic
+     * @return the kafka sender of the given topic, created or not
+     */
+    private TopicSender topicSender(final String dstTopic) {
+        final TopicSender topicSender = kafkaSenders.get(dstTopic);
+        return topicSender != null ? topicSender : kafkaSenders.computeIfAbsent(dstTopic, TopicSender::new);
+    }
+
+    /**
+     * Sends a record of aggregated messages, flushed by the aggregator
+     *
+     * @param dstTopic  the destination topic
+     * @param key       the serialized key of the aggregated messages
+     * @param aggregate the encoded aggregate {@link KafkaMessage}
+     * @param acks      the acknowledgements of the aggregated messages, completed along with the record one
+     */
+    void sendAggregate(String dstTopic, byte[] key, byte[] aggregate, List<CompletableFuture<Long>> acks) {
+        CompletableFuture<Long> ack = null;
+        if (!acks.isEmpty()) {
+            ack = new CompletableFuture<>();
+            ack.whenComplete((offset, e) -> acks.forEach(each -> {
+                if (e == null) each.complete(offset);
+                else each.completeExceptionally(e);
+            }));
+        }
+        dispatch(dstTopic, key, aggregate, null, null, ack);
+    }
+
+    /**
+     * @return the receiver transaction bound to the current thread, if it's of this producer's cluster
+     */
+    private KafkaTransaction currentTransaction() {
+        final KafkaTransaction transaction = KafkaTransaction.current();
+        return transaction != null && transaction.cluster.equals(cluster) ? transaction : null;
+    }
+
+    /**
+     * Sends the message to the partition selected by the partitioner, if any
+     */
+    private void send(KafkaSender<byte[], byte[]> sender, String dstTopic, byte[] key, byte[] value, M message, String userKey,
+                      CompletableFuture<Long> ack) {
+        final int partitions = partitioner == null ? 0 : sender.partitionCount();
+        final int partition = partition(dstTopic, message, userKey, partitions);
+
+        // keep the messages in order while there are spooled ones
+        final ProducerSpool spool = this.spool;
+        if (spool != null && spool.isSpooling()) {
+            spool(dstTopic, partition, key, value, ack);
+            return;
+        }
+
+        final ListenableFuture<SendResult<byte[], byte[]>> result = partition == MessagePartitioner.DEFAULT_PARTITION
+                ? sender.send(key, value)
+                : sender.send(partition, key, value);
+        if (spool != null || ack != null) {
+            result.addCallback(sent -> {
+                if (ack != null) ack.complete(sent.getRecordMetadata().offset());
+            }, e -> failed(dstTopic, partition, key, value, ack, e));
+        }
+    }
+
+    /**
+     * Spools the message which failed to be sent, if the spool is enabled, or fails its acknowledgement otherwise
+     */
+    private void failed(String dstTopic, int partition, byte[] key, byte[] value, CompletableFuture<Long> ack, Throwable e) {
+        if (spool != null) {
+            spool(dstTopic, partition, key, value, ack);
+        } else if (ack != null) {
+            ack.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Appends the message to the spool, to be replayed once the brokers are reachable
+     */
+    private void spool(String dstTopic, int partition, byte[] key, byte[] value, CompletableFuture<Long> ack) {
+        log.warn("Spooling message to {}", dstTopic);
+        final boolean spooled = spool.append(dstTopic, partition, key, value);
+        if (ack == null) return;
+        if (spooled) {
+            ack.complete(UNKNOWN_OFFSET);
+        } else {
+            ack.completeExceptionally(new MessagingException("Unable to send or spool message to " + dstTopic));
+        }
+    }
+
+    /**
+     * Selects the destination partition of the message through the partitioner, if any
+     *
+     * @param dstTopic   the destination topic
+     * @param message    the original message, {@code null} for aggregated messages
+     * @param userKey    the user supplied message key, if any
+     * @param partitions the number of partitions of the destination topic, {@code 0} if unknown
+     * @return the destination partition, or {@link MessagePartitioner#DEFAULT_PARTITION} to partition by key
+     */
+    private int partition(String dstTopic, M message, String userKey, int partitions) {
+        final MessagePartitioner<? super M> partitioner = this.partitioner;
+        return partitioner == null || partitions == 0 || message == null
+                ? MessagePartitioner.DEFAULT_PARTITION
+                : partitioner.partition(dstTopic, message, userKey, partitions);
+    }
+
+    /**
+     * Returns the default key for the given topic and message type, {@code <topic name>|<fully qualified message name>},
+     * serialized by the key serializer and cached on first use
+     *
+     * @param dstTopic the destination topic
+     * @param msgType  the protobuf message type
+     * @return the serialized default key
+     */
+    private byte[] defaultKey(final String dstTopic, final Class<?> msgType) {
+        return defaultKeys.computeIfAbsent(dstTopic, topic -> new ConcurrentHashMap<>())
+                .computeIfAbsent(msgType, type -> keySerializer.serialize(dstTopic, new StringMessageKey(dstTopic, type.getName()).getKey()));
+    }
+
     /**
      * Checks if some message is not to be sent due to an existing pre configured filter
      *
@@ -134,7 +442,166 @@ final class ProtobufProducer<M> implements MessageProducer<M> {
      */
     final void close() {
         log.info("Stopping all kafka producers..");
-        this.kafkaSenders.values().forEach(KafkaSender::stop);
+        if (aggregator != null) aggregator.close();
+        this.kafkaSenders.values().forEach(TopicSender::stop);
+        this.sendersExecutor.shutdown();
+        if (spool != null) spool.close();
+    }
+
+    /**
+     * The kafka sender of a topic, created on a producer-owned thread which then sends the messages queued meanwhile,
+     * one after the other and in order, until none is left. A failed creation fails the queued messages, and is
+     * started again by the next one.
+     */
+    private final class TopicSender {
+        private final String topic;
+        // the created sender, only set once the messages queued on its creation are sent
+        private volatile KafkaSender<byte[], byte[]> sender;
+        // the last creation, and whether it's still running, guarded by this
+        private CompletableFuture<KafkaSender<byte[], byte[]>> creation;
+        private boolean creating;
+        // the messages queued on the running creation, in order, guarded by this
+        private final Queue<QueuedSend> queued = new ArrayDeque<>();
+
+        TopicSender(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Queues the message on the sender creation, starting it if needed
+         *
+         * @param send the queued message
+         * @return {@code false} if the sender was created meanwhile, the message being then to be sent right away
+         */
+        boolean enqueue(QueuedSend send) {
+            final CompletableFuture<KafkaSender<byte[], byte[]>> started;
+            synchronized (this) {
+                if (sender != null) return false;
+                queued.add(send);
+                started = start();
+            }
+            if (started != null) create(started);
+            return true;
+        }
+
+        /**
+         * @return the sender creation, started if needed
+         */
+        CompletableFuture<KafkaSender<byte[], byte[]>> creation() {
+            final CompletableFuture<KafkaSender<byte[], byte[]>> started;
+            final CompletableFuture<KafkaSender<byte[], byte[]>> creation;
+            synchronized (this) {
+                started = sender == null ? start() : null;
+                creation = this.creation;
+            }
+            if (started != null) create(started);
+            return creation;
+        }
+
+        /**
+         * Starts a new creation, unless one is running. Guarded by this
+         *
+         * @return the new creation, or {@code null} if one is running
+         */
+        private CompletableFuture<KafkaSender<byte[], byte[]>> start() {
+            if (creating) return null;
+            this.creating = true;
+            this.creation = new CompletableFuture<>();
+            return creation;
+        }
+
+        private void create(CompletableFuture<KafkaSender<byte[], byte[]>> creation) {
+            try {
+                sendersExecutor.execute(() -> {
+                    try {
+                        drain(creation, new KafkaSender<>(topic, cluster, new ByteArraySerializer(), new ByteArraySerializer()), null);
+                    } catch (RuntimeException e) {
+                        log.error("Unable to create Kafka Sender for Topic: {}", topic, e);
+                        drain(creation, null, e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                drain(creation, null, new MessagingException("The producer of topic " + topic + " is closed"));
+            }
+        }
+
+        /**
+         * Sends, or fails, the queued messages one at a time until none is left, then completes the creation
+         */
+        private void drain(CompletableFuture<KafkaSender<byte[], byte[]>> creation, KafkaSender<byte[], byte[]> created,
+                           RuntimeException error) {
+            while (true) {
+                final QueuedSend next;
+                synchronized (this) {
+                    next = queued.poll();
+                    if (next == null) {
+                        this.sender = created;
+                        this.creating = false;
+                        break;
+                    }
+                }
+                next.run(created, error);
+            }
+            if (created != null) {
+                creation.complete(created);
+            } else {
+                creation.completeExceptionally(error);
+            }
+        }
+
+        /**
+         * Stops the sender, once created if it's still being created
+         */
+        void stop() {
+            final CompletableFuture<KafkaSender<byte[], byte[]>> creation;
+            synchronized (this) {
+                creation = this.creation;
+            }
+            if (creation != null) creation.thenAccept(KafkaSender::stop);
+        }
+    }
+
+    /**
+     * A message queued on the creation of its topic sender
+     */
+    private final class QueuedSend {
+        private final String dstTopic;
+        private final byte[] key;
+        private final byte[] value;
+        private final M message;
+        private final String userKey;
+        private final CompletableFuture<Long> ack;
+        // completed once the message is handed to the sender, if the caller waits for it
+        private final CompletableFuture<Void> dispatched;
+
+        QueuedSend(String dstTopic, byte[] key, byte[] value, M message, String userKey, CompletableFuture<Long> ack,
+                   boolean awaited) {
+            this.dstTopic = dstTopic;
+            this.key = key;
+            this.value = value;
+            this.message = message;
+            this.userKey = userKey;
+            this.ack = ack;
+            this.dispatched = awaited ? new CompletableFuture<>() : null;
+        }
+
+        /**
+         * Sends the message through the created sender, or fails it if the sender couldn't be created
+         */
+        void run(KafkaSender<byte[], byte[]> created, RuntimeException error) {
+            if (created != null) {
+                try {
+                    send(created, dstTopic, key, value, message, userKey, ack);
+                    if (dispatched != null) dispatched.complete(null);
+                    return;
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+            if (dispatched != null) dispatched.completeExceptionally(error);
+            // the message is spooled if it couldn't be sent
+            failed(dstTopic, MessagePartitioner.DEFAULT_PARTITION, key, value, ack, error);
+        }
     }
 
 }
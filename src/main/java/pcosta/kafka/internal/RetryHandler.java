@@ -0,0 +1,280 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MessageKey;
+import pcosta.kafka.api.MessageListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Handles the messages whose delivery failed, through increasingly delayed retry tiers:
+ * <ol>
+ * <li>in-memory redelivery with exponential backoff, handed back to the receiver thread once due</li>
+ * <li>retry topics {@code <topic>.retry.<tier>}, each one with a fixed delay, consumed along with the source topic</li>
+ * <li>the dead-letter topic {@code <topic>.dlq}, carrying the original bytes and the error</li>
+ * </ol>
+ * The retried records carry the source topic and offset, the due time, the failed listeners and the last error as
+ * headers. Messages are only retried for the listeners which failed to handle them.
+ * <p>
+ * The in-memory redeliveries are not durable: the ones still scheduled once closed are forwarded to the first retry
+ * topic, but they're lost if the process dies.
+ */
+final class RetryHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryHandler.class);
+
+    // the api properties
+    static final String RETRY_ENABLED = "api.receiver.retry.enabled";
+    static final String RETRY_ATTEMPTS = "api.receiver.retry.memory.attempts";
+    static final String RETRY_BACKOFF = "api.receiver.retry.memory.backoff.ms";
+    static final String RETRY_MAX_PENDING = "api.receiver.retry.memory.max.pending";
+    static final String RETRY_TOPIC_DELAYS = "api.receiver.retry.topic.delays.ms";
+
+    private static final int DEFAULT_ATTEMPTS = 3;
+    private static final long DEFAULT_BACKOFF = 100;
+    private static final int DEFAULT_MAX_PENDING = 1000;
+    private static final String DEFAULT_TOPIC_DELAYS = "5000,60000";
+
+    // the retried records headers
+    static final String SOURCE_TOPIC_HEADER = "api.retry.source.topic";
+    static final String SOURCE_OFFSET_HEADER = "api.retry.source.offset";
+    static final String TIER_HEADER = "api.retry.tier";
+    static final String DUE_HEADER = "api.retry.due";
+    static final String LISTENERS_HEADER = "api.retry.listeners";
+    static final String ERROR_CLASS_HEADER = "api.error.class";
+    static final String ERROR_MESSAGE_HEADER = "api.error.message";
+
+    // the in-memory retries
+    private final int attempts;
+    private final long backoff;
+    private final int maxPending;
+    private final AtomicInteger pending;
+    private final ScheduledExecutorService scheduler;
+    // the fallbacks of the scheduled redeliveries not yet due, run once closed
+    private final Set<Runnable> scheduled = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    // the delay of each retry topic tier
+    private final long[] topicDelays;
+    // the retry and dead-letter topics producer
+    private final Producer<byte[], byte[]> producer;
+
+    /**
+     * Default constructor
+     *
+     * @param attempts    the number of in-memory redeliveries
+     * @param backoff     the delay before the first in-memory redelivery, doubled on each attempt
+     * @param maxPending  the maximum number of pending in-memory redeliveries, beyond which messages go to the retry topics
+     * @param topicDelays the delay of each retry topic tier
+     * @param producer    the retry and dead-letter topics producer
+     */
+    RetryHandler(int attempts, long backoff, int maxPending, long[] topicDelays, Producer<byte[], byte[]> producer) {
+        this.attempts = attempts;
+        this.backoff = backoff;
+        this.maxPending = maxPending;
+        this.pending = new AtomicInteger();
+        this.topicDelays = topicDelays;
+        this.producer = producer;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "KafkaRetryScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a retry handler with the tiers defined at the configuration file, if enabled
+     *
+     * @return the retry handler, or {@code null} if the retries are disabled
+     */
+    static RetryHandler fromProperties() {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        if (!reader.getBooleanProperty(RETRY_ENABLED, false)) {
+            return null;
+        }
+        final long[] delays = Arrays.stream(reader.getProperties().getProperty(RETRY_TOPIC_DELAYS, DEFAULT_TOPIC_DELAYS).split(","))
+                .map(String::trim)
+                .filter(delay -> !delay.isEmpty())
+                .mapToLong(Long::parseLong)
+                .toArray();
+
+        final Map<String, Object> properties = reader.loadSenderProps();
+        properties.put(ProducerConfig.CLIENT_ID_CONFIG, "kafka_proto_api->retries");
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+
+        return new RetryHandler(
+                reader.getIntProperty(RETRY_ATTEMPTS, DEFAULT_ATTEMPTS),
+                reader.getLongProperty(RETRY_BACKOFF, DEFAULT_BACKOFF),
+                reader.getIntProperty(RETRY_MAX_PENDING, DEFAULT_MAX_PENDING),
+                delays,
+                new KafkaProducer<>(properties, new ByteArraySerializer(), new ByteArraySerializer()));
+    }
+
+    /**
+     * Schedules an in-memory redelivery, unless the attempts are exhausted or too many redeliveries are pending,
+     * e.g. while a downstream dependency is down
+     *
+     * @param attempt    the redelivery attempt, starting at {@code 1}
+     * @param redelivery hands the redelivery over to the receiver thread once due
+     * @param fallback   forwards the message to the first retry topic, if the redelivery is still scheduled once closed
+     * @return {@code true} if scheduled, {@code false} if the message is to be forwarded to the retry topics
+     */
+    boolean schedule(int attempt, Runnable redelivery, Runnable fallback) {
+        if (closed || attempt > attempts) {
+            return false;
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            log.debug("Too many pending in-memory redeliveries, forwarding to the retry topics");
+            return false;
+        }
+        // a distinct instance for each schedule, taken out either by the due redelivery or by close
+        final Runnable forward = () -> fallback.run();
+        scheduled.add(forward);
+        try {
+            scheduler.schedule(() -> {
+                try {
+                    if (scheduled.remove(forward)) redelivery.run();
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }, backoff << (attempt - 1), MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            // closed meanwhile: unless already forwarded by close, the message is to be forwarded by the caller
+            return !scheduled.remove(forward);
+        }
+        return true;
+    }
+
+    /**
+     * Forwards a message to the given retry tier topic, or to the dead-letter topic if there are no more tiers
+     *
+     * @param srcTopic the source topic
+     * @param key      the message key
+     * @param bytes    the original message bytes
+     * @param offset   the source offset
+     * @param tier     the retry tier
+     * @param failures the errors by failed listener
+     */
+    void forward(String srcTopic, MessageKey key, byte[] bytes, long offset, int tier, Map<MessageListener, Exception> failures) {
+        final Exception error = failures.values().stream().reduce((first, last) -> last).orElse(null);
+        send(srcTopic, key, bytes, offset, tier, failures.keySet(), error);
+    }
+
+    /**
+     * Forwards an unprocessable message straight to the dead-letter topic
+     *
+     * @param srcTopic the source topic
+     * @param key      the message key
+     * @param bytes    the original message bytes
+     * @param offset   the source offset
+     * @param error    the processing error
+     */
+    void deadLetter(String srcTopic, MessageKey key, byte[] bytes, long offset, Exception error) {
+        send(srcTopic, key, bytes, offset, topicDelays.length, Collections.emptyList(), error);
+    }
+
+    private void send(String srcTopic, MessageKey key, byte[] bytes, long offset, int tier,
+                      Collection<MessageListener> listeners, Exception error) {
+        final boolean deadLetter = tier >= topicDelays.length;
+        final String dstTopic = deadLetter ? deadLetterTopic(srcTopic) : retryTopic(srcTopic, tier);
+
+        final List<Header> headers = new ArrayList<>();
+        headers.add(header(SOURCE_TOPIC_HEADER, srcTopic));
+        headers.add(header(SOURCE_OFFSET_HEADER, String.valueOf(offset)));
+        headers.add(header(TIER_HEADER, String.valueOf(tier)));
+        if (!deadLetter) {
+            headers.add(header(DUE_HEADER, String.valueOf(System.currentTimeMillis() + topicDelays[tier])));
+        }
+        headers.add(header(LISTENERS_HEADER, listeners.stream()
+                .map(listener -> listener.getClass().getName())
+                .collect(Collectors.joining(","))));
+        if (error != null) {
+            headers.add(header(ERROR_CLASS_HEADER, error.getClass().getName()));
+            headers.add(header(ERROR_MESSAGE_HEADER, String.valueOf(error.getMessage())));
+        }
+
+        log.warn("Forwarding message from {} at offset {} to {}", srcTopic, offset, dstTopic);
+        final byte[] keyBytes = key == null ? null : key.getKey().getBytes(StandardCharsets.UTF_8);
+        producer.send(new ProducerRecord<>(dstTopic, null, null, keyBytes, bytes, headers), (metadata, e) -> {
+            if (e != null) log.error("Unable to forward message from {} at offset {} to {}", srcTopic, offset, dstTopic, e);
+        });
+    }
+
+    /**
+     * @param srcTopic the source topic
+     * @return the retry topics of the given source topic, by tier
+     */
+    List<String> retryTopics(String srcTopic) {
+        final List<String> topics = new ArrayList<>(topicDelays.length);
+        for (int tier = 0; tier < topicDelays.length; tier++) {
+            topics.add(retryTopic(srcTopic, tier));
+        }
+        return topics;
+    }
+
+    static String retryTopic(String srcTopic, int tier) {
+        return srcTopic + ".retry." + tier;
+    }
+
+    static String deadLetterTopic(String srcTopic) {
+        return srcTopic + ".dlq";
+    }
+
+    /**
+     * @param headers the retried record headers
+     * @return the time at which the record is due for redelivery, or {@code 0} if not defined
+     */
+    static long dueTime(Headers headers) {
+        final String due = headerValue(headers, DUE_HEADER);
+        return due == null ? 0 : Long.parseLong(due);
+    }
+
+    /**
+     * @param headers the retried record headers
+     * @param key     the header key
+     * @return the last value of the header as a String, or {@code null} if absent
+     */
+    static String headerValue(Headers headers, String key) {
+        final Header header = headers.lastHeader(key);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    private static Header header(String key, String value) {
+        return new RecordHeader(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stops the scheduled redeliveries, forwarding the ones not yet due to the first retry topic, and closes the producer
+     */
+    void close() {
+        this.closed = true;
+        scheduler.shutdownNow();
+        for (Runnable forward : scheduled) {
+            if (scheduled.remove(forward)) forward.run();
+        }
+        producer.close();
+    }
+}
@@ -0,0 +1,21 @@
+package pcosta.kafka.internal;
+
+import pcosta.kafka.api.MessagingException;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A {@link MessagingException} without stack trace, for errors raised once per received message, where the stack
+ * trace would be both meaningless and expensive to fill
+ */
+class StacklessMessagingException extends MessagingException {
+
+    /**
+     * Default constructor
+     *
+     * @param message the error message
+     */
+    StacklessMessagingException(final String message) {
+        super(message, null, false);
+    }
+}
@@ -0,0 +1,307 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pcosta.kafka.api.MessagingException;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * A {@link Spliterator} over the messages of a bounded offset range of every partition of a topic, so that a topic can
+ * be read as a {@link Stream}, e.g. by offline jobs.
+ * <p>
+ * The spliterator splits by partition first and then by offset range, as long as the ranges are larger than
+ * {@code api.reader.split.records}, so that a parallel stream reads them concurrently. Each split reads its ranges in
+ * offset order through its own kafka consumer, which neither joins the consumer group nor commits offsets.
+ * <p>
+ * The consumers are closed once their ranges are read, or when the stream is closed.
+ */
+@SuppressWarnings("unchecked")
+final class TopicSpliterator<M extends Message> implements Spliterator<M> {
+
+    private static final Logger log = LoggerFactory.getLogger(TopicSpliterator.class);
+
+    // the api properties
+    static final String READER_SPLIT_RECORDS = "api.reader.split.records";
+
+    private static final long DEFAULT_SPLIT_RECORDS = 10_000;
+    private static final int POLL_TIMEOUT = 1000;
+
+    // the read payload type
+    private final Class<M> messageType;
+    private final ProtobufDeserializer<M> protoDeserializer = new ProtobufDeserializer<>();
+    // creates the consumers of the splits
+    private final Supplier<Consumer<String, byte[]>> consumerFactory;
+    // the minimum number of offsets of a split range
+    private final long splitRecords;
+    // the consumers still open, shared by all the splits
+    private final Set<Consumer<String, byte[]>> openConsumers;
+
+    // the offset ranges to be read, the first one being the one read
+    private final Deque<OffsetRange> ranges;
+    // the consumer of this split, once the traversal has started
+    private Consumer<String, byte[]> consumer;
+    private boolean positioned;
+    // the polled messages not yet traversed
+    private final Deque<M> buffer = new ArrayDeque<>();
+
+    /**
+     * Default constructor
+     *
+     * @param messageType     the read payload type, messages of other types are skipped
+     * @param ranges          the offset ranges to be read
+     * @param consumerFactory creates the consumers of the splits
+     * @param splitRecords    the minimum number of offsets of a split range
+     */
+    TopicSpliterator(Class<M> messageType, List<OffsetRange> ranges, Supplier<Consumer<String, byte[]>> consumerFactory,
+                     long splitRecords) {
+        this(messageType, new ArrayDeque<>(ranges), consumerFactory, Math.max(1, splitRecords),
+                Collections.newSetFromMap(new ConcurrentHashMap<>()));
+    }
+
+    private TopicSpliterator(Class<M> messageType, Deque<OffsetRange> ranges, Supplier<Consumer<String, byte[]>> consumerFactory,
+                             long splitRecords, Set<Consumer<String, byte[]>> openConsumers) {
+        this.messageType = messageType;
+        this.ranges = ranges;
+        this.consumerFactory = consumerFactory;
+        this.splitRecords = splitRecords;
+        this.openConsumers = openConsumers;
+    }
+
+    /**
+     * Creates a stream of the messages within {@code [fromOffset, toOffset)} of every partition of the given topic,
+     * with the consumer properties defined at the configuration file
+     *
+     * @param topic       the read topic
+     * @param messageType the read payload type
+     * @param fromOffset  the first offset to be read, of each partition
+     * @param toOffset    the offset following the last one to be read, of each partition
+     * @return the sequential stream, to be closed if not fully traversed
+     */
+    static <M extends Message> Stream<M> stream(String topic, Class<M> messageType, long fromOffset, long toOffset) {
+        final PropertiesReader reader = PropertiesReader.getInstance();
+        final Map<String, Object> properties = reader.loadConsumerProps();
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, topic.toLowerCase() + "Reader");
+        return stream(topic, messageType, fromOffset, toOffset, properties,
+                reader.getLongProperty(READER_SPLIT_RECORDS, DEFAULT_SPLIT_RECORDS));
+    }
+
+    /**
+     * Creates a stream of the messages within {@code [fromOffset, toOffset)} of every partition of the given topic,
+     * clamped to the offsets retained by each partition
+     *
+     * @param topic              the read topic
+     * @param messageType        the read payload type
+     * @param fromOffset         the first offset to be read, of each partition
+     * @param toOffset           the offset following the last one to be read, of each partition
+     * @param consumerProperties the consumers properties
+     * @param splitRecords       the minimum number of offsets of a split range
+     * @return the sequential stream, to be closed if not fully traversed
+     */
+    static <M extends Message> Stream<M> stream(String topic, Class<M> messageType, long fromOffset, long toOffset,
+                                                Map<String, Object> consumerProperties, long splitRecords) {
+        final Map<String, Object> properties = new HashMap<>(consumerProperties);
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        final AtomicInteger ids = new AtomicInteger();
+        final Supplier<Consumer<String, byte[]>> consumerFactory = () -> {
+            final Map<String, Object> clientProperties = new HashMap<>(properties);
+            clientProperties.put(ConsumerConfig.CLIENT_ID_CONFIG, topic.toLowerCase() + "Reader-" + ids.getAndIncrement());
+            return new KafkaConsumer<>(clientProperties);
+        };
+
+        final List<OffsetRange> ranges = new ArrayList<>();
+        try (Consumer<String, byte[]> consumer = consumerFactory.get()) {
+            final List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+            if (partitions == null || partitions.isEmpty()) {
+                throw new MessagingException("Unable to read unknown topic: " + topic);
+            }
+            final List<TopicPartition> topicPartitions = new ArrayList<>();
+            partitions.forEach(info -> topicPartitions.add(new TopicPartition(topic, info.partition())));
+            topicPartitions.sort(Comparator.comparingInt(TopicPartition::partition));
+
+            final Map<TopicPartition, Long> beginning = consumer.beginningOffsets(topicPartitions);
+            final Map<TopicPartition, Long> end = consumer.endOffsets(topicPartitions);
+            for (TopicPartition topicPartition : topicPartitions) {
+                final long from = Math.max(fromOffset, beginning.get(topicPartition));
+                final long to = Math.min(toOffset, end.get(topicPartition));
+                if (from < to) ranges.add(new OffsetRange(topicPartition, from, to));
+            }
+        }
+        log.info("Reading {} offset ranges of {} from offset {} to {}", ranges.size(), topic, fromOffset, toOffset);
+
+        final TopicSpliterator<M> spliterator = new TopicSpliterator<>(messageType, ranges, consumerFactory, splitRecords);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    @Override
+    public boolean tryAdvance(java.util.function.Consumer<? super M> action) {
+        while (buffer.isEmpty()) {
+            if (!fetch()) return false;
+        }
+        action.accept(buffer.poll());
+        return true;
+    }
+
+    /**
+     * Polls the range being read, moving to the next one once read
+     *
+     * @return {@code false} if there are no more ranges to be read
+     */
+    private boolean fetch() {
+        final OffsetRange range = ranges.peek();
+        if (range == null) {
+            closeConsumer();
+            return false;
+        }
+        if (consumer == null) {
+            this.consumer = consumerFactory.get();
+            openConsumers.add(consumer);
+        }
+        if (!positioned) {
+            consumer.assign(singletonList(range.topicPartition));
+            consumer.seek(range.topicPartition, range.from);
+            this.positioned = true;
+        }
+
+        // compacted away offsets are skipped by the consumer
+        if (consumer.position(range.topicPartition) >= range.to) {
+            ranges.poll();
+            this.positioned = false;
+            return true;
+        }
+        for (ConsumerRecord<String, byte[]> record : consumer.poll(POLL_TIMEOUT).records(range.topicPartition)) {
+            if (record.offset() >= range.to) break;
+            buffer.addAll(decode(record));
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the payloads of the given record, one per message aggregated into it
+     *
+     * @return the payloads in order, without the ones of other types, empty if malformed or a tombstone
+     */
+    private List<M> decode(ConsumerRecord<String, byte[]> record) {
+        if (record.value() == null) return emptyList();
+        try {
+            final KafkaMessage received = KafkaMessage.parseFrom(record.value());
+            final List<M> messages = new ArrayList<>(Math.max(1, received.getAggregatedCount()));
+            for (KafkaMessage kafkaMsg : received.getAggregatedCount() == 0 ? singletonList(received) : received.getAggregatedList()) {
+                if (messageType == KafkaMessage.class) {
+                    messages.add((M) kafkaMsg);
+                } else if (messageType.getName().equals(kafkaMsg.getPayloadClass())) {
+                    messages.add(protoDeserializer.parseFromV3(kafkaMsg, ExtensionRegistry.getEmptyRegistry()));
+                }
+            }
+            return messages;
+        } catch (InvalidProtocolBufferException | IllegalStateException e) {
+            log.warn("Skipping malformed message from {}-{} at offset {}", record.topic(), record.partition(), record.offset(), e);
+            return emptyList();
+        }
+    }
+
+    @Override
+    public Spliterator<M> trySplit() {
+        // only the splits not yet traversed are split
+        if (consumer != null) return null;
+
+        final Deque<OffsetRange> split = new ArrayDeque<>();
+        if (ranges.size() > 1) {
+            // hand off the second half of the ranges, i.e. of the partitions
+            for (int i = ranges.size() / 2; i > 0; i--) {
+                split.addFirst(ranges.pollLast());
+            }
+        } else if (ranges.size() == 1 && ranges.peek().size() >= 2 * splitRecords) {
+            // hand off the second half of the single range
+            final OffsetRange range = ranges.poll();
+            final long middle = range.from + range.size() / 2;
+            ranges.add(new OffsetRange(range.topicPartition, range.from, middle));
+            split.add(new OffsetRange(range.topicPartition, middle, range.to));
+        } else {
+            return null;
+        }
+        return new TopicSpliterator<>(messageType, split, consumerFactory, splitRecords, openConsumers);
+    }
+
+    /**
+     * @return the number of offsets still to be read, an estimate of the number of messages as a record may hold
+     * several aggregated ones
+     */
+    @Override
+    public long estimateSize() {
+        long size = 0;
+        for (OffsetRange range : ranges) {
+            size += range.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    private void closeConsumer() {
+        if (consumer != null && openConsumers.remove(consumer)) {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Closes the consumers of every split still open, e.g. of a short-circuited stream
+     */
+    void close() {
+        for (Consumer<String, byte[]> open : openConsumers) {
+            if (openConsumers.remove(open)) {
+                try {
+                    open.close();
+                } catch (Exception e) {
+                    log.warn("Unable to close topic reader consumer", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The {@code [from, to)} offset range of a topic partition
+     */
+    static final class OffsetRange {
+        final TopicPartition topicPartition;
+        final long from;
+        final long to;
+
+        OffsetRange(TopicPartition topicPartition, long from, long to) {
+            this.topicPartition = topicPartition;
+            this.from = from;
+            this.to = to;
+        }
+
+        long size() {
+            return to - from;
+        }
+    }
+}
@@ -12,9 +12,7 @@ import pcosta.kafka.api.*;
 import pcosta.kafka.api.annotation.*;
 import pcosta.kafka.configuration.ReceiverConfigurationBuilder;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Map;
+import java.util.*;
 
 /**
  * The messaging bootstrap that shall scan for the messaging configuration directives and apply then in the messaging
@@ -238,9 +236,13 @@ class KafkaApiBootstrap implements ApplicationListener<ContextRefreshedEvent> {
                     .addTopics(configuration.topic())
                     .addInitialOffset(((MessageListener<Message>) beanEntry.getValue()).initialOffset(configuration.topic()))
                     .addTopicPartition(configuration.partition())
+                    .withMultiplexedReceiver(configuration.multiplexed())
+                    .withParallelListeners(configuration.parallel())
+                    .withCluster(configuration.cluster())
                     .withMessageType((Class<Message>) configuration.message())
                     .withExtensionRegistry(createExtensionRegistry(configuration.extensionRegistry()))
                     .addFilters(createMessageFilters(configuration.filters(), context))
+                    .addFieldMatches(createFieldMatches(configuration.where()))
                     .buildListener();
         }
     }
@@ -290,4 +292,18 @@ class KafkaApiBootstrap implements ApplicationListener<ContextRefreshedEvent> {
         return filters;
     }
 
+    /**
+     * Creates the content based predicates for the given configuration
+     *
+     * @param fieldMatches the field match annotations
+     * @return the accepted values by field path
+     */
+    private Map<String, Collection<String>> createFieldMatches(final FieldMatch[] fieldMatches) {
+        final Map<String, Collection<String>> matches = new LinkedHashMap<>();
+        for (final FieldMatch fieldMatch : fieldMatches) {
+            matches.computeIfAbsent(fieldMatch.field(), field -> new ArrayList<>()).addAll(Arrays.asList(fieldMatch.values()));
+        }
+        return matches;
+    }
+
 }
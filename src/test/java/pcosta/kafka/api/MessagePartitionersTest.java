@@ -0,0 +1,94 @@
+package pcosta.kafka.api;
+
+import org.apache.kafka.common.utils.Utils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the {@link MessagePartitioners} class.
+ *
+ * @author Pedro Costa
+ */
+public class MessagePartitionersTest {
+
+    private static final String TOPIC = "Topic";
+    private static final int PARTITIONS = 4;
+
+    @Test
+    public void roundRobin_defaultKey() {
+        final MessagePartitioner<String> partitioner = MessagePartitioners.roundRobin();
+
+        //Assert: every message goes to the next partition
+        for (int i = 0; i < PARTITIONS * 2; i++) {
+            assertEquals(i % PARTITIONS, partitioner.partition(TOPIC, "message", null, PARTITIONS));
+        }
+    }
+
+    @Test
+    public void sticky_defaultKey() {
+        final MessagePartitioner<String> partitioner = MessagePartitioners.sticky(3);
+
+        //Assert: batches of 3 messages per partition
+        for (int i = 0; i < PARTITIONS * 3; i++) {
+            assertEquals(i / 3, partitioner.partition(TOPIC, "message", null, PARTITIONS));
+        }
+    }
+
+    @Test
+    public void userKey_keepsPartition() {
+        final MessagePartitioner<String> partitioner = MessagePartitioners.roundRobin();
+
+        // Call
+        final int partition = partitioner.partition(TOPIC, "message", "someKey", PARTITIONS);
+
+        //Assert: the same business key always lands on the same partition
+        for (int i = 0; i < 10; i++) {
+            assertEquals(partition, partitioner.partition(TOPIC, "other message", "someKey", PARTITIONS));
+        }
+    }
+
+    @Test
+    public void userKey_sameAsKafkaDefaultPartitioner() {
+        final MessagePartitioner<String> partitioner = MessagePartitioners.roundRobin();
+        // enough partitions to tell the hashes apart
+        final int partitions = Integer.MAX_VALUE;
+
+        //Assert: the keys of every length, up to several murmur2 blocks, land where the kafka partitioner puts them
+        String key = "";
+        for (int i = 0; i < 16; i++) {
+            final int expected = Utils.toPositive(Utils.murmur2(key.getBytes(StandardCharsets.UTF_8))) % partitions;
+            assertEquals(expected, partitioner.partition(TOPIC, "message", key, partitions));
+            key += (char) ('a' + i);
+        }
+    }
+
+    @Test
+    public void byMessage() {
+        final MessagePartitioner<String> partitioner = MessagePartitioners.byMessage(message -> message.split(":")[0]);
+
+        // Call
+        final int partition = partitioner.partition(TOPIC, "tenant1:message", null, PARTITIONS);
+
+        //Assert: same tenant, same partition, regardless of the key
+        assertEquals(partition, partitioner.partition(TOPIC, "tenant1:other message", null, PARTITIONS));
+        assertEquals(partition, partitioner.partition(TOPIC, "tenant1:other message", "someKey", PARTITIONS));
+
+        // and the tenants are spread over the partitions
+        final Set<Integer> partitions = new HashSet<>();
+        for (String tenant : Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j")) {
+            partitions.add(partitioner.partition(TOPIC, tenant + ":message", null, PARTITIONS));
+        }
+        assertEquals(PARTITIONS, partitions.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sticky_invalidBatchSize() {
+        MessagePartitioners.sticky(0);
+    }
+}
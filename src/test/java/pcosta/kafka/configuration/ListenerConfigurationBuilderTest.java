@@ -4,6 +4,7 @@ import com.google.protobuf.GeneratedMessageV3;
 import com.google.protobuf.Message;
 import com.google.protobuf.Parser;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import pcosta.kafka.api.MessageFilter;
 import pcosta.kafka.api.MessageListener;
 import pcosta.kafka.api.MessageListenerConfiguration;
@@ -12,6 +13,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
@@ -196,6 +198,29 @@ public class ListenerConfigurationBuilderTest {
         verify(receiverConfigurationBuilder, times(1)).addListenerConfiguration(any(MessageListenerConfiguration.class));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_addFieldMatch_success() {
+        final ReceiverConfigurationBuilder receiverConfigurationBuilder = mock(ReceiverConfigurationBuilder.class);
+
+        new ListenerConfigurationBuilder<>(receiverConfigurationBuilder)
+                .withMessageType(Message.class)
+                .addTopics("GoodTopic")
+                .addHandler(mock(MessageListener.class))
+                .addFieldMatch("header.tenant_id", "tenant1")
+                .addFieldMatches(Collections.singletonMap("header.tenant_id", Collections.singletonList("tenant2")))
+                .buildListener();
+
+        final ArgumentCaptor<MessageListenerConfiguration> configuration = ArgumentCaptor.forClass(MessageListenerConfiguration.class);
+        verify(receiverConfigurationBuilder).addListenerConfiguration(configuration.capture());
+        assertEquals(Collections.singletonMap("header.tenant_id", Arrays.asList("tenant1", "tenant2")), configuration.getValue().getFieldMatches());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_addFieldMatch_noValues() {
+        new ListenerConfigurationBuilder<>(mock(ReceiverConfigurationBuilder.class)).addFieldMatch("header.tenant_id");
+    }
+
     // test messages
     @SuppressWarnings("unchecked")
     private static abstract class SomeMessage extends GeneratedMessageV3 {
@@ -0,0 +1,84 @@
+package pcosta.kafka.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link AdaptivePollTuner} class
+ */
+public class AdaptivePollTunerTest {
+
+    private static final long RESIZE_INTERVAL = 1000;
+
+    // object under testing
+    private AdaptivePollTuner tuner;
+
+    @Before
+    public void setUp() {
+        this.tuner = new AdaptivePollTuner(10, 1000, 10, 2000, 64 * 1024, 50 * 1024 * 1024, 200, RESIZE_INTERVAL, 0);
+    }
+
+    @Test
+    public void quietTopic_backsOffAndShrinks() {
+        // Call: a few tiny records and then nothing at all
+        tuner.observe(1, 100, MILLISECONDS.toNanos(1), MILLISECONDS.toNanos(1000));
+        for (int i = 0; i < 20; i++) {
+            tuner.observe(0, 0, 0, MILLISECONDS.toNanos(1000));
+        }
+
+        //Assert: poll timeout grows to the max, sizing converges to the lower bounds
+        assertEquals(1000, tuner.pollTimeout());
+        assertEquals(10, tuner.recommendedPollRecords());
+        assertEquals(64 * 1024, tuner.recommendedFetchBytes());
+        assertTrue(tuner.shouldResize(RESIZE_INTERVAL));
+        assertEquals(10, tuner.currentPollRecords());
+    }
+
+    @Test
+    public void hotTopic_growsBatches() {
+        // Call: full batches of 1KB records arriving at a high rate and quickly processed
+        for (int i = 0; i < 20; i++) {
+            tuner.observe(500, 500 * 1024, MILLISECONDS.toNanos(5), MILLISECONDS.toNanos(10));
+        }
+
+        //Assert: short poll timeout and large batches
+        assertEquals(10, tuner.pollTimeout());
+        assertEquals(2000, tuner.recommendedPollRecords());
+        assertTrue(tuner.recommendedFetchBytes() >= 2000 * 1024);
+        assertTrue(tuner.shouldResize(RESIZE_INTERVAL));
+        assertEquals(2000, tuner.currentPollRecords());
+    }
+
+    @Test
+    public void slowListener_boundsBatchByProcessingTime() {
+        // Call: high arrival rate, but each record takes 10ms to process
+        for (int i = 0; i < 20; i++) {
+            tuner.observe(100, 100 * 1024, MILLISECONDS.toNanos(1000), MILLISECONDS.toNanos(1001));
+        }
+
+        //Assert: batches are limited to what can be processed within the 200ms target
+        assertEquals(20, tuner.recommendedPollRecords());
+    }
+
+    @Test
+    public void resize_rateLimited() {
+        for (int i = 0; i < 20; i++) {
+            tuner.observe(0, 0, 0, MILLISECONDS.toNanos(1000));
+        }
+
+        //Assert: no resize before the interval elapses, and no resize once the sizing is stable
+        assertFalse(tuner.shouldResize(RESIZE_INTERVAL - 1));
+        assertTrue(tuner.shouldResize(RESIZE_INTERVAL));
+        assertFalse(tuner.shouldResize(RESIZE_INTERVAL * 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBounds() {
+        new AdaptivePollTuner(1000, 10, 10, 2000, 1024, 2048, 200, RESIZE_INTERVAL, 0);
+    }
+}
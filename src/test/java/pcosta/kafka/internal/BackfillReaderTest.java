@@ -0,0 +1,84 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.Message;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.rule.KafkaEmbedded;
+import pcosta.kafka.api.BatchMessageListener;
+import pcosta.kafka.api.MessageMetadata;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.internal.MessageReceiver.MessageProcessor;
+
+import java.util.*;
+
+import static com.google.protobuf.ExtensionRegistry.getEmptyRegistry;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.*;
+import static pcosta.kafka.api.MessageListener.LATEST_OFFSET;
+import static pcosta.kafka.internal.TestFactory.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link BackfillReader} class
+ */
+@SuppressWarnings("unchecked")
+public class BackfillReaderTest {
+
+    private static final String BACKFILL_TOPIC = "BackfillTopic";
+    private static final int MESSAGES = 10;
+
+    @ClassRule
+    public static KafkaEmbedded embeddedKafka = new KafkaEmbedded(1, true, 1, BACKFILL_TOPIC);
+
+    @Test
+    public void split_boundedChunks() {
+        // Call: more offsets than consumers times chunk records
+        final List<long[]> chunks = BackfillReader.split(10, 110, 2, 30);
+
+        //Assert: contiguous chunks covering the whole range
+        assertEquals(4, chunks.size());
+        assertArrayEquals(new long[]{10, 40}, chunks.get(0));
+        assertArrayEquals(new long[]{100, 110}, chunks.get(3));
+    }
+
+    @Test
+    public void split_oneChunkByConsumer() {
+        assertEquals(4, BackfillReader.split(0, 100, 4, 1_000).size());
+        assertEquals(3, BackfillReader.split(0, 3, 4, 1_000).size());
+        assertTrue(BackfillReader.split(5, 5, 4, 1_000).isEmpty());
+    }
+
+    @Test
+    public void read_deliversAllMessages() throws Exception {
+        // Prepare
+        embeddedKafka.waitUntilSynced(BACKFILL_TOPIC, 0);
+        final String port = embeddedKafka.getKafkaServer(0).config().port().toString();
+        final DefaultKafkaProducerFactory<String, Message> senderFactory = new DefaultKafkaProducerFactory<>(senderProps(port));
+        final KafkaTemplate<String, Message> sender = new KafkaTemplate<>(senderFactory, true);
+        for (int i = 0; i < MESSAGES; i++) {
+            sender.send(BACKFILL_TOPIC, BACKFILL_TOPIC + "|" + TestMessage.class.getName(), getDefaultMsg(BACKFILL_TOPIC)).get();
+        }
+        senderFactory.destroy();
+
+        final Set<Long> offsets = Collections.synchronizedSet(new HashSet<>());
+        final BatchMessageListener<TestMessage> listener = (metadata, messages) -> {
+            assertEquals(metadata.size(), messages.size());
+            metadata.stream().map(MessageMetadata::getOffset).forEach(offsets::add);
+        };
+        final MessageProcessor processor = new MessageProcessor(BACKFILL_TOPIC, LATEST_OFFSET, 0, TestMessage.class,
+                emptyList(), emptyList(), getEmptyRegistry(), error -> fail(error.toString()));
+        processor.registerBackfillListener(TestMessage.class, listener);
+
+        // Call: 3 concurrent consumers, reading chunks of 2 offsets
+        final long end = new BackfillReader(processor, 3, 2, (Map) receiverProps(port))
+                .read(new TopicPartition(BACKFILL_TOPIC, 0));
+
+        //Assert: every offset delivered once, the live consumption is to be handed off at the end offset
+        assertEquals(MESSAGES, end);
+        assertEquals(MESSAGES, offsets.size());
+    }
+}
@@ -0,0 +1,81 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link DedupeCache} class
+ */
+public class DedupeCacheTest {
+
+    @Test
+    public void isDuplicate() {
+        final DedupeCache cache = new DedupeCache(10);
+
+        //Assert: only the second occurrence is a duplicate
+        assertFalse(cache.isDuplicate(id("a")));
+        assertFalse(cache.isDuplicate(id("b")));
+        assertTrue(cache.isDuplicate(id("a")));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(1.0 / 3, cache.hitRate(), 0.0001);
+    }
+
+    @Test
+    public void isDuplicate_evictsOldest() {
+        final DedupeCache cache = new DedupeCache(100);
+
+        // Call: one more id than the capacity
+        for (int i = 0; i <= 100; i++) {
+            assertFalse(cache.isDuplicate(id("id" + i)));
+        }
+
+        //Assert: the first id was evicted, the remaining ones are still remembered
+        for (int i = 100; i > 0; i--) {
+            assertTrue(cache.isDuplicate(id("id" + i)));
+        }
+        assertFalse(cache.isDuplicate(id("id0")));
+    }
+
+    @Test
+    public void isDuplicate_manyEvictions() {
+        final DedupeCache cache = new DedupeCache(1000);
+
+        // Call: keep evicting, which shifts the colliding entries around the table
+        for (int i = 0; i < 100_000; i++) {
+            assertFalse(cache.isDuplicate(id("id" + i)));
+        }
+
+        //Assert: exactly the most recent ids are remembered
+        for (int i = 99_999; i >= 99_000; i--) {
+            assertTrue(cache.isDuplicate(id("id" + i)));
+        }
+        assertFalse(cache.isDuplicate(id("id98999")));
+    }
+
+    @Test
+    public void clear() {
+        final DedupeCache cache = new DedupeCache(10);
+        assertFalse(cache.isDuplicate(id("a")));
+
+        // Call
+        cache.clear();
+
+        //Assert: the id is forgotten
+        assertFalse(cache.isDuplicate(id("a")));
+        assertTrue(cache.isDuplicate(id("a")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacity() {
+        new DedupeCache(0);
+    }
+
+    private static ByteString id(String id) {
+        return ByteString.copyFromUtf8(id);
+    }
+}
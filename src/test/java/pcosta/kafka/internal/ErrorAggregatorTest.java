@@ -0,0 +1,89 @@
+package pcosta.kafka.internal;
+
+import org.junit.Test;
+import pcosta.kafka.api.PlatformError;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link ErrorAggregator} class
+ */
+public class ErrorAggregatorTest {
+
+    private static final String TOPIC = "PoisonTopic";
+
+    // the delivered errors
+    private final List<PlatformError> errors = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void report_collapsesIdenticalErrors() {
+        final ErrorAggregator aggregator = new ErrorAggregator(TOPIC, errors::add, 60_000);
+
+        // Call: the same error at full rate, and a different one
+        assertTrue(aggregator.report(new PlatformErrorImpl("err1", new IllegalStateException())));
+        for (int i = 0; i < 100; i++) {
+            assertFalse(aggregator.report(new PlatformErrorImpl("err1", new IllegalStateException())));
+        }
+        assertTrue(aggregator.report(new PlatformErrorImpl("err1", new IllegalArgumentException())));
+        aggregator.flush();
+
+        //Assert: the first occurrences, then a single summary
+        assertEquals(3, errors.size());
+        assertEquals(1, errors.get(0).getOccurrences());
+        assertEquals(1, errors.get(1).getOccurrences());
+        assertEquals("err1", errors.get(2).getErrorDescription());
+        assertEquals(100, errors.get(2).getOccurrences());
+        assertTrue(errors.get(2).getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void report_newWindowAfterFlush() {
+        final ErrorAggregator aggregator = new ErrorAggregator(TOPIC, errors::add, 60_000);
+
+        // Call
+        assertTrue(aggregator.report(new PlatformErrorImpl("err1", null)));
+        aggregator.flush();
+        assertTrue(aggregator.report(new PlatformErrorImpl("err1", null)));
+
+        //Assert: no summary for errors occurring once
+        assertEquals(2, errors.size());
+    }
+
+    @Test
+    public void report_scheduledFlush() throws Exception {
+        final ErrorAggregator aggregator = new ErrorAggregator(TOPIC, errors::add, 10);
+
+        // Call
+        aggregator.report(new PlatformErrorImpl("err1", null));
+        aggregator.report(new PlatformErrorImpl("err1", null));
+        for (int i = 0; i < 100 && errors.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+
+        //Assert
+        assertEquals(2, errors.size());
+        assertEquals(1, errors.get(1).getOccurrences());
+    }
+
+    @Test
+    public void report_disabled() {
+        final ErrorAggregator aggregator = new ErrorAggregator(TOPIC, errors::add, 0);
+
+        // Call
+        assertTrue(aggregator.report(new PlatformErrorImpl("err1", null)));
+        assertTrue(aggregator.report(new PlatformErrorImpl("err1", null)));
+
+        //Assert
+        assertEquals(2, errors.size());
+    }
+
+    @Test
+    public void stacklessException() {
+        assertEquals(0, new StacklessMessagingException("err1").getStackTrace().length);
+    }
+}
@@ -0,0 +1,99 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import pcosta.kafka.core.TestProto.RoutedTestMessage;
+import pcosta.kafka.core.TestProto.RoutedTestMessage.Header;
+import pcosta.kafka.core.TestProto.RoutedTestMessage.Kind;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link FieldPredicate} class
+ */
+public class FieldPredicateTest {
+
+    private static final RoutedTestMessage MESSAGE = RoutedTestMessage.newBuilder()
+            .setHeader(Header.newBuilder().setTenantId("tenant1").setSequence(10L))
+            .setKind(Kind.DELETED)
+            .setPriority(3)
+            .setUrgent(true)
+            .setBody(ByteString.copyFromUtf8("body"))
+            .build();
+
+    @Test
+    public void test_typedValues() {
+        assertTrue(predicate("header.tenant_id", "tenant0", "tenant1").test(MESSAGE));
+        assertTrue(predicate("header.sequence", "10").test(MESSAGE));
+        assertTrue(predicate("kind", "DELETED").test(MESSAGE));
+        assertTrue(predicate("priority", "3").test(MESSAGE));
+        assertTrue(predicate("urgent", "true").test(MESSAGE));
+        assertTrue(predicate("body", "body").test(MESSAGE));
+
+        assertFalse(predicate("header.tenant_id", "tenant2").test(MESSAGE));
+        assertFalse(predicate("kind", "CREATED").test(MESSAGE));
+        assertFalse(predicate("priority", "4").test(MESSAGE));
+    }
+
+    @Test
+    public void test_camelCaseAndUnsetFields() {
+        // Call: an empty message holds the default values
+        final RoutedTestMessage empty = RoutedTestMessage.getDefaultInstance();
+
+        //Assert
+        assertTrue(predicate("header.tenantId", "").test(empty));
+        assertTrue(predicate("kind", "CREATED").test(empty));
+        assertFalse(predicate("urgent", "true").test(empty));
+    }
+
+    @Test
+    public void test_compileAll() {
+        final Map<String, Collection<String>> fieldMatches = new LinkedHashMap<>();
+        fieldMatches.put("header.tenant_id", singletonList("tenant1"));
+        fieldMatches.put("priority", Arrays.asList("1", "2", "3"));
+
+        // Call
+        final Collection<FieldPredicate> predicates = FieldPredicate.compile(RoutedTestMessage.class, fieldMatches);
+
+        //Assert
+        assertEquals(2, predicates.size());
+        predicates.forEach(predicate -> assertTrue(predicate.test(MESSAGE)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_unknownField() {
+        predicate("header.unknown", "value");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_notAMessage() {
+        predicate("priority.value", "1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_messageLeaf() {
+        predicate("header", "value");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalidNumber() {
+        predicate("priority", "high");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_unknownEnumValue() {
+        predicate("kind", "UPDATED");
+    }
+
+    private static FieldPredicate predicate(String path, String... values) {
+        return FieldPredicate.compile(RoutedTestMessage.getDescriptor(), path, Arrays.asList(values));
+    }
+}
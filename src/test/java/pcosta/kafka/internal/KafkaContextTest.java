@@ -89,6 +89,22 @@ public class KafkaContextTest {
         assertEquals(producer1, producer2);
     }
 
+    @Test(expected = MessagingException.class)
+    public void seek_withoutReceiver() {
+        this.context.seek("SomeTopic", 0, 10);
+    }
+
+    @Test(expected = MessagingException.class)
+    public void seekToBeginning_unknownTopic() {
+        //Prepare
+        when(configuration.getErrorListener()).thenReturn(errorListener);
+        when(configuration.getListeners()).thenReturn(listeners);
+        this.context.createReceiver(configuration);
+
+        //Call
+        this.context.seekToBeginning("SomeTopic", 0);
+    }
+
     @Test
     public void createProducer_withFilters() throws MessagingException {
         final MessageFilter filter = mock(MessageFilter.class);
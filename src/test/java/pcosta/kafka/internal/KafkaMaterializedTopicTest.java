@@ -0,0 +1,135 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.Any;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.nio.file.Path;
+
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link KafkaMaterializedTopic} class
+ */
+public class KafkaMaterializedTopicTest {
+
+    private static final String TOPIC = "CompactedTopic";
+    private static final TopicPartition TOPIC_PARTITION = new TopicPartition(TOPIC, 0);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the snapshot file
+    private Path snapshotFile;
+    // object under testing
+    private KafkaMaterializedTopic<TestMessage> view;
+
+    @Before
+    public void setUp() {
+        this.snapshotFile = folder.getRoot().toPath().resolve(TOPIC + ".snapshot");
+    }
+
+    @After
+    public void destroy() {
+        if (view != null) view.close();
+    }
+
+    @Test
+    public void materialize_latestPayloadByKey() throws Exception {
+        // Prepare
+        final MockConsumer<String, byte[]> consumer = mockConsumer(5);
+        this.view = new KafkaMaterializedTopic<>(TOPIC, TestMessage.class, null, 0, consumer);
+        view.start();
+
+        // Call: an update, a tombstone and a message of another type
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 0, "key1", envelope("first")));
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 1, "key2", envelope("second")));
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 2, "key1", envelope("updated")));
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 3, "key2", null));
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 4, "key3",
+                KafkaMessage.newBuilder().setPayloadClass(KafkaMessage.class.getName()).build().toByteArray()));
+
+        //Assert
+        assertTrue(view.awaitCaughtUp(5, SECONDS));
+        assertEquals(1, view.size());
+        assertEquals("updated", view.get("key1").getText());
+        assertFalse(view.containsKey("key2"));
+        assertNull(view.get("key2"));
+    }
+
+    @Test
+    public void materialize_aggregatedInOrder() throws Exception {
+        // Prepare
+        final MockConsumer<String, byte[]> consumer = mockConsumer(1);
+        this.view = new KafkaMaterializedTopic<>(TOPIC, TestMessage.class, null, 0, consumer);
+        view.start();
+
+        // Call: a record aggregating two updates of its key
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 0, "key1", aggregated("first", "updated")));
+
+        //Assert
+        assertTrue(view.awaitCaughtUp(5, SECONDS));
+        assertEquals(1, view.size());
+        assertEquals("updated", view.get("key1").getText());
+    }
+
+    @Test
+    public void snapshot_restoredOnReopen() throws Exception {
+        // Prepare: a view closed at offset 2
+        final MockConsumer<String, byte[]> consumer = mockConsumer(2);
+        this.view = new KafkaMaterializedTopic<>(TOPIC, TestMessage.class, snapshotFile, 0, consumer);
+        view.start();
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 0, "key1", envelope("first")));
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 1, "key2", envelope("second")));
+        assertTrue(view.awaitCaughtUp(5, SECONDS));
+        view.close();
+
+        // Call: reopen, with no messages to be replayed
+        final MockConsumer<String, byte[]> newConsumer = mockConsumer(2);
+        this.view = new KafkaMaterializedTopic<>(TOPIC, TestMessage.class, snapshotFile, 0, newConsumer);
+        view.start();
+
+        //Assert: restored from the snapshot, resuming from its offset
+        assertTrue(view.awaitCaughtUp(5, SECONDS));
+        assertEquals(2, view.size());
+        assertEquals("second", view.get("key2").getText());
+    }
+
+    private static MockConsumer<String, byte[]> mockConsumer(long endOffset) {
+        final MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updateBeginningOffsets(singletonMap(TOPIC_PARTITION, 0L));
+        consumer.updateEndOffsets(singletonMap(TOPIC_PARTITION, endOffset));
+        return consumer;
+    }
+
+    private static byte[] aggregated(String... texts) {
+        final KafkaMessage.Builder aggregate = KafkaMessage.newBuilder();
+        for (String text : texts) {
+            aggregate.addAggregated(KafkaMessage.newBuilder()
+                    .setPayloadClass(TestMessage.class.getName())
+                    .setPayload(Any.pack(TestMessage.newBuilder().setText(text).build())));
+        }
+        return aggregate.build().toByteArray();
+    }
+
+    private static byte[] envelope(String text) {
+        return KafkaMessage.newBuilder()
+                .setPayloadClass(TestMessage.class.getName())
+                .setPayload(Any.pack(TestMessage.newBuilder().setText(text).build()))
+                .build()
+                .toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import org.junit.Test;
+import pcosta.kafka.core.TestProto.RoutedTestMessage;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link KafkaMessageEncoder} class
+ */
+public class KafkaMessageEncoderTest {
+
+    @Test
+    public void encode() {
+        final TestMessage payload = TestMessage.newBuilder().setText("testMessage").build();
+
+        //Assert: the same bytes as the built envelope
+        assertArrayEquals(envelope(payload, "TraceabilityId"), KafkaMessageEncoder.encode(payload, "TraceabilityId"));
+    }
+
+    @Test
+    public void encode_noTraceabilityId() {
+        final TestMessage payload = TestMessage.newBuilder().setText("testMessage").build();
+
+        //Assert
+        assertArrayEquals(envelope(payload, ""), KafkaMessageEncoder.encode(payload, null));
+        assertArrayEquals(envelope(payload, ""), KafkaMessageEncoder.encode(payload, ""));
+    }
+
+    @Test
+    public void encode_emptyPayload() {
+        final RoutedTestMessage payload = RoutedTestMessage.getDefaultInstance();
+
+        //Assert
+        assertArrayEquals(envelope(payload, "TraceabilityId"), KafkaMessageEncoder.encode(payload, "TraceabilityId"));
+    }
+
+    @Test
+    public void encode_largePayload() {
+        final RoutedTestMessage payload = RoutedTestMessage.newBuilder()
+                .setHeader(RoutedTestMessage.Header.newBuilder().setTenantId("tenant").setSequence(Long.MAX_VALUE))
+                .setBody(ByteString.copyFrom(new byte[64 * 1024]))
+                .build();
+
+        //Assert
+        assertArrayEquals(envelope(payload, "TraceabilityId"), KafkaMessageEncoder.encode(payload, "TraceabilityId"));
+    }
+
+    private static byte[] envelope(Message payload, String traceabilityId) {
+        return KafkaMessage.newBuilder()
+                .setPayloadClass(payload.getClass().getName())
+                .setPayload(Any.pack(payload))
+                .setTraceabilityId(traceabilityId)
+                .build()
+                .toByteArray();
+    }
+}
@@ -0,0 +1,221 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.Any;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import pcosta.kafka.api.Envelope;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.lang.Thread.sleep;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link KafkaPublisher} class
+ */
+public class KafkaPublisherTest {
+
+    private static final String TOPIC = "PublishedTopic";
+    private static final TopicPartition TOPIC_PARTITION = new TopicPartition(TOPIC, 0);
+    private static final long TIMEOUT = 5000;
+
+    // the topic consumer mock
+    private MockConsumer<String, byte[]> consumer;
+    // object under testing
+    private KafkaPublisher<TestMessage> publisher;
+
+    @Before
+    public void setUp() {
+        this.consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updateBeginningOffsets(singletonMap(TOPIC_PARTITION, 0L));
+        this.publisher = new KafkaPublisher<>(TOPIC, TestMessage.class, consumer);
+    }
+
+    @After
+    public void destroy() {
+        publisher.close();
+    }
+
+    @Test
+    public void subscribe_emitsOnDemand() throws Exception {
+        // Prepare
+        final TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.subscribed.await(TIMEOUT, SECONDS));
+        awaitAssigned();
+
+        // Call: demand a single message, out of a fetched batch of 3
+        subscriber.subscription.request(1);
+        awaitResumed();
+        addRecords(3);
+        awaitReceived(subscriber, 1);
+        sleep(300);
+
+        //Assert: no more than the demand, the remaining messages are emitted once requested
+        assertEquals(1, subscriber.received.size());
+        assertEquals("message0", subscriber.received.get(0).getMessage().getText());
+        subscriber.subscription.request(2);
+        awaitReceived(subscriber, 3);
+        assertEquals(2, subscriber.received.get(2).getMetadata().getOffset());
+    }
+
+    @Test
+    public void acknowledge_commitsUpToFirstPending() throws Exception {
+        // Prepare
+        final TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.subscribed.await(TIMEOUT, SECONDS));
+        awaitAssigned();
+        subscriber.subscription.request(3);
+        awaitResumed();
+        addRecords(3);
+        awaitReceived(subscriber, 3);
+
+        // Call: the second message is still being processed
+        subscriber.received.get(0).acknowledge();
+        subscriber.received.get(2).acknowledge();
+        sleep(500);
+
+        //Assert
+        assertEquals(1, consumer.committed(TOPIC_PARTITION).offset());
+        subscriber.received.get(1).acknowledge();
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (consumer.committed(TOPIC_PARTITION).offset() != 3 && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertEquals(3, consumer.committed(TOPIC_PARTITION).offset());
+    }
+
+    @Test
+    public void acknowledge_aggregatedRecordCommittedOnceAllAcknowledged() throws Exception {
+        // Prepare: a record aggregating two messages, followed by a single one
+        final TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.subscribed.await(TIMEOUT, SECONDS));
+        awaitAssigned();
+        subscriber.subscription.request(3);
+        awaitResumed();
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 0, "key", aggregated("first", "second")));
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 1, "key", envelope("third")));
+        awaitReceived(subscriber, 3);
+
+        // Call: only the first aggregated message is acknowledged
+        subscriber.received.get(0).acknowledge();
+        subscriber.received.get(0).acknowledge();
+        sleep(500);
+
+        //Assert: emitted one by one, with the offset of their record, which is only committed once all are acknowledged
+        assertEquals("second", subscriber.received.get(1).getMessage().getText());
+        assertEquals(0, subscriber.received.get(1).getMetadata().getOffset());
+        assertEquals(0, consumer.committed(TOPIC_PARTITION).offset());
+        subscriber.received.get(1).acknowledge();
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (consumer.committed(TOPIC_PARTITION).offset() != 1 && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertEquals(1, consumer.committed(TOPIC_PARTITION).offset());
+    }
+
+    @Test
+    public void subscribe_secondSubscriberRejected() throws Exception {
+        // Prepare
+        publisher.subscribe(new TestSubscriber());
+        final TestSubscriber second = new TestSubscriber();
+
+        // Call
+        publisher.subscribe(second);
+
+        //Assert
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    private void awaitAssigned() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (consumer.assignment().isEmpty() && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+    }
+
+    // the records added while the partition is paused are dropped by the mock consumer poll
+    private void awaitResumed() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!consumer.paused().isEmpty() && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+    }
+
+    private void addRecords(int count) {
+        for (int offset = 0; offset < count; offset++) {
+            consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, offset, "key", envelope("message" + offset)));
+        }
+    }
+
+    private static void awaitReceived(TestSubscriber subscriber, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (subscriber.received.size() < count && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertEquals(count, subscriber.received.size());
+    }
+
+    private static byte[] envelope(String text) {
+        return KafkaMessage.newBuilder()
+                .setPayloadClass(TestMessage.class.getName())
+                .setPayload(Any.pack(TestMessage.newBuilder().setText(text).build()))
+                .build()
+                .toByteArray();
+    }
+
+    private static byte[] aggregated(String... texts) {
+        final KafkaMessage.Builder aggregate = KafkaMessage.newBuilder();
+        for (String text : texts) {
+            aggregate.addAggregated(KafkaMessage.newBuilder()
+                    .setPayloadClass(TestMessage.class.getName())
+                    .setPayload(Any.pack(TestMessage.newBuilder().setText(text).build())));
+        }
+        return aggregate.build().toByteArray();
+    }
+
+    // the test subscriber, recording the received envelopes
+    private static class TestSubscriber implements Subscriber<Envelope<TestMessage>> {
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private final List<Envelope<TestMessage>> received = new CopyOnWriteArrayList<>();
+        private volatile Subscription subscription;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(Envelope<TestMessage> envelope) {
+            received.add(envelope);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package pcosta.kafka.internal;
 
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.junit.After;
@@ -10,16 +14,24 @@ import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.kafka.test.rule.KafkaEmbedded;
+import pcosta.kafka.api.MessageKey;
+import pcosta.kafka.api.MessagingException;
 import pcosta.kafka.core.TestProto.TestMessage;
 import pcosta.kafka.internal.MessageReceiver.MessageProcessor;
 import pcosta.kafka.internal.TestFactory.TestsMessageProcessor;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 
 import static java.lang.Thread.sleep;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static pcosta.kafka.internal.TestFactory.receiverProps;
 import static pcosta.kafka.internal.TestFactory.senderProps;
@@ -42,11 +54,18 @@ public class KafkaReceiverTest {
     private static final int MESSAGE_TIMEOUT = 10;
     private static final int PARTITION = 0;
     private static final long LATEST_OFFSET = -1L;
+    private static final long EARLIEST_OFFSET = -3L;
+    private static final long KAFKA_STORED_OFFSET = -2L;
 
     // kafka sender registering wait time
     private static final int REGISTER_WAIT_TIME = 6000;
     private static final String DEFAULT_KEY = "Topic" + "|" + TestMessage.class.getName();
     private static final String DST_TOPIC = "Topic2";
+    private static final String OTHER_DST_TOPIC = "Topic3";
+    private static final String REPLAY_TOPIC = "Topic4";
+    private static final String EARLIEST_TOPIC = "Topic5";
+    private static final String STOP_TOPIC = "Topic6";
+    private static final String SEED_TOPIC = "Topic7";
 
     // key and value deserializers
     private static final StringDeserializer KEY_DESERIALIZER = new StringDeserializer();
@@ -72,7 +91,8 @@ public class KafkaReceiverTest {
      * public KafkaEmbedded(int count, boolean controlledShutdown, int partitions, String... topics);
      */
     @ClassRule
-    public static KafkaEmbedded embeddedKafka = new KafkaEmbedded(1, true, 1, DST_TOPIC);
+    public static KafkaEmbedded embeddedKafka = new KafkaEmbedded(1, true, 1, DST_TOPIC, OTHER_DST_TOPIC, REPLAY_TOPIC, EARLIEST_TOPIC, STOP_TOPIC,
+            SEED_TOPIC);
 
     @Before
     public void setUp() {
@@ -138,6 +158,149 @@ public class KafkaReceiverTest {
         kafkaReceiver.stop();
     }
 
+    @Test
+    public void multiplexedReceiver() throws Exception {
+        // Prepare: a single receiver for both topics
+        final CountDownLatch latch = new CountDownLatch(messagesToBeSent);
+        final CountDownLatch otherLatch = new CountDownLatch(messagesToBeSent);
+        final Map<String, MessageProcessor> processors = new HashMap<>();
+        processors.put(DST_TOPIC, new TestsMessageProcessor(DST_TOPIC, TestMessage.class, emptyList(), emptyList(), latch));
+        processors.put(OTHER_DST_TOPIC, new TestsMessageProcessor(OTHER_DST_TOPIC, TestMessage.class, emptyList(), emptyList(), otherLatch));
+
+        // create and start the multiplexed kafka receiver and Sender
+        this.kafkaReceiver = new KafkaReceiver("multiplexed-0", processors, KEY_DESERIALIZER, VAL_DESERIALIZER, receiverProps(port));
+        this.kafkaReceiver.start();
+        final KafkaTemplate<String, TestMessage> kafkaSender = createTemplate(DST_TOPIC);
+
+        // Call: send the messages to both topics
+        for (int i = 0; i < messagesToBeSent; ++i) {
+            kafkaSender.sendDefault(DEFAULT_KEY, DEFAULT_MESSAGE).get();
+            kafkaSender.send(OTHER_DST_TOPIC, DEFAULT_KEY, DEFAULT_MESSAGE).get();
+        }
+
+        // Assert: each message was dispatched to the processor of its own topic
+        assertTrue(latch.await(MESSAGE_TIMEOUT, SECONDS));
+        assertTrue(otherLatch.await(MESSAGE_TIMEOUT, SECONDS));
+        kafkaReceiver.stop();
+    }
+
+    @Test
+    public void multiplexedReceiver_resumesFromDedicatedGroupOffset() throws Exception {
+        // Prepare: 3 messages, of which the dedicated group of the topic has consumed 2
+        final KafkaTemplate<String, TestMessage> kafkaSender = createTemplate(SEED_TOPIC);
+        for (int i = 0; i < 3; ++i) {
+            kafkaSender.sendDefault(DEFAULT_KEY, DEFAULT_MESSAGE).get();
+        }
+        final TopicPartition topicPartition = new TopicPartition(SEED_TOPIC, PARTITION);
+        final Properties dedicatedProps = receiverProps(port);
+        dedicatedProps.put(ConsumerConfig.GROUP_ID_CONFIG, KafkaReceiver.dedicatedGroupId(SEED_TOPIC));
+        try (KafkaConsumer<String, byte[]> dedicated = new KafkaConsumer<>(dedicatedProps)) {
+            dedicated.assign(singletonList(topicPartition));
+            dedicated.commitSync(singletonMap(topicPartition, new OffsetAndMetadata(2)));
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final MessageProcessor processor = new TestsMessageProcessor(SEED_TOPIC, TestMessage.class, emptyList(), emptyList(), latch);
+        processor.initialOffset = KAFKA_STORED_OFFSET;
+
+        // Call: a multiplexed receiver whose group has no committed offset, and would otherwise start from the latest
+        this.kafkaReceiver = new KafkaReceiver("multiplexed-seed", singletonMap(SEED_TOPIC, processor), KEY_DESERIALIZER,
+                VAL_DESERIALIZER, receiverProps(port));
+        this.kafkaReceiver.start();
+
+        //Assert: the message not consumed by the dedicated group is received
+        assertTrue(latch.await(MESSAGE_TIMEOUT, SECONDS));
+        kafkaReceiver.stop();
+    }
+
+    @Test
+    public void seekToBeginning_replaysMessages() throws Exception {
+        // Prepare: messages sent before the receiver is started at the latest offset
+        final CountDownLatch latch = new CountDownLatch(messagesToBeSent);
+        this.msgProcessor = new TestsMessageProcessor(REPLAY_TOPIC, TestMessage.class, emptyList(), emptyList(), latch);
+        final KafkaTemplate<String, TestMessage> kafkaSender = createTemplate(REPLAY_TOPIC);
+        for (int i = 0; i < messagesToBeSent; ++i) {
+            kafkaSender.sendDefault(DEFAULT_KEY, DEFAULT_MESSAGE).get();
+        }
+        this.kafkaReceiver = new KafkaReceiver(REPLAY_TOPIC, KEY_DESERIALIZER, VAL_DESERIALIZER, msgProcessor, PARTITION, receiverProps(port));
+        this.kafkaReceiver.start();
+        assertFalse(latch.await(1, SECONDS));
+
+        // Call: replay the topic at runtime
+        final TopicPartition topicPartition = new TopicPartition(REPLAY_TOPIC, PARTITION);
+        kafkaReceiver.seek(topicPartition, consumer -> consumer.beginningOffsets(singletonList(topicPartition)).get(topicPartition));
+
+        // Assert: the previous messages were received
+        assertTrue(latch.await(MESSAGE_TIMEOUT, SECONDS));
+        kafkaReceiver.stop();
+    }
+
+    @Test
+    public void earliestOffset_freshGroup_replaysMessages() throws Exception {
+        // Prepare: messages sent before the receiver of a group without committed offsets is started
+        final CountDownLatch latch = new CountDownLatch(messagesToBeSent);
+        this.msgProcessor = new TestsMessageProcessor(EARLIEST_TOPIC, TestMessage.class, emptyList(), emptyList(), latch);
+        this.msgProcessor.initialOffset = EARLIEST_OFFSET;
+        final KafkaTemplate<String, TestMessage> kafkaSender = createTemplate(EARLIEST_TOPIC);
+        for (int i = 0; i < messagesToBeSent; ++i) {
+            kafkaSender.sendDefault(DEFAULT_KEY, DEFAULT_MESSAGE).get();
+        }
+
+        // Call
+        this.kafkaReceiver = new KafkaReceiver(EARLIEST_TOPIC, KEY_DESERIALIZER, VAL_DESERIALIZER, msgProcessor, PARTITION, receiverProps(port));
+        this.kafkaReceiver.start();
+
+        // Assert: the retained messages were received
+        assertTrue(latch.await(MESSAGE_TIMEOUT, SECONDS));
+        kafkaReceiver.stop();
+    }
+
+    @Test
+    public void stop_processorReleasedOnceBatchIsProcessed() throws Exception {
+        // Prepare: the processing of the received message is held until the receiver is stopped
+        final CountDownLatch processing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        this.msgProcessor = new TestsMessageProcessor(STOP_TOPIC, TestMessage.class, emptyList(), emptyList(), new CountDownLatch(1)) {
+            @Override
+            void process(byte[] message, String srcTopic, MessageKey key, long offset) {
+                processing.countDown();
+                try {
+                    proceed.await(MESSAGE_TIMEOUT, SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            void release() {
+                super.release();
+                released.countDown();
+            }
+        };
+        this.kafkaReceiver = new KafkaReceiver(STOP_TOPIC, KEY_DESERIALIZER, VAL_DESERIALIZER, msgProcessor, PARTITION, receiverProps(port));
+        this.kafkaReceiver.start();
+        createTemplate(STOP_TOPIC).sendDefault(DEFAULT_KEY, DEFAULT_MESSAGE).get();
+        assertTrue(processing.await(MESSAGE_TIMEOUT, SECONDS));
+
+        // Call
+        kafkaReceiver.stop();
+
+        //Assert: the processor is only released once the batch is processed
+        assertFalse(released.await(1, SECONDS));
+        proceed.countDown();
+        assertTrue(released.await(MESSAGE_TIMEOUT, SECONDS));
+    }
+
+    @Test(expected = MessagingException.class)
+    public void seek_unassignedPartition() {
+        this.msgProcessor = new TestsMessageProcessor(DST_TOPIC, TestMessage.class, emptyList(), emptyList(), new CountDownLatch(1));
+        this.kafkaReceiver = new KafkaReceiver(DST_TOPIC, KEY_DESERIALIZER, VAL_DESERIALIZER, msgProcessor, PARTITION, receiverProps(port));
+        this.kafkaReceiver.start();
+
+        // Call: only partition 0 is assigned
+        kafkaReceiver.seek(new TopicPartition(DST_TOPIC, 1), consumer -> 0);
+    }
+
     /**
      * creates a kafka sender template
      *
@@ -115,6 +115,22 @@ public class KafkaSenderTest {
         receiver.stop();
     }
 
+    @Test
+    public void sharedProducer_closedWithItsLastSender() throws Exception {
+        //Prepare: two senders of the default cluster share a kafka producer
+        final KafkaSender<String, byte[]> first = new KafkaSender<>(RECEIVER_TOPIC, new StringSerializer(), new ByteArraySerializer());
+        final KafkaSender<String, byte[]> second = new KafkaSender<>(SENDER_TOPIC, new StringSerializer(), new ByteArraySerializer());
+
+        // Call: the shared producer outlives the first stopped sender
+        first.stop();
+        assertTrue(second.send(DEFAULT_KEY, DEFAULT_MSG.toByteArray()).get(10, SECONDS).getRecordMetadata().offset() >= 0);
+        second.stop();
+
+        //Assert: a new shared producer is created once the previous one was closed
+        this.kafkaSender = new KafkaSender<>(SENDER_TOPIC, new StringSerializer(), new ByteArraySerializer());
+        assertTrue(kafkaSender.send(DEFAULT_KEY, DEFAULT_MSG.toByteArray()).get(10, SECONDS).getRecordMetadata().offset() >= 0);
+    }
+
     /**
      * Creates the Kafka test receiver
      */
@@ -0,0 +1,109 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.util.Map;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link KafkaTransaction} class
+ */
+public class KafkaTransactionTest {
+
+    private static final String SRC_TOPIC = "SrcTopic";
+    private static final String DST_TOPIC = "DstTopic";
+    private static final String GROUP_ID = "test_consumer";
+
+    // the transactional producer mock
+    private MockProducer<byte[], byte[]> mockProducer;
+    // object under testing
+    private KafkaTransaction transaction;
+
+    @Before
+    public void setUp() {
+        this.mockProducer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        this.transaction = new KafkaTransaction(mockProducer);
+    }
+
+    @After
+    public void destroy() {
+        transaction.close();
+    }
+
+    @Test
+    public void commit_sendsOffsetsWithMessages() {
+        final Map<TopicPartition, OffsetAndMetadata> offsets = singletonMap(new TopicPartition(SRC_TOPIC, 0), new OffsetAndMetadata(10));
+
+        // Call
+        transaction.begin();
+        assertSame(transaction, KafkaTransaction.current());
+        transaction.send(DST_TOPIC, 0, "key".getBytes(), "value".getBytes());
+        transaction.commit(offsets, GROUP_ID);
+
+        //Assert
+        assertNull(KafkaTransaction.current());
+        assertTrue(mockProducer.transactionCommitted());
+        assertEquals(1, mockProducer.history().size());
+        assertEquals(Integer.valueOf(0), mockProducer.history().get(0).partition());
+        assertEquals(singletonMap(GROUP_ID, offsets), mockProducer.consumerGroupOffsetsHistory().get(0));
+    }
+
+    @Test
+    public void abort_discardsMessages() {
+        // Call
+        transaction.begin();
+        transaction.send(DST_TOPIC, -1, "key".getBytes(), "value".getBytes());
+        transaction.abort();
+
+        //Assert
+        assertNull(KafkaTransaction.current());
+        assertTrue(mockProducer.transactionAborted());
+        assertTrue(mockProducer.history().isEmpty());
+    }
+
+    @Test
+    public void begin_initializesOnce() {
+        // Call: two consecutive batches
+        transaction.begin();
+        transaction.commit(emptyMap(), GROUP_ID);
+        transaction.begin();
+        transaction.commit(emptyMap(), GROUP_ID);
+
+        //Assert
+        assertTrue(mockProducer.transactionInitialized());
+        assertTrue(mockProducer.transactionCommitted());
+        assertTrue(mockProducer.consumerGroupOffsetsHistory().isEmpty());
+    }
+
+    @Test
+    public void producerSend_withinTransaction() throws Exception {
+        final ProtobufProducer<TestMessage> producer = new ProtobufProducer<>(new StringSerializer(), new ProtobufSerializer());
+        final TestMessage message = TestMessage.newBuilder().setText("transactional").build();
+
+        // Call: a message sent by the receiver thread while processing a batch
+        transaction.begin();
+        producer.send(message, new String[]{DST_TOPIC});
+        transaction.commit(emptyMap(), GROUP_ID);
+        producer.close();
+
+        //Assert: the message was sent through the transaction, with the default key
+        assertEquals(1, mockProducer.history().size());
+        assertEquals(DST_TOPIC, mockProducer.history().get(0).topic());
+        assertEquals(DST_TOPIC + "|" + TestMessage.class.getName(), new String(mockProducer.history().get(0).key()));
+        assertEquals(message, KafkaMessage.parseFrom(mockProducer.history().get(0).value()).getPayload().unpack(TestMessage.class));
+    }
+}
@@ -0,0 +1,144 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.lang.Thread.sleep;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link KeyStripedDispatcher} class
+ */
+public class KeyStripedDispatcherTest {
+
+    private static final TopicPartition TOPIC_PARTITION = new TopicPartition("StripedTopic", 0);
+    private static final int STRIPES = 4;
+    private static final long TIMEOUT = 5000;
+
+    // object under testing
+    private KeyStripedDispatcher dispatcher;
+    // two keys of different stripes
+    private String slowKey;
+    private String fastKey;
+
+    @Before
+    public void setUp() {
+        this.dispatcher = new KeyStripedDispatcher("test", STRIPES, 8);
+        this.slowKey = "key0";
+        int i = 1;
+        while (dispatcher.stripeOf("key" + i) == dispatcher.stripeOf(slowKey)) i++;
+        this.fastKey = "key" + i;
+    }
+
+    @After
+    public void destroy() {
+        dispatcher.close(TIMEOUT);
+    }
+
+    @Test
+    public void dispatch_sameKeyInOrder() throws Exception {
+        // Prepare
+        final List<Integer> processed = new CopyOnWriteArrayList<>();
+        final int messages = 100;
+
+        // Call: more records than the ring capacity
+        for (int i = 0; i < messages; i++) {
+            final int message = i;
+            dispatcher.dispatch(TOPIC_PARTITION, slowKey, i, () -> processed.add(message));
+        }
+        awaitProcessed(processed, messages);
+
+        //Assert
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, processed);
+    }
+
+    @Test
+    public void dispatch_otherKeysNotBlocked() throws Exception {
+        // Prepare
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastProcessed = new CountDownLatch(1);
+
+        // Call: the first record blocks its stripe
+        dispatcher.dispatch(TOPIC_PARTITION, slowKey, 0, () -> await(release));
+        dispatcher.dispatch(TOPIC_PARTITION, fastKey, 1, fastProcessed::countDown);
+
+        //Assert
+        assertTrue(fastProcessed.await(TIMEOUT, SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void committableOffsets_upToFirstPending() throws Exception {
+        // Prepare
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> processed = new CopyOnWriteArrayList<>();
+        dispatcher.dispatch(TOPIC_PARTITION, fastKey, 0, () -> processed.add(0));
+        dispatcher.dispatch(TOPIC_PARTITION, slowKey, 1, () -> await(release));
+        dispatcher.dispatch(TOPIC_PARTITION, fastKey, 2, () -> processed.add(2));
+        awaitProcessed(processed, 2);
+
+        // Call
+        final Map<TopicPartition, OffsetAndMetadata> pending = dispatcher.committableOffsets();
+        release.countDown();
+        dispatcher.close(TIMEOUT);
+        final Map<TopicPartition, OffsetAndMetadata> completed = dispatcher.committableOffsets();
+
+        //Assert: held back by the blocked record, then moved past the last dispatched one
+        assertEquals(1, pending.get(TOPIC_PARTITION).offset());
+        assertEquals(3, completed.get(TOPIC_PARTITION).offset());
+        assertTrue(dispatcher.committableOffsets().isEmpty());
+    }
+
+    @Test
+    public void dispatch_untrackedTask() throws Exception {
+        // Prepare
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> processed = new CopyOnWriteArrayList<>();
+        dispatcher.dispatch(TOPIC_PARTITION, slowKey, 0, () -> {
+            await(release);
+            processed.add(0);
+        });
+
+        // Call: a redelivery of the same key, with no offset
+        dispatcher.dispatch(slowKey, () -> processed.add(1));
+        release.countDown();
+        awaitProcessed(processed, 2);
+
+        //Assert: run in order on the key stripe, with no offset of its own to be committed
+        assertEquals(0, (int) processed.get(0));
+        assertEquals(1, (int) processed.get(1));
+        assertEquals(1, dispatcher.committableOffsets().get(TOPIC_PARTITION).offset());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitProcessed(List<Integer> processed, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (processed.size() < count && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertEquals(count, processed.size());
+    }
+}
@@ -0,0 +1,134 @@
+package pcosta.kafka.internal;
+
+import org.junit.After;
+import org.junit.Test;
+import pcosta.kafka.api.MessageListener;
+import pcosta.kafka.api.PlatformError;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.lang.Thread.sleep;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link ListenerWatchdog} class
+ */
+public class ListenerWatchdogTest {
+
+    private static final String TOPIC = "WatchedTopic";
+    private static final long TIMEOUT = 5000;
+
+    // the reported errors
+    private final List<PlatformError> errors = new CopyOnWriteArrayList<>();
+    private final MessageListener listener = (metadata, message) -> {
+    };
+    // object under testing
+    private ListenerWatchdog watchdog;
+
+    @After
+    public void destroy() {
+        watchdog.close();
+    }
+
+    @Test
+    public void completed_slowCallReported() throws Exception {
+        // Prepare
+        this.watchdog = new ListenerWatchdog(TOPIC, 10, 0, 0, 1, errors::add);
+
+        // Call: a fast call, then a slow one
+        watchdog.completed(watchdog.started(listener));
+        final ListenerWatchdog.Call call = watchdog.started(listener);
+        sleep(50);
+        watchdog.completed(call);
+
+        //Assert
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getErrorDescription().startsWith("Slow listener"));
+    }
+
+    @Test
+    public void scan_blockedCallReportedWhileRunning() throws Exception {
+        // Prepare
+        this.watchdog = new ListenerWatchdog(TOPIC, 0, 50, 0, 1, errors::add);
+
+        // Call
+        final ListenerWatchdog.Call call = watchdog.started(listener);
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (errors.isEmpty() && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        watchdog.completed(call);
+
+        //Assert: reported once, with the stack trace of the blocked thread
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getErrorDescription().startsWith("Blocked listener"));
+        assertTrue(errors.get(0).getCause().getStackTrace().length > 0);
+    }
+
+    @Test
+    public void strike_isolatedAfterConsecutiveSlowCalls() throws Exception {
+        // Prepare
+        this.watchdog = new ListenerWatchdog(TOPIC, 1, 0, 2, 10, errors::add);
+
+        // Call: a fast call resets the strikes
+        slowCall();
+        watchdog.completed(watchdog.started(listener));
+        slowCall();
+        assertFalse(watchdog.isIsolated(listener));
+        slowCall();
+
+        //Assert: the isolated calls are run by another thread
+        assertTrue(watchdog.isIsolated(listener));
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        final CountDownLatch called = new CountDownLatch(1);
+        assertTrue(watchdog.submitIfIsolated(listener, () -> {
+            thread.set(Thread.currentThread());
+            called.countDown();
+        }, () -> {
+        }));
+        assertTrue(called.await(TIMEOUT, SECONDS));
+        assertNotEquals(Thread.currentThread(), thread.get());
+    }
+
+    @Test
+    public void close_pendingIsolatedCallsDiscarded() throws Exception {
+        // Prepare
+        this.watchdog = new ListenerWatchdog(TOPIC, 1, 0, 1, 10, errors::add);
+        slowCall();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        assertTrue(watchdog.submitIfIsolated(listener, () -> {
+            blocked.countDown();
+            try {
+                release.await(TIMEOUT, SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> {
+        }));
+        assertTrue(blocked.await(TIMEOUT, SECONDS));
+        final AtomicInteger discarded = new AtomicInteger();
+        assertTrue(watchdog.submitIfIsolated(listener, () -> fail("Unexpected call"), discarded::incrementAndGet));
+
+        // Call
+        watchdog.close();
+        release.countDown();
+
+        //Assert: the pending call is discarded, and the listener is no longer isolated
+        assertEquals(1, discarded.get());
+        assertFalse(watchdog.submitIfIsolated(listener, () -> fail("Unexpected call"), discarded::incrementAndGet));
+    }
+
+    private void slowCall() throws InterruptedException {
+        final ListenerWatchdog.Call call = watchdog.started(listener);
+        sleep(20);
+        watchdog.completed(call);
+    }
+}
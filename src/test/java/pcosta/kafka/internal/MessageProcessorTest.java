@@ -1,5 +1,13 @@
 package pcosta.kafka.internal;
 
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
@@ -13,15 +21,22 @@ import pcosta.kafka.core.TestProto.TestMessage;
 import pcosta.kafka.internal.MessageReceiver.MessageProcessor;
 import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.protobuf.ExtensionRegistry.getEmptyRegistry;
 import static java.util.Collections.emptyList;
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
 import static pcosta.kafka.api.MessageListener.LATEST_OFFSET;
 import static pcosta.kafka.internal.TestFactory.SomeMessageRegistry.getExtensionRegistry;
 import static pcosta.kafka.internal.TestFactory.*;
@@ -217,6 +232,277 @@ public class MessageProcessorTest {
      *
      * @return the error listener
      */
+    @Test
+    public void processMessage_fieldMatches() throws Exception {
+        //Prepare: two listeners, only the second one matches the message text
+        final CountDownLatch skippedLatch = new CountDownLatch(1);
+        final CountDownLatch matchedLatch = new CountDownLatch(1);
+        final MessageListener skipped = new TestFactory.SomeMessageListener(skippedLatch);
+        final MessageListener matched = new TestFactory.SomeMessageListener(matchedLatch);
+
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0,
+                TestMessage.class, emptyList(), Arrays.asList(skipped, matched), getEmptyRegistry(), getErrorListener(new CountDownLatch(1)));
+        messageProcessor.registerFieldMatches(TestMessage.class, singletonList(skipped), singletonMap("text", singletonList("otherMessage")));
+        messageProcessor.registerFieldMatches(TestMessage.class, singletonList(matched), singletonMap("text", asList("testMessage", "otherMessage")));
+
+        //Call
+        messageProcessor.process(getDefaultMsg(SENDER_TOPIC).toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: only the matching listener was called back
+        assertTrue(matchedLatch.await(DEFAULT_TIMEOUT, SECONDS));
+        assertFalse(skippedLatch.await(DEFAULT_TIMEOUT, SECONDS));
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void processMessage_fieldMatches_payloadNotParsed() throws Exception {
+        //Prepare: a payload missing the required text field, which can't be parsed
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        final MessageListener listener = new TestFactory.SomeMessageListener(latch);
+        final KafkaMessage unparseable = KafkaMessage.newBuilder()
+                .setPayloadClass(TestMessage.class.getName())
+                .setPayload(Any.newBuilder().setValue(ByteString.EMPTY))
+                .build();
+
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0,
+                TestMessage.class, emptyList(), singletonList(listener), getEmptyRegistry(), getErrorListener(errorLatch));
+        messageProcessor.registerFieldMatches(TestMessage.class, singletonList(listener), singletonMap("text", singletonList("testMessage")));
+
+        //Call
+        messageProcessor.process(unparseable.toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: the predicate was evaluated from the wire and the payload was never parsed
+        assertFalse(errorLatch.await(DEFAULT_TIMEOUT, SECONDS));
+        assertEquals(1, latch.getCount());
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void processMessage_failed_retriedInMemory() throws Exception {
+        //Prepare: a listener failing on its first delivery
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        final AtomicInteger deliveries = new AtomicInteger();
+        final MessageListener<TestMessage> flappingListener = (metadata, message) -> {
+            if (deliveries.incrementAndGet() == 1) throw new IllegalStateException("downstream is down");
+            latch.countDown();
+        };
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                singletonList(flappingListener), getEmptyRegistry(), getErrorListener(errorLatch));
+        final MockProducer<byte[], byte[]> retryProducer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        messageProcessor.retryHandler = new RetryHandler(3, 1, 10, new long[]{1000}, retryProducer);
+
+        //Call
+        messageProcessor.process(getDefaultMsg(SENDER_TOPIC).toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: the error was reported and the message redelivered by the receiver thread, with no retry topic
+        assertTrue(errorLatch.await(DEFAULT_TIMEOUT, SECONDS));
+        for (int i = 0; i < 100 && latch.getCount() > 0; i++) {
+            Thread.sleep(10);
+            messageProcessor.runDueRetries((key, redelivery) -> redelivery.run());
+        }
+        assertEquals(0, latch.getCount());
+        assertEquals(2, deliveries.get());
+        assertTrue(retryProducer.history().isEmpty());
+        messageProcessor.retryHandler.close();
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void processMessage_malformed_deadLettered() throws Exception {
+        //Prepare
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                singletonList(new TestFactory.SomeMessageListener(new CountDownLatch(1))), getEmptyRegistry(), getErrorListener(errorLatch));
+        final MockProducer<byte[], byte[]> retryProducer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        messageProcessor.retryHandler = new RetryHandler(3, 1, 10, new long[]{1000}, retryProducer);
+        final byte[] malformed = {(byte) 0xff, (byte) 0xff};
+
+        //Call
+        messageProcessor.process(malformed, SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: the original bytes were sent to the dead-letter topic
+        assertTrue(errorLatch.await(DEFAULT_TIMEOUT, SECONDS));
+        assertEquals(1, retryProducer.history().size());
+        assertEquals(RetryHandler.deadLetterTopic(RECEIVER_TOPIC), retryProducer.history().get(0).topic());
+        assertArrayEquals(malformed, retryProducer.history().get(0).value());
+        messageProcessor.retryHandler.close();
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void processRetry_noMatchingListener_deadLettered() throws Exception {
+        //Prepare: a message retried for a listener which is no longer registered
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                singletonList(new TestFactory.SomeMessageListener(latch)), getEmptyRegistry(), getErrorListener(errorLatch));
+        final MockProducer<byte[], byte[]> retryProducer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        messageProcessor.retryHandler = new RetryHandler(3, 1, 10, new long[]{1000}, retryProducer);
+        final RecordHeaders headers = new RecordHeaders();
+        headers.add(new RecordHeader(RetryHandler.LISTENERS_HEADER, "some.RemovedListener".getBytes()));
+        final byte[] retried = getDefaultMsg(SENDER_TOPIC).toByteArray();
+
+        //Call
+        messageProcessor.processRetry(retried, DEFAULT_KEY, headers);
+
+        //Assert: reported and sent to the dead-letter topic, without being delivered to the other listeners
+        assertTrue(errorLatch.await(DEFAULT_TIMEOUT, SECONDS));
+        assertEquals(1, latch.getCount());
+        assertEquals(1, retryProducer.history().size());
+        assertEquals(RetryHandler.deadLetterTopic(RECEIVER_TOPIC), retryProducer.history().get(0).topic());
+        assertArrayEquals(retried, retryProducer.history().get(0).value());
+        messageProcessor.retryHandler.close();
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void processMessage_duplicated() throws Exception {
+        //Prepare
+        final CountDownLatch latch = new CountDownLatch(4);
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                singletonList(new TestFactory.SomeMessageListener(latch)), getEmptyRegistry(), getErrorListener(errorLatch));
+        messageProcessor.dedupeCache = new DedupeCache(10);
+        final byte[] withoutId = ((KafkaMessage) getDefaultMsg(SENDER_TOPIC)).toBuilder().clearTraceabilityId().build().toByteArray();
+
+        //Call: the same message redelivered, and two messages with no traceability id
+        messageProcessor.process(getDefaultMsg(SENDER_TOPIC).toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+        messageProcessor.process(getDefaultMsg(SENDER_TOPIC).toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+        messageProcessor.process(withoutId, SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET + 1);
+        messageProcessor.process(withoutId, SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET + 2);
+
+        //Assert: only the duplicate was dropped
+        assertFalse(latch.await(DEFAULT_TIMEOUT, SECONDS));
+        assertEquals(1, latch.getCount());
+        assertEquals(1, messageProcessor.dedupeCache.hits());
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void processMessage_parallelListeners() throws Exception {
+        //Prepare: each listener waits for the other one to be called
+        final CountDownLatch called = new CountDownLatch(2);
+        final AtomicInteger completed = new AtomicInteger();
+        final MessageListener<TestMessage> first = (metadata, message) -> awaitOther(called, completed);
+        final MessageListener<TestMessage> second = (metadata, message) -> awaitOther(called, completed);
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                asList(first, second), getEmptyRegistry(), getErrorListener(new CountDownLatch(1)));
+        messageProcessor.parallelListeners = true;
+        messageProcessor.createListenersExecutor();
+
+        //Call
+        messageProcessor.process(getDefaultMsg(SENDER_TOPIC).toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: both listeners completed once the message was processed
+        assertEquals(2, completed.get());
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void processMessage_aggregated() throws Exception {
+        //Prepare
+        final CountDownLatch latch = new CountDownLatch(3);
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                singletonList(new TestFactory.SomeMessageListener(latch)), getEmptyRegistry(), getErrorListener(errorLatch));
+        messageProcessor.dedupeCache = new DedupeCache(10);
+        final KafkaMessage message = (KafkaMessage) getDefaultMsg(SENDER_TOPIC);
+        final byte[] aggregate = KafkaMessage.newBuilder()
+                .addAggregated(message)
+                .addAggregated(message.toBuilder().setTraceabilityId("other"))
+                .addAggregated(message)
+                .build().toByteArray();
+
+        //Call
+        messageProcessor.process(aggregate, SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: each aggregated message was delivered on its own, but the duplicated one
+        assertFalse(latch.await(DEFAULT_TIMEOUT, SECONDS));
+        assertEquals(1, latch.getCount());
+        assertEquals(1, messageProcessor.dedupeCache.hits());
+        assertEquals(1, errorLatch.getCount());
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void unregisterListener_stopsDelivery() throws Exception {
+        //Prepare
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        final MessageListener listener = new TestFactory.SomeMessageListener(latch);
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                singletonList(listener), getEmptyRegistry(), getErrorListener(errorLatch));
+
+        //Call
+        final boolean unregistered = messageProcessor.unregisterListener(listener);
+        messageProcessor.process(getDefaultMsg(SENDER_TOPIC).toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: the message of the still supported type is skipped, with no error
+        assertTrue(unregistered);
+        assertFalse(messageProcessor.hasListeners());
+        assertFalse(messageProcessor.unregisterListener(listener));
+        assertFalse(latch.await(DEFAULT_TIMEOUT, SECONDS));
+        assertEquals(1, errorLatch.getCount());
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    public void unregisterFilter_resumesDelivery() throws Exception {
+        //Prepare
+        final CountDownLatch latch = new CountDownLatch(1);
+        final MessageFilter filter = new TestFactory.SomeMessageFilter();
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, singletonList(filter),
+                singletonList(new TestFactory.SomeMessageListener(latch)), getEmptyRegistry(), getErrorListener(new CountDownLatch(1)));
+
+        //Call
+        messageProcessor.unregisterFilter(filter);
+        messageProcessor.process(getDefaultMsg(SENDER_TOPIC).toByteArray(), SENDER_TOPIC, DEFAULT_KEY, DEFAULT_OFFSET);
+
+        //Assert: the message is no longer filtered
+        assertTrue(latch.await(DEFAULT_TIMEOUT, SECONDS));
+        messageProcessor.stopReceiver();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void startReceiver_committedOffset_backfillSkipped() throws Exception {
+        //Prepare: the consumer group already consumed the backfilled topic
+        final KafkaReceiver<String, byte[]> receiver = mock(KafkaReceiver.class);
+        when(receiver.committed(new TopicPartition(RECEIVER_TOPIC, 0))).thenReturn(new OffsetAndMetadata(DEFAULT_OFFSET));
+        final CountDownLatch backfillLatch = new CountDownLatch(1);
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0, TestMessage.class, emptyList(),
+                emptyList(), getEmptyRegistry(), getErrorListener(new CountDownLatch(1)));
+        messageProcessor.registerBackfillListener(TestMessage.class, (metadata, messages) -> backfillLatch.countDown());
+        messageProcessor.attachReceiver(receiver);
+
+        //Call
+        messageProcessor.startReceiver();
+
+        //Assert: the live receiver resumes from the committed offset, with no backfill hand-off
+        verify(receiver, timeout(DEFAULT_TIMEOUT * 1000)).start();
+        assertEquals(-1, messageProcessor.handoffOffset);
+        assertEquals(1, backfillLatch.getCount());
+        messageProcessor.stopReceiver();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerFieldMatches_unknownField() {
+        this.messageProcessor = new MessageProcessor(RECEIVER_TOPIC, LATEST_OFFSET, 0,
+                TestMessage.class, emptyList(), emptyList(), getEmptyRegistry(), getErrorListener(new CountDownLatch(1)));
+        messageProcessor.registerFieldMatches(TestMessage.class, emptyList(), singletonMap("unknown", singletonList("value")));
+    }
+
+    private static void awaitOther(CountDownLatch called, AtomicInteger completed) {
+        called.countDown();
+        try {
+            if (called.await(DEFAULT_TIMEOUT, SECONDS)) completed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private PlatformErrorListener getErrorListener(CountDownLatch latch) {
         return error -> {
             latch.countDown();
@@ -0,0 +1,206 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.After;
+import org.junit.Test;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link ProducerAggregator} class
+ */
+public class ProducerAggregatorTest {
+
+    private static final String TOPIC = "AggregatedTopic";
+    private static final byte[] KEY = "key".getBytes();
+
+    // the flushed aggregates
+    private final List<KafkaMessage> flushed = new CopyOnWriteArrayList<>();
+    private final CountDownLatch flushedLatch = new CountDownLatch(1);
+
+    // object under testing
+    private ProducerAggregator aggregator;
+
+    @After
+    public void cleanup() {
+        if (aggregator != null) aggregator.close();
+    }
+
+    @Test
+    public void append_flushedByCount() {
+        //Prepare
+        this.aggregator = new ProducerAggregator(TOPIC, 1024, 3, 64 * 1024, 60_000, this::flush);
+        final CompletableFuture<Long> ack = new CompletableFuture<>();
+
+        //Call
+        assertTrue(aggregator.append(TOPIC, KEY, message("a"), ack, this::unexpectedOversized));
+        assertTrue(aggregator.append(TOPIC, KEY, message("b"), null, this::unexpectedOversized));
+        assertTrue(flushed.isEmpty());
+        assertTrue(aggregator.append(TOPIC, KEY, message("c"), null, this::unexpectedOversized));
+
+        //Assert: a single record with the messages in order, whose acks are handed over
+        assertEquals(1, flushed.size());
+        assertEquals(3, flushed.get(0).getAggregatedCount());
+        assertEquals("a", flushed.get(0).getAggregated(0).getTraceabilityId());
+        assertEquals("c", flushed.get(0).getAggregated(2).getTraceabilityId());
+        assertEquals(Long.valueOf(10L), ack.join());
+    }
+
+    @Test
+    public void append_flushedByLinger() throws Exception {
+        //Prepare
+        this.aggregator = new ProducerAggregator(TOPIC, 1024, 100, 64 * 1024, 10, this::flush);
+
+        //Call
+        assertTrue(aggregator.append(TOPIC, KEY, message("a"), null, this::unexpectedOversized));
+
+        //Assert
+        assertTrue(flushedLatch.await(2, SECONDS));
+        assertEquals(1, flushed.get(0).getAggregatedCount());
+    }
+
+    @Test
+    public void append_byKey() {
+        //Prepare
+        this.aggregator = new ProducerAggregator(TOPIC, 1024, 2, 64 * 1024, 60_000, this::flush);
+
+        //Call: the messages of other keys are aggregated apart
+        aggregator.append(TOPIC, KEY, message("a"), null, this::unexpectedOversized);
+        aggregator.append(TOPIC, "other".getBytes(), message("b"), null, this::unexpectedOversized);
+        aggregator.append(TOPIC, KEY.clone(), message("c"), null, this::unexpectedOversized);
+
+        //Assert
+        assertEquals(1, flushed.size());
+        assertEquals("a", flushed.get(0).getAggregated(0).getTraceabilityId());
+        assertEquals("c", flushed.get(0).getAggregated(1).getTraceabilityId());
+    }
+
+    @Test
+    public void append_concurrent_sentInOrderByKey() throws Exception {
+        //Prepare: the sent messages by key
+        final Map<String, List<String>> sent = new ConcurrentHashMap<>();
+        this.aggregator = new ProducerAggregator(TOPIC, 1024, 3, 64 * 1024, 60_000, (dstTopic, key, aggregate, acks) -> {
+            assertFalse(Thread.holdsLock(this.aggregator));
+            final List<String> messages = sent.computeIfAbsent(new String(key), k -> new CopyOnWriteArrayList<>());
+            try {
+                KafkaMessage.parseFrom(aggregate).getAggregatedList().forEach(message -> messages.add(message.getTraceabilityId()));
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        final int threads = 4;
+        final int messages = 500;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        //Call: the threads send the messages of two keys, one of them being shared with the other threads
+        for (int t = 0; t < threads; t++) {
+            final String threadKey = "key" + t;
+            new Thread(() -> {
+                for (int i = 0; i < messages; i++) {
+                    aggregator.append(TOPIC, threadKey.getBytes(), message(String.valueOf(i)), null, this::unexpectedOversized);
+                    aggregator.append(TOPIC, KEY, message("shared"), null, this::unexpectedOversized);
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, SECONDS));
+        aggregator.flush();
+
+        //Assert: the messages of each key were sent in order
+        assertEquals(threads * messages, sent.get(new String(KEY)).size());
+        for (int t = 0; t < threads; t++) {
+            final List<String> threadMessages = sent.get("key" + t);
+            assertEquals(messages, threadMessages.size());
+            for (int i = 0; i < messages; i++) {
+                assertEquals(String.valueOf(i), threadMessages.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void append_largeMessage_flushesPending() {
+        //Prepare
+        this.aggregator = new ProducerAggregator(TOPIC, 128, 100, 64 * 1024, 60_000, this::flush);
+        final List<Integer> sentAfter = new ArrayList<>();
+
+        //Call
+        assertTrue(aggregator.append(TOPIC, KEY, message("a"), null, this::unexpectedOversized));
+        final boolean aggregated = aggregator.append(TOPIC, KEY, largeMessage(), null, () -> sentAfter.add(flushed.size()));
+
+        //Assert: the large message is sent on its own, after the pending ones
+        assertFalse(aggregated);
+        assertEquals(1, flushed.size());
+        assertEquals(1, flushed.get(0).getAggregatedCount());
+        assertEquals(singletonList(1), sentAfter);
+    }
+
+    @Test
+    public void append_largeMessage_waitsForLingeringFlush() throws Exception {
+        //Prepare: the lingering aggregate is taken, but its flush is blocked
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        final CountDownLatch flushing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.aggregator = new ProducerAggregator(TOPIC, 128, 100, 64 * 1024, 1, (dstTopic, key, aggregate, acks) -> {
+            flushing.countDown();
+            try {
+                release.await(10, SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add("aggregate");
+        });
+        assertTrue(aggregator.append(TOPIC, KEY, message("a"), null, this::unexpectedOversized));
+        assertTrue(flushing.await(10, SECONDS));
+
+        //Call
+        final Thread sender = new Thread(() -> aggregator.append(TOPIC, KEY, largeMessage(), null, () -> sent.add("large")));
+        sender.start();
+        sender.join(200);
+        assertTrue(sent.isEmpty());
+        release.countDown();
+        sender.join(10_000);
+
+        //Assert: the large message didn't overtake the aggregate
+        assertEquals(asList("aggregate", "large"), sent);
+    }
+
+    private void flush(String dstTopic, byte[] key, byte[] aggregate, List<CompletableFuture<Long>> acks) {
+        assertEquals(TOPIC, dstTopic);
+        // sent without holding the aggregator lock
+        assertFalse(Thread.holdsLock(this.aggregator));
+        try {
+            flushed.add(KafkaMessage.parseFrom(aggregate));
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        acks.forEach(ack -> ack.complete(10L));
+        flushedLatch.countDown();
+    }
+
+    private void unexpectedOversized() {
+        fail("Unexpected oversized message");
+    }
+
+    private static byte[] largeMessage() {
+        return KafkaMessageEncoder.encode(TestMessage.newBuilder().setText(new String(new char[128])).build(), "large");
+    }
+
+    private static byte[] message(String traceabilityId) {
+        return KafkaMessageEncoder.encode(TestMessage.newBuilder().setText("small").build(), traceabilityId);
+    }
+}
@@ -0,0 +1,181 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pcosta.kafka.api.MessagePartitioner;
+import pcosta.kafka.api.MessagingException;
+
+import java.nio.file.Path;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link ProducerSpool} class
+ */
+public class ProducerSpoolTest {
+
+    private static final String DST_TOPIC = "DstTopic";
+    private static final int MAX_BYTES = 1024;
+    private static final int WINDOW = 4;
+    private static final long TIMEOUT = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the journal file
+    private Path file;
+
+    @Before
+    public void setUp() {
+        this.file = folder.getRoot().toPath().resolve("producer.spool");
+    }
+
+    @Test
+    public void append_drainedInOrder() throws Exception {
+        // Prepare
+        final MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        final ProducerSpool spool = new ProducerSpool(file, MAX_BYTES, 10, WINDOW, producer);
+
+        // Call
+        assertTrue(spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, "key".getBytes(), "first".getBytes()));
+        assertTrue(spool.append(DST_TOPIC, 2, null, "second".getBytes()));
+        awaitDrained(spool);
+        spool.close();
+
+        //Assert
+        assertEquals(2, producer.history().size());
+        final ProducerRecord<byte[], byte[]> first = producer.history().get(0);
+        assertEquals(DST_TOPIC, first.topic());
+        assertNull(first.partition());
+        assertArrayEquals("key".getBytes(), first.key());
+        assertArrayEquals("first".getBytes(), first.value());
+        final ProducerRecord<byte[], byte[]> second = producer.history().get(1);
+        assertEquals(Integer.valueOf(2), second.partition());
+        assertNull(second.key());
+        assertArrayEquals("second".getBytes(), second.value());
+    }
+
+    @Test
+    public void close_pendingRecordsReplayedOnReopen() throws Exception {
+        // Prepare: the brokers never acknowledge
+        final MockProducer<byte[], byte[]> downProducer = new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+        final ProducerSpool spool = new ProducerSpool(file, MAX_BYTES, 10, WINDOW, downProducer);
+        spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, null, "first".getBytes());
+        spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, null, "second".getBytes());
+        spool.close();
+
+        // Call
+        final MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        final ProducerSpool reopened = new ProducerSpool(file, MAX_BYTES, 10, WINDOW, producer);
+        awaitDrained(reopened);
+        reopened.close();
+
+        //Assert
+        assertEquals(2, producer.history().size());
+        assertArrayEquals("first".getBytes(), producer.history().get(0).value());
+        assertArrayEquals("second".getBytes(), producer.history().get(1).value());
+    }
+
+    @Test
+    public void append_wrapsAroundTheRing() throws Exception {
+        // Prepare
+        final MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        final ProducerSpool spool = new ProducerSpool(file, MAX_BYTES, 10, WINDOW, producer);
+
+        // Call: several times the capacity of the journal
+        for (int i = 0; i < 20; i++) {
+            final byte[] value = new byte[MAX_BYTES / 5];
+            value[0] = (byte) i;
+            value[value.length - 1] = (byte) i;
+            assertTrue(spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, null, value));
+            awaitDrained(spool);
+        }
+        spool.close();
+
+        //Assert
+        assertEquals(20, producer.history().size());
+        for (int i = 0; i < 20; i++) {
+            final byte[] value = producer.history().get(i).value();
+            assertEquals(i, value[0]);
+            assertEquals(i, value[value.length - 1]);
+        }
+    }
+
+    @Test
+    public void replayFailed_replayedAgainInOrder() throws Exception {
+        // Prepare
+        final MockProducer<byte[], byte[]> producer = new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+        final ProducerSpool spool = new ProducerSpool(file, MAX_BYTES, 10, WINDOW, producer);
+        spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, null, "first".getBytes());
+        spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, null, "second".getBytes());
+        awaitSent(producer, 2);
+
+        // Call: the first replay fails while the second one succeeds
+        assertTrue(producer.errorNext(new RuntimeException("broker down")));
+        assertTrue(producer.completeNext());
+        assertTrue(spool.isSpooling());
+        awaitSent(producer, 4);
+        assertTrue(producer.completeNext());
+        assertTrue(producer.completeNext());
+        awaitDrained(spool);
+        spool.close();
+
+        //Assert: both records were replayed again, in order
+        assertArrayEquals("first".getBytes(), producer.history().get(2).value());
+        assertArrayEquals("second".getBytes(), producer.history().get(3).value());
+    }
+
+    @Test
+    public void append_boundedSize() {
+        // Prepare
+        final MockProducer<byte[], byte[]> downProducer = new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+        final ProducerSpool spool = new ProducerSpool(file, MAX_BYTES, 10, WINDOW, downProducer);
+
+        //Assert: the records which don't fit are rejected
+        assertTrue(spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, null, new byte[MAX_BYTES / 2]));
+        assertFalse(spool.append(DST_TOPIC, MessagePartitioner.DEFAULT_PARTITION, null, new byte[MAX_BYTES / 2]));
+        assertTrue(spool.isSpooling());
+        spool.close();
+    }
+
+    @Test
+    public void open_journalInUse_fails() {
+        // Prepare
+        final MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        final ProducerSpool spool = new ProducerSpool(file, MAX_BYTES, 10, WINDOW, producer);
+
+        // Call
+        try {
+            new ProducerSpool(file, MAX_BYTES, 10, WINDOW, new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer()));
+            fail("the journal is locked by the first spool");
+        } catch (MessagingException e) {
+            //Assert: the journal is released once closed
+            spool.close();
+            new ProducerSpool(file, MAX_BYTES, 10, WINDOW, new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer())).close();
+        }
+    }
+
+    private static void awaitSent(MockProducer<byte[], byte[]> producer, int records) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (producer.history().size() < records && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertEquals(records, producer.history().size());
+    }
+
+    private static void awaitDrained(ProducerSpool spool) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (spool.isSpooling() && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertFalse(spool.isSpooling());
+    }
+}
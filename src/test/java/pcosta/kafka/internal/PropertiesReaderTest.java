@@ -4,6 +4,7 @@ import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import pcosta.kafka.api.MessagingException;
 
 import java.util.Map;
 import java.util.Properties;
@@ -72,4 +73,19 @@ public class PropertiesReaderTest {
         assertTrue(senderProps.get(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG).toString().equals("localhost:9092_test"));
         assertTrue(senderProps.get(ConsumerConfig.GROUP_ID_CONFIG).toString().equals("test_sender"));
     }
-}
\ No newline at end of file
+
+    @Test(expected = MessagingException.class)
+    public void loadPropsOfUndefinedCluster() {
+        //Call
+        propertiesReader.loadSenderProps("undefined");
+    }
+
+    @Test
+    public void loadPropsOfDefaultCluster() {
+        //Call
+        final Map<String, Object> senderProps = propertiesReader.loadSenderProps(PropertiesReader.DEFAULT_CLUSTER);
+
+        //Assert
+        assertEquals(propertiesReader.loadSenderProps(), senderProps);
+    }
+}
@@ -0,0 +1,105 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Test;
+import pcosta.kafka.core.TestProto.RoutedTestMessage;
+import pcosta.kafka.core.TestProto.RoutedTestMessage.Header;
+import pcosta.kafka.core.TestProto.RoutedTestMessage.Kind;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link ProtobufFieldExtractor} class
+ */
+public class ProtobufFieldExtractorTest {
+
+    private static final RoutedTestMessage MESSAGE = RoutedTestMessage.newBuilder()
+            .setHeader(Header.newBuilder().setTenantId("tenant1").setSequence(10L))
+            .setKind(Kind.DELETED)
+            .setPriority(-3)
+            .setUrgent(true)
+            .setBody(ByteString.copyFromUtf8("body"))
+            .build();
+
+    @Test
+    public void extract_typedValues() throws Exception {
+        final byte[] bytes = MESSAGE.toByteArray();
+
+        //Assert: the values are the same as the parsed message ones
+        assertEquals("tenant1", extractor("header.tenant_id").extract(bytes));
+        assertEquals(10L, extractor("header.sequence").extract(bytes));
+        assertEquals(Kind.DELETED.getValueDescriptor(), extractor("kind").extract(bytes));
+        assertEquals(-3, extractor("priority").extract(bytes));
+        assertEquals(true, extractor("urgent").extract(bytes));
+        assertEquals(ByteString.copyFromUtf8("body"), extractor("body").extract(bytes));
+        assertEquals(MESSAGE.getHeader().toByteString(), extractor("header").extract(bytes));
+    }
+
+    @Test
+    public void extract_absentFields() throws Exception {
+        final ByteString bytes = RoutedTestMessage.newBuilder().setPriority(1).build().toByteString();
+
+        //Assert: absent fields hold their default values
+        assertEquals("", extractor("header.tenant_id").extract(bytes));
+        assertEquals(Kind.CREATED.getValueDescriptor(), extractor("kind").extract(bytes));
+        assertEquals(false, extractor("urgent").extract(bytes));
+        assertEquals(ByteString.EMPTY, extractor("header").extract(bytes));
+    }
+
+    @Test
+    public void extract_lastOccurrenceWins() throws Exception {
+        // Call: concatenated messages are merged when parsed
+        final RoutedTestMessage other = RoutedTestMessage.newBuilder()
+                .setHeader(Header.newBuilder().setSequence(20L))
+                .build();
+        final ByteString bytes = MESSAGE.toByteString().concat(other.toByteString());
+
+        //Assert
+        assertEquals(RoutedTestMessage.parseFrom(bytes).getHeader().getTenantId(), extractor("header.tenant_id").extract(bytes));
+        assertEquals(20L, extractor("header.sequence").extract(bytes));
+    }
+
+    @Test
+    public void extractRaw_fromKafkaMessage() throws Exception {
+        final KafkaMessage kafkaMessage = KafkaMessage.newBuilder()
+                .setTraceabilityId("traceabilityId")
+                .setPayloadClass(RoutedTestMessage.class.getName())
+                .setPayload(Any.pack(MESSAGE))
+                .build();
+
+        // Call: the traceability id and the payload of the envelope, no type information needed
+        final Object traceabilityId = ProtobufFieldExtractor.extractRaw(kafkaMessage.toByteString(), 1);
+        final Object payload = ProtobufFieldExtractor.extractRaw(kafkaMessage.toByteString(), 4, 2);
+
+        //Assert
+        assertEquals(ByteString.copyFromUtf8("traceabilityId"), traceabilityId);
+        assertEquals(MESSAGE.toByteString(), payload);
+        assertNull(ProtobufFieldExtractor.extractRaw(kafkaMessage.toByteString(), 2));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void extract_malformed() throws Exception {
+        final byte[] bytes = MESSAGE.toByteArray();
+        extractor("urgent").extract(java.util.Arrays.copyOf(bytes, bytes.length - 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forPath_unknownField() {
+        extractor("header.unknown");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forFields_notNested() {
+        ProtobufFieldExtractor.forFields(RoutedTestMessage.getDescriptor().findFieldByName("kind"),
+                Header.getDescriptor().findFieldByName("tenant_id"));
+    }
+
+    private static ProtobufFieldExtractor extractor(String path) {
+        return ProtobufFieldExtractor.forPath(RoutedTestMessage.getDescriptor(), path);
+    }
+}
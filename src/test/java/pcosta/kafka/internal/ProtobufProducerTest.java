@@ -0,0 +1,283 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.kafka.test.rule.KafkaEmbedded;
+import pcosta.kafka.api.MessagingException;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static pcosta.kafka.internal.TestFactory.receiverProps;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link ProtobufProducer} class
+ */
+@SuppressWarnings("unchecked")
+public class ProtobufProducerTest {
+
+    // the testing topics
+    private static final String WARM_TOPIC = "WarmTopic";
+    private static final String COLD_TOPIC = "ColdTopic";
+    private static final String KEYS_TOPIC = "KeysTopic";
+    private static final String PARTITIONED_TOPIC = "PartitionedTopic";
+    private static final String SINK_TOPIC = "SinkTopic";
+    private static final String QUEUED_TOPIC = "QueuedTopic";
+
+    // the number of messages sent by each test
+    private static final int MESSAGES = 10;
+
+    @ClassRule
+    public static KafkaEmbedded embeddedKafka = new KafkaEmbedded(1, true, 1, WARM_TOPIC, COLD_TOPIC, KEYS_TOPIC, PARTITIONED_TOPIC, SINK_TOPIC,
+            QUEUED_TOPIC);
+
+    // object under testing
+    private ProtobufProducer<TestMessage> producer;
+    // the broker dynamic listening port
+    private String port;
+
+    @Before
+    public void setUp() {
+        System.setProperty(PropertiesReader.CONFIGURATION_FILE_DIR, "src/test/resources");
+        embeddedKafka.waitUntilSynced(WARM_TOPIC, 0);
+        this.port = embeddedKafka.getKafkaServer(0).config().port().toString();
+        this.producer = new ProtobufProducer<>(new StringSerializer(), new ProtobufSerializer());
+    }
+
+    @After
+    public void destroy() {
+        producer.close();
+    }
+
+    @Test
+    public void warmUp_thenSend() throws Exception {
+        // Call: create the sender upfront and send the messages
+        producer.warmUp(WARM_TOPIC);
+        sendMessages(WARM_TOPIC);
+
+        //Assert
+        assertEquals(expectedIds(), receiveIds(WARM_TOPIC));
+    }
+
+    @Test
+    public void send_whileSenderIsCreated_keepsOrder() throws Exception {
+        // Call: the first messages are sent while the topic sender is still being created
+        sendMessages(COLD_TOPIC);
+
+        //Assert: every message was sent, in the original order
+        assertEquals(expectedIds(), receiveIds(COLD_TOPIC));
+    }
+
+    @Test
+    public void send_defaultAndExplicitKeys() throws Exception {
+        final TestMessage message = TestMessage.newBuilder().setText("testMessage").build();
+
+        // Call: the default key is sent twice, to use the cached one
+        producer.send(message, new String[]{KEYS_TOPIC});
+        producer.send(message, new String[]{KEYS_TOPIC});
+        producer.send(message, "someKey", new String[]{KEYS_TOPIC});
+
+        //Assert
+        final List<String> keys = new ArrayList<>();
+        receive(KEYS_TOPIC, 3).forEach(record -> keys.add(record.key()));
+        final String defaultKey = KEYS_TOPIC + "|" + TestMessage.class.getName();
+        assertEquals(Arrays.asList(defaultKey, defaultKey, "someKey"), keys);
+    }
+
+    @Test
+    public void send_withPartitioner() throws Exception {
+        //Prepare
+        final List<Integer> partitionCounts = new CopyOnWriteArrayList<>();
+        producer.setPartitioner((topic, message, key, numPartitions) -> {
+            partitionCounts.add(numPartitions);
+            return numPartitions - 1;
+        });
+
+        // Call
+        sendMessages(PARTITIONED_TOPIC);
+
+        //Assert: the partitioner was asked for every message
+        assertEquals(expectedIds(), receiveIds(PARTITIONED_TOPIC));
+        assertEquals(MESSAGES, partitionCounts.size());
+        assertEquals(1, partitionCounts.get(0).intValue());
+    }
+
+    @Test
+    public void sink_requestsAsAcknowledged() throws Exception {
+        //Prepare
+        final int maxInFlight = 3;
+        final List<Long> offsets = new CopyOnWriteArrayList<>();
+        final AtomicLong requested = new AtomicLong();
+        final Subscriber<TestMessage> sink = producer.sink(SINK_TOPIC, maxInFlight, (message, offset, error) -> offsets.add(offset));
+
+        // Call: send as many messages as initially requested
+        sink.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        assertEquals(maxInFlight, requested.get());
+        for (int i = 0; i < maxInFlight; i++) {
+            sink.onNext(TestMessage.newBuilder().setText("testMessage").build());
+        }
+
+        //Assert: a further message was requested as each one was acknowledged
+        final long deadline = System.currentTimeMillis() + 20_000;
+        while (offsets.size() < maxInFlight && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList(0L, 1L, 2L), offsets);
+        assertEquals(2 * maxInFlight, requested.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sink_invalidMaxInFlight() {
+        producer.sink(SINK_TOPIC, 0, (message, offset, error) -> {
+        });
+    }
+
+    @Test
+    public void sendAsync_manyWhileSenderIsCreated_allSent() throws Exception {
+        //Prepare
+        final int queued = 5000;
+        final List<CompletableFuture<Long>> acks = new ArrayList<>(queued);
+
+        // Call: the messages are queued while the topic sender is being created
+        for (int i = 0; i < queued; i++) {
+            acks.add(producer.sendAsync(TestMessage.newBuilder().setText(String.valueOf(i)).build(), QUEUED_TOPIC));
+        }
+
+        //Assert: every message was acknowledged, in order
+        CompletableFuture.allOf(acks.toArray(new CompletableFuture[queued])).get(30, SECONDS);
+        for (int i = 1; i < queued; i++) {
+            assertTrue(acks.get(i).join() > acks.get(i - 1).join());
+        }
+    }
+
+    @Test
+    public void sendAsync_manyWhileSenderCreationFails_allFailed() throws Exception {
+        //Prepare: the senders of an undefined cluster profile can't be created
+        final ProtobufProducer<TestMessage> unknownCluster = new ProtobufProducer<>(new StringSerializer(), new ProtobufSerializer(),
+                Collections.emptyList(), "UnknownCluster");
+        final int queued = 5000;
+        final List<CompletableFuture<Long>> acks = new ArrayList<>(queued);
+
+        // Call
+        try {
+            for (int i = 0; i < queued; i++) {
+                acks.add(unknownCluster.sendAsync(TestMessage.newBuilder().setText(String.valueOf(i)).build(), QUEUED_TOPIC));
+            }
+
+            //Assert: every acknowledgement failed
+            for (CompletableFuture<Long> ack : acks) {
+                try {
+                    ack.get(30, SECONDS);
+                    fail("the sender creation failure must be reported");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof MessagingException);
+                }
+            }
+        } finally {
+            unknownCluster.close();
+        }
+    }
+
+    @Test
+    public void send_senderCreationFailed_reportedToCaller() throws Exception {
+        //Prepare: the senders of an undefined cluster profile can't be created
+        final ProtobufProducer<TestMessage> unknownCluster = new ProtobufProducer<>(new StringSerializer(), new ProtobufSerializer(),
+                Collections.emptyList(), "UnknownCluster");
+        final TestMessage message = TestMessage.newBuilder().setText("testMessage").build();
+
+        // Call: every send fails, including the ones queued behind the failed creation
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    unknownCluster.send(message, new String[]{COLD_TOPIC});
+                    fail("the sender creation failure must be reported");
+                } catch (MessagingException e) {
+                    //Assert
+                    assertTrue(e.getMessage().contains("UnknownCluster"));
+                }
+            }
+        } finally {
+            unknownCluster.close();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void warmUp_invalidTopic() throws Exception {
+        producer.warmUp(WARM_TOPIC, null);
+    }
+
+    private void sendMessages(String topic) throws Exception {
+        for (int i = 0; i < MESSAGES; i++) {
+            producer.send(TestMessage.newBuilder().setText("testMessage").build(), null, String.valueOf(i), new String[]{topic});
+        }
+    }
+
+    private static List<String> expectedIds() {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            ids.add(String.valueOf(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the traceability ids of the messages sent to the given topic
+     */
+    private List<String> receiveIds(String topic) throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (ConsumerRecord<String, byte[]> record : receive(topic, MESSAGES)) {
+            ids.add(KafkaMessage.parseFrom(record.value()).getTraceabilityId());
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the records sent to the given topic
+     */
+    private List<ConsumerRecord<String, byte[]>> receive(String topic, int count) {
+        final List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(receiverProps(port))) {
+            final TopicPartition topicPartition = new TopicPartition(topic, 0);
+            consumer.assign(singletonList(topicPartition));
+            consumer.seekToBeginning(singletonList(topicPartition));
+
+            final long deadline = System.currentTimeMillis() + 20_000;
+            while (records.size() < count && System.currentTimeMillis() < deadline) {
+                consumer.poll(500).forEach(records::add);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,135 @@
+package pcosta.kafka.internal;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pcosta.kafka.api.MessageKey;
+
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+import static pcosta.kafka.internal.RetryHandler.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link RetryHandler} class
+ */
+public class RetryHandlerTest {
+
+    private static final String SRC_TOPIC = "SrcTopic";
+    private static final MessageKey KEY = new StringMessageKey(SRC_TOPIC + "|SomeType");
+    private static final byte[] BYTES = "message".getBytes();
+
+    // the retry topics producer mock
+    private MockProducer<byte[], byte[]> mockProducer;
+    // object under testing
+    private RetryHandler handler;
+
+    @Before
+    public void setUp() {
+        this.mockProducer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        this.handler = new RetryHandler(2, 1, 1, new long[]{60_000, 120_000}, mockProducer);
+    }
+
+    @After
+    public void destroy() {
+        handler.close();
+    }
+
+    @Test
+    public void forward_toRetryTopic() {
+        final long start = System.currentTimeMillis();
+
+        // Call
+        handler.forward(SRC_TOPIC, KEY, BYTES, 10, 1, singletonMap(new TestFactory.SomeMessageListener(null), new IllegalStateException("down")));
+
+        //Assert: the original bytes, delayed by the tier delay
+        final ProducerRecord<byte[], byte[]> record = mockProducer.history().get(0);
+        assertEquals(retryTopic(SRC_TOPIC, 1), record.topic());
+        assertArrayEquals(BYTES, record.value());
+        assertEquals(KEY.getKey(), new String(record.key()));
+        assertEquals(SRC_TOPIC, headerValue(record.headers(), SOURCE_TOPIC_HEADER));
+        assertEquals("10", headerValue(record.headers(), SOURCE_OFFSET_HEADER));
+        assertEquals("1", headerValue(record.headers(), TIER_HEADER));
+        assertEquals(TestFactory.SomeMessageListener.class.getName(), headerValue(record.headers(), LISTENERS_HEADER));
+        assertEquals("down", headerValue(record.headers(), ERROR_MESSAGE_HEADER));
+        assertTrue(dueTime(record.headers()) >= start + 120_000);
+    }
+
+    @Test
+    public void forward_afterLastTier_toDeadLetterTopic() {
+        // Call
+        handler.forward(SRC_TOPIC, KEY, BYTES, 10, 2, singletonMap(new TestFactory.SomeMessageListener(null), new IllegalStateException()));
+        handler.deadLetter(SRC_TOPIC, KEY, BYTES, 11, new IllegalArgumentException("malformed"));
+
+        //Assert
+        assertEquals(2, mockProducer.history().size());
+        for (ProducerRecord<byte[], byte[]> record : mockProducer.history()) {
+            assertEquals(deadLetterTopic(SRC_TOPIC), record.topic());
+            assertEquals(0, dueTime(record.headers()));
+        }
+        assertEquals(IllegalArgumentException.class.getName(), headerValue(mockProducer.history().get(1).headers(), ERROR_CLASS_HEADER));
+    }
+
+    @Test
+    public void schedule_boundedAttempts() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        //Assert: only the configured attempts are scheduled
+        assertTrue(handler.schedule(1, latch::countDown, () -> fail("forwarded")));
+        assertTrue(latch.await(1, SECONDS));
+        assertFalse(handler.schedule(3, latch::countDown, () -> fail("forwarded")));
+    }
+
+    @Test
+    public void schedule_boundedPending() {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        //Assert: the pending redeliveries are bounded, further messages go to the retry topics
+        assertTrue(handler.schedule(2, () -> awaitQuietly(latch), () -> {
+        }));
+        assertFalse(handler.schedule(1, () -> {
+        }, () -> {
+        }));
+        latch.countDown();
+    }
+
+    @Test
+    public void close_forwardsScheduledRedeliveries() {
+        // Prepare: a redelivery far from being due
+        final MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        final RetryHandler delayed = new RetryHandler(2, 60_000, 10, new long[]{60_000}, producer);
+        assertTrue(delayed.schedule(1, () -> fail("redelivered"),
+                () -> delayed.forward(SRC_TOPIC, KEY, BYTES, 10, 0, singletonMap(new TestFactory.SomeMessageListener(null), new IllegalStateException()))));
+
+        // Call
+        delayed.close();
+
+        //Assert: forwarded to the first retry topic, and no further redeliveries are scheduled
+        assertEquals(1, producer.history().size());
+        assertEquals(retryTopic(SRC_TOPIC, 0), producer.history().get(0).topic());
+        assertFalse(delayed.schedule(1, () -> {
+        }, () -> {
+        }));
+    }
+
+    @Test
+    public void retryTopics() {
+        assertEquals(2, handler.retryTopics(SRC_TOPIC).size());
+        assertEquals(SRC_TOPIC + ".retry.0", handler.retryTopics(SRC_TOPIC).get(0));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(1, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
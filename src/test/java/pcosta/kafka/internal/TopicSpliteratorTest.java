@@ -0,0 +1,148 @@
+package pcosta.kafka.internal;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.Message;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.rule.KafkaEmbedded;
+import pcosta.kafka.core.TestProto.TestMessage;
+import pcosta.kafka.internal.TopicSpliterator.OffsetRange;
+import pcosta.kafka.message.KafkaMessageProto.KafkaMessage;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+import static pcosta.kafka.internal.TestFactory.*;
+
+/**
+ * @author Pedro Costa
+ * <p>
+ * Unit tests for the {@link TopicSpliterator} class
+ */
+@SuppressWarnings("unchecked")
+public class TopicSpliteratorTest {
+
+    private static final String READ_TOPIC = "ReadTopic";
+    private static final int MESSAGES = 10;
+
+    @ClassRule
+    public static KafkaEmbedded embeddedKafka = new KafkaEmbedded(1, true, 2, READ_TOPIC);
+
+    // the broker dynamic listening port
+    private static String port;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        embeddedKafka.waitUntilSynced(READ_TOPIC, 0);
+        port = embeddedKafka.getKafkaServer(0).config().port().toString();
+
+        // the same messages on both partitions, along with a message of another type
+        final DefaultKafkaProducerFactory<String, Message> senderFactory = new DefaultKafkaProducerFactory<>(senderProps(port));
+        final KafkaTemplate<String, Message> sender = new KafkaTemplate<>(senderFactory, true);
+        for (int partition = 0; partition < 2; partition++) {
+            for (int i = 0; i < MESSAGES; i++) {
+                sender.send(READ_TOPIC, partition, "key", getDefaultMsg(READ_TOPIC)).get();
+            }
+            sender.send(READ_TOPIC, partition, "key", getSomeOtherDefaultMessage(READ_TOPIC)).get();
+        }
+        senderFactory.destroy();
+    }
+
+    @Test
+    public void stream_readsRangeOfEveryPartition() {
+        // Call
+        final long count;
+        try (Stream<TestMessage> messages = stream(2, 8, 1)) {
+            count = messages.count();
+        }
+
+        //Assert: 6 offsets of each partition
+        assertEquals(12, count);
+    }
+
+    @Test
+    public void stream_parallel() {
+        // Call: splits of at least 2 offsets
+        final long count;
+        try (Stream<TestMessage> messages = stream(0, Long.MAX_VALUE, 2).parallel()) {
+            count = messages.filter(message -> "testMessage".equals(message.getText())).count();
+        }
+
+        //Assert: the messages of the other type were skipped
+        assertEquals(2 * MESSAGES, count);
+    }
+
+    @Test
+    public void stream_shortCircuited() {
+        // Call
+        try (Stream<TestMessage> messages = stream(0, Long.MAX_VALUE, 1)) {
+            //Assert
+            assertTrue(messages.findFirst().isPresent());
+        }
+    }
+
+    @Test
+    public void trySplit_byPartitionThenByOffsets() {
+        // Prepare
+        final TopicPartition first = new TopicPartition(READ_TOPIC, 0);
+        final TopicPartition second = new TopicPartition(READ_TOPIC, 1);
+        final TopicSpliterator<TestMessage> spliterator = new TopicSpliterator<>(TestMessage.class,
+                Arrays.asList(new OffsetRange(first, 0, 100), new OffsetRange(second, 0, 10)), () -> null, 20);
+
+        // Call
+        final Spliterator<TestMessage> bySecondPartition = spliterator.trySplit();
+        final Spliterator<TestMessage> byOffsets = spliterator.trySplit();
+
+        //Assert: the small range of the second partition isn't split any further
+        assertEquals(10, bySecondPartition.estimateSize());
+        assertNull(bySecondPartition.trySplit());
+        assertEquals(50, spliterator.estimateSize());
+        assertEquals(50, byOffsets.estimateSize());
+    }
+
+    @Test
+    public void tryAdvance_unpacksAggregated() {
+        // Prepare: a record aggregating two messages, followed by a single one
+        final TopicPartition topicPartition = new TopicPartition(READ_TOPIC, 0);
+        final MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.assign(singletonList(topicPartition));
+        consumer.addRecord(new ConsumerRecord<>(READ_TOPIC, 0, 0, "key", KafkaMessage.newBuilder()
+                .addAggregated(envelope("first"))
+                .addAggregated(envelope("second"))
+                .build().toByteArray()));
+        consumer.addRecord(new ConsumerRecord<>(READ_TOPIC, 0, 1, "key", envelope("third").toByteArray()));
+        final TopicSpliterator<TestMessage> spliterator = new TopicSpliterator<>(TestMessage.class,
+                singletonList(new OffsetRange(topicPartition, 0, 2)), () -> consumer, 1);
+
+        // Call
+        final List<String> texts = StreamSupport.stream(spliterator, false).map(TestMessage::getText).collect(toList());
+
+        //Assert
+        assertEquals(Arrays.asList("first", "second", "third"), texts);
+    }
+
+    private static Stream<TestMessage> stream(long fromOffset, long toOffset, long splitRecords) {
+        return TopicSpliterator.stream(READ_TOPIC, TestMessage.class, fromOffset, toOffset, (Map) receiverProps(port), splitRecords);
+    }
+
+    private static KafkaMessage envelope(String text) {
+        return KafkaMessage.newBuilder()
+                .setPayloadClass(TestMessage.class.getName())
+                .setPayload(Any.pack(TestMessage.newBuilder().setText(text).build()))
+                .build();
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.context.event.ContextRefreshedEvent;
 import pcosta.kafka.api.*;
 import pcosta.kafka.api.annotation.EnableKafkaApiBootstrap;
 import pcosta.kafka.api.annotation.ErrorListener;
+import pcosta.kafka.api.annotation.FieldMatch;
 import pcosta.kafka.api.annotation.MessagingListener;
 import pcosta.kafka.configuration.ReceiverConfigurationBuilder;
 
@@ -235,6 +236,8 @@ public class KafkaApiBootstrapTest {
         when(configuration.topic()).thenReturn(topics);
         when(configuration.extensionRegistry()).thenReturn((Class) extensionRegistry);
         when(configuration.filters()).thenReturn(filter == null ? new Class[0] : new Class[]{filter});
+        when(configuration.where()).thenReturn(new FieldMatch[0]);
+        when(configuration.cluster()).thenReturn("");
         return configuration;
     }
 